@@ -0,0 +1,56 @@
+package com.madao.benchmark;
+
+import com.madao.entity.Todo;
+import io.vertx.core.json.Json;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code Json.encode} against {@code Json.encodePrettily} for the full
+ * listing at a few sizes; the single-todo case is in {@link TodoBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonEncodeBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int size;
+
+    private List<Todo> todos;
+
+    @Setup
+    public void setup() {
+        todos = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            todos.add(new Todo(i, "Something to do #" + i, i % 3 == 0, i,
+                    "http://localhost:8082/todos/" + i));
+        }
+    }
+
+    @Benchmark
+    public String encodeList() {
+        return Json.encode(todos);
+    }
+
+    @Benchmark
+    public String encodePrettilyList() {
+        return Json.encodePrettily(todos);
+    }
+}
@@ -0,0 +1,127 @@
+package com.madao.benchmark;
+
+import com.madao.Constants;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link Router#accept(HttpServerRequest)} for each API route, with
+ * the routes registered in the same order as {@code TodoVerticle}. Requests
+ * and responses are inert stand-ins, so only the routing is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+
+    @Param({
+            "GET /todos/42",
+            "GET /todos",
+            "POST /todos",
+            "PATCH /todos/42",
+            "DELETE /todos/42",
+            "DELETE /todos",
+            "POST /todos/batch"
+    })
+    public String route;
+
+    private Vertx vertx;
+    private Router router;
+    private HttpServerRequest request;
+    private RoutingContext dispatched;
+
+    @Setup
+    public void setup() {
+        vertx = Vertx.vertx();
+        router = Router.router(vertx);
+        final Handler<RoutingContext> handler = context -> dispatched = context;
+
+        router.post(Constants.API_BATCH_CREATE).handler(handler);
+        router.patch(Constants.API_BATCH_UPDATE).handler(handler);
+        router.delete(Constants.API_BATCH_DELETE).handler(handler);
+
+        router.get(Constants.API_GET).handler(handler);
+        router.get(Constants.API_LIST_ALL).handler(handler);
+        router.post(Constants.API_CREATE).handler(handler);
+        router.patch(Constants.API_UPDATE).handler(handler);
+        router.delete(Constants.API_DELETE).handler(handler);
+        router.delete(Constants.API_DELETE_ALL).handler(handler);
+
+        final String[] parts = route.split(" ");
+        request = request(HttpMethod.valueOf(parts[0]), parts[1]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Benchmark
+    public RoutingContext dispatch() {
+        router.accept(request);
+        return dispatched;
+    }
+
+    private static HttpServerRequest request(HttpMethod method, String path) {
+        final Map<String, Object> answers = new HashMap<>();
+        answers.put("method", method);
+        answers.put("rawMethod", method.name());
+        answers.put("path", path);
+        answers.put("uri", path);
+        answers.put("absoluteURI", "http://localhost:8082" + path);
+        answers.put("headers", MultiMap.caseInsensitiveMultiMap());
+        answers.put("params", MultiMap.caseInsensitiveMultiMap());
+        answers.put("response", stub(HttpServerResponse.class, new HashMap<>()));
+        return stub(HttpServerRequest.class, answers);
+    }
+
+    // answers by method name; anything unlisted returns the proxy itself (fluent setters) or null
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, Map<String, Object> answers) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, m, args) -> {
+                    if (answers.containsKey(m.getName())) {
+                        return answers.get(m.getName());
+                    }
+                    if (m.getReturnType() == type) {
+                        return proxy;
+                    }
+                    if (m.getReturnType() == boolean.class) {
+                        return false;
+                    }
+                    if (m.getReturnType() == int.class) {
+                        return 0;
+                    }
+                    if (m.getReturnType() == long.class) {
+                        return 0L;
+                    }
+                    return null;
+                });
+    }
+}
@@ -0,0 +1,88 @@
+package com.madao.benchmark;
+
+import com.madao.entity.Todo;
+import com.madao.service.TodoCodec;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversions every request goes through: building a {@link Todo} from the
+ * request body or a stored value, turning it back into JSON, and merging a
+ * PATCH into it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TodoBenchmark {
+
+    private JsonObject json;
+    private String encoded;
+    private String stored;
+    private Todo todo;
+    private Todo patch;
+
+    @Setup
+    public void setup() {
+        todo = new Todo(42, "Write the benchmarks before the optimizations", false, 7,
+                "http://localhost:8082/todos/42");
+        json = todo.toJson();
+        encoded = json.encode();
+        stored = TodoCodec.encode(todo);
+        patch = new Todo("{\"title\":\"Measure twice\",\"completed\":true}");
+    }
+
+    @Benchmark
+    public Todo fromJsonObject() {
+        return new Todo(json);
+    }
+
+    @Benchmark
+    public Todo fromString() {
+        return new Todo(encoded);
+    }
+
+    @Benchmark
+    public JsonObject toJson() {
+        return todo.toJson();
+    }
+
+    @Benchmark
+    public Todo merge() {
+        return todo.merge(patch);
+    }
+
+    @Benchmark
+    public String encode() {
+        return Json.encode(todo);
+    }
+
+    @Benchmark
+    public String encodePrettily() {
+        return Json.encodePrettily(todo);
+    }
+
+    @Benchmark
+    public String storageEncode() {
+        return TodoCodec.encode(todo);
+    }
+
+    @Benchmark
+    public Todo storageDecode() {
+        return TodoCodec.decode(stored);
+    }
+}
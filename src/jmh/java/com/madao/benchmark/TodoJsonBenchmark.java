@@ -0,0 +1,100 @@
+package com.madao.benchmark;
+
+import com.madao.entity.Todo;
+import com.madao.entity.TodoJson;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TodoJson} against the {@code JsonObject} and {@code Json.encode}
+ * route it replaces, from request body bytes to a {@link Todo} and from a
+ * {@link Todo} to response bytes. Run with {@code -prof gc} for the
+ * allocation per operation: gradle jmh -PjmhArgs='TodoJsonBenchmark -prof gc'
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TodoJsonBenchmark {
+
+    private static final int BATCH = 100;
+
+    private Buffer body;
+    private Buffer batchBody;
+    private Todo todo;
+    private List<Todo> todos;
+
+    @Setup
+    public void setup() {
+        todo = new Todo(42, "Write the benchmarks before the optimizations", false, 7,
+                "http://localhost:8082/todos/42");
+        body = Buffer.buffer(todo.toJson().encode());
+        todos = new ArrayList<>(BATCH);
+        for (int i = 1; i <= BATCH; i++) {
+            todos.add(new Todo(i, "Something to do #" + i, i % 3 == 0, i, "http://localhost:8082/todos/" + i));
+        }
+        batchBody = Buffer.buffer(Json.encode(todos));
+    }
+
+    @Benchmark
+    public Todo decodeJsonObject() {
+        return new Todo(new JsonObject(body.toString()));
+    }
+
+    @Benchmark
+    public Todo decodeStreaming() {
+        return TodoJson.decode(body);
+    }
+
+    @Benchmark
+    public List<Todo> decodeBatchJsonObject() {
+        final List<Todo> decoded = new ArrayList<>();
+        for (Object item : new JsonArray(batchBody.toString())) {
+            decoded.add(new Todo((JsonObject) item));
+        }
+        return decoded;
+    }
+
+    @Benchmark
+    public List<Todo> decodeBatchStreaming() {
+        return TodoJson.decodeArray(batchBody, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public Buffer encodeJson() {
+        return Buffer.buffer(Json.encode(todo));
+    }
+
+    @Benchmark
+    public Buffer encodeStreaming() {
+        return TodoJson.encode(todo);
+    }
+
+    @Benchmark
+    public Buffer encodeListJson() {
+        return Buffer.buffer(Json.encode(todos));
+    }
+
+    @Benchmark
+    public Buffer encodeListStreaming() {
+        return TodoJson.encode(todos);
+    }
+}
@@ -0,0 +1,176 @@
+package com.madao.loadtest;
+
+import com.madao.Constants;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open-loop request generator: requests are started on a fixed schedule
+ * derived from the target rate, whether or not earlier ones have completed.
+ * Latency is measured from the time a request was <em>due</em>, so when the
+ * server (or this driver) falls behind the wait shows up in the numbers
+ * instead of silently lowering the offered load.
+ * <p>
+ * Everything runs on the driver's event loop; {@code done} completes with the
+ * per-route stats once the run is over and every request has settled.
+ */
+public class LoadDriver extends AbstractVerticle {
+
+    private static final Buffer CREATE_BODY = Buffer.buffer("{\"title\":\"load test\"}");
+    private static final Buffer UPDATE_BODY = Buffer.buffer("{\"completed\":true}");
+
+    private final double rps;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final Route[] mix;
+    private final List<Integer> seededIds;
+    private final Future<Map<Route, RouteStats>> done;
+
+    private final Map<Route, RouteStats> stats = new EnumMap<>(Route.class);
+    private final ArrayDeque<Integer> createdIds = new ArrayDeque<>();
+
+    private HttpClient client;
+    private long timerId;
+    private long startedAt;
+    private long sent;
+    private long inFlight;
+    private boolean finished; // every request of the run has been started
+
+    /**
+     * @param mix the route of each slot; drawing a uniform slot yields the weighted mix
+     */
+    public LoadDriver(double rps, long warmupNanos, long durationNanos, Route[] mix,
+                      List<Integer> seededIds, Future<Map<Route, RouteStats>> done) {
+        this.rps = rps;
+        this.warmupNanos = warmupNanos;
+        this.durationNanos = durationNanos;
+        this.mix = mix;
+        this.seededIds = seededIds;
+        this.done = done;
+        for (Route route : Route.values()) {
+            stats.put(route, new RouteStats());
+        }
+    }
+
+    @Override
+    public void start() throws Exception {
+        client = vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost(config().getString("load.host", "localhost"))
+                .setDefaultPort(config().getInteger("load.port", 8082))
+                .setMaxPoolSize(config().getInteger("load.connections", 16))
+                .setTcpNoDelay(true)
+                .setKeepAlive(true));
+
+        startedAt = System.nanoTime();
+        // 1ms is the finest timer; each tick starts every request that has come due since the last
+        timerId = vertx.setPeriodic(1, id -> tick());
+    }
+
+    @Override
+    public void stop() throws Exception {
+        client.close();
+    }
+
+    private void tick() {
+        final long elapsed = System.nanoTime() - startedAt;
+        final long end = warmupNanos + durationNanos;
+        final long due = (long) (Math.min(elapsed, end) / 1e9 * rps);
+        while (sent < due) {
+            final long intendedAt = startedAt + (long) (sent * 1e9 / rps);
+            send(mix[ThreadLocalRandom.current().nextInt(mix.length)], intendedAt);
+            sent++;
+        }
+
+        if (elapsed >= end) {
+            vertx.cancelTimer(timerId);
+            finished = true;
+            settle();
+        }
+    }
+
+    private void settle() {
+        if (finished && inFlight == 0 && !done.isComplete()) {
+            done.complete(stats);
+        }
+    }
+
+    private void send(Route route, long intendedAt) {
+        final boolean measured = intendedAt - startedAt >= warmupNanos;
+        final RouteStats routeStats = stats.get(route);
+        final boolean[] settled = {false}; // a timeout may still fire after the response
+        final HttpClientRequest request = client.request(route.getMethod(), uriOf(route), response ->
+                response.bodyHandler(body -> {
+                    if (settled[0]) {
+                        return;
+                    }
+                    settled[0] = true;
+                    if (measured) {
+                        routeStats.record(System.nanoTime() - intendedAt, response.statusCode());
+                    }
+                    if (route == Route.CREATE && response.statusCode() == 201) {
+                        createdIds.add(new JsonObject(body.toString()).getInteger("id"));
+                    }
+                    complete();
+                }));
+
+        request.setTimeout(config().getLong("load.timeout", TimeUnit.SECONDS.toMillis(10)))
+                .exceptionHandler(e -> {
+                    if (settled[0]) {
+                        return;
+                    }
+                    settled[0] = true;
+                    if (measured) {
+                        routeStats.fail(System.nanoTime() - intendedAt);
+                    }
+                    complete();
+                });
+
+        inFlight++;
+        switch (route) {
+            case CREATE:
+                request.putHeader(Constants.KEY_CONTENT_TYPE, "application/json").end(CREATE_BODY);
+                break;
+            case UPDATE:
+                request.putHeader(Constants.KEY_CONTENT_TYPE, "application/json").end(UPDATE_BODY);
+                break;
+            default:
+                request.end();
+                break;
+        }
+    }
+
+    private void complete() {
+        inFlight--;
+        settle();
+    }
+
+    private String uriOf(Route route) {
+        switch (route) {
+            case GET:
+            case UPDATE:
+                return "/todos/" + randomSeededId();
+            case DELETE:
+                // delete what the run created so the seeded set stays readable
+                final Integer created = createdIds.poll();
+                return "/todos/" + (created != null ? created : randomSeededId());
+            default:
+                return Constants.API_LIST_ALL;
+        }
+    }
+
+    private int randomSeededId() {
+        return seededIds.isEmpty() ? 0 : seededIds.get(ThreadLocalRandom.current().nextInt(seededIds.size()));
+    }
+}
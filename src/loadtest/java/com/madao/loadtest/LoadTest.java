@@ -0,0 +1,201 @@
+package com.madao.loadtest;
+
+import com.madao.Constants;
+import com.madao.verticles.MainVerticle;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.HdrHistogram.Histogram;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deploys the application ({@link MainVerticle}) in-process (unless
+ * {@code load.deploy} is false), seeds it, then drives a weighted mix of the
+ * API routes at a fixed rate with {@link LoadDriver}s and prints throughput
+ * and latency percentiles per route.
+ * <p>
+ * The only argument is a JSON config file. The {@code load.*} keys configure
+ * the run, everything else is handed to the verticle, so the usual
+ * {@code config/*.json} files pick the backend:
+ * <pre>
+ *   load.rps          offered requests per second, over all drivers (1000)
+ *   load.duration     measured time in ms (30000)
+ *   load.warmup       unmeasured time before that in ms (5000)
+ *   load.instances    HTTP verticle instances and server event loops (1)
+ *   load.drivers      client event loops, each offering rps / drivers (1)
+ *   load.connections  connections per driver (16)
+ *   load.seed         todos created before the run (1000)
+ *   load.mix.KEY      relative weight of each {@link Route}
+ * </pre>
+ * Server and client run on separate Vert.x instances so that
+ * {@code load.instances} really is the number of cores the server gets.
+ */
+public class LoadTest {
+
+    private static final int SEED_BATCH = 1000;
+
+    public static void main(String[] args) throws Exception {
+        final JsonObject config = args.length == 0 ? new JsonObject()
+                : new JsonObject(new String(Files.readAllBytes(Paths.get(args[0])), "UTF-8"));
+
+        final int instances = config.getInteger("load.instances", 1);
+        final int drivers = config.getInteger("load.drivers", 1);
+        final double rps = config.getDouble("load.rps", 1000.0);
+        final long warmup = TimeUnit.MILLISECONDS.toNanos(config.getLong("load.warmup", 5_000L));
+        final long duration = TimeUnit.MILLISECONDS.toNanos(config.getLong("load.duration", 30_000L));
+        final Route[] mix = mix(config);
+
+        final Vertx server = config.getBoolean("load.deploy", true)
+                ? Vertx.vertx(new VertxOptions().setEventLoopPoolSize(instances)) : null;
+        final Vertx client = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(drivers));
+
+        final CountDownLatch finished = new CountDownLatch(1);
+        deploy(server, config, instances)
+                .compose(v -> seed(client, config))
+                .compose(ids -> {
+                    System.out.printf("Offering %.0f rps for %ds (after %ds warm-up) with %d driver(s)%n",
+                            rps, TimeUnit.NANOSECONDS.toSeconds(duration),
+                            TimeUnit.NANOSECONDS.toSeconds(warmup), drivers);
+                    List<Future> runs = new ArrayList<>();
+                    for (int i = 0; i < drivers; i++) {
+                        Future<Map<Route, RouteStats>> done = Future.future();
+                        client.deployVerticle(new LoadDriver(rps / drivers, warmup, duration, mix, ids, done),
+                                new DeploymentOptions().setConfig(config));
+                        runs.add(done);
+                    }
+                    return CompositeFuture.all(runs);
+                })
+                .setHandler(res -> {
+                    if (res.succeeded()) {
+                        report(res.result().list(), duration);
+                    } else {
+                        System.err.println("[Error] Load test failed!");
+                        res.cause().printStackTrace();
+                    }
+                    finished.countDown();
+                });
+
+        finished.await();
+        client.close();
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    // one slot per unit of weight, so a uniform draw over the slots follows the mix
+    private static Route[] mix(JsonObject config) {
+        List<Route> slots = new ArrayList<>();
+        for (Route route : Route.values()) {
+            int weight = config.getInteger("load.mix." + route.getKey(), route.getDefaultWeight());
+            slots.addAll(Collections.nCopies(Math.max(0, weight), route));
+        }
+        if (slots.isEmpty()) {
+            throw new IllegalArgumentException("load.mix gives every route a weight of 0");
+        }
+        return slots.toArray(new Route[slots.size()]);
+    }
+
+    static Future<Void> deploy(Vertx server, JsonObject config, int instances) {
+        Future<Void> result = Future.future();
+        if (server == null) {
+            result.complete();
+            return result;
+        }
+        server.deployVerticle(MainVerticle.class.getName(),
+                new DeploymentOptions().setConfig(config.copy().put("http.instances", instances)), res -> {
+                    if (res.succeeded())
+                        result.complete();
+                    else
+                        result.fail(res.cause());
+                });
+        return result;
+    }
+
+    /**
+     * Create {@code load.seed} todos through the batch endpoint and collect
+     * their ids for the item routes to pick from.
+     */
+    private static Future<List<Integer>> seed(Vertx vertx, JsonObject config) {
+        final HttpClient http = vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost(config.getString("load.host", "localhost"))
+                .setDefaultPort(config.getInteger("load.port", 8082)));
+        final Future<List<Integer>> result = Future.future();
+        seedFrom(http, config.getInteger("load.seed", 1000), new ArrayList<>(), result);
+        return result.map(ids -> {
+            http.close();
+            return ids;
+        });
+    }
+
+    private static void seedFrom(HttpClient http, int remaining, List<Integer> ids, Future<List<Integer>> result) {
+        if (remaining <= 0) {
+            result.complete(ids);
+            return;
+        }
+
+        final int size = Math.min(remaining, SEED_BATCH);
+        final JsonArray batch = new JsonArray();
+        for (int i = 0; i < size; i++) {
+            batch.add(new JsonObject().put("title", "seed").put("completed", false).put("order", i));
+        }
+
+        http.post(Constants.API_BATCH_CREATE, response -> response.bodyHandler(body -> {
+            if (response.statusCode() != 201) {
+                result.fail("Seeding failed with status " + response.statusCode());
+                return;
+            }
+            new JsonArray(body.toString()).forEach(todo -> ids.add(((JsonObject) todo).getInteger("id")));
+            seedFrom(http, remaining - size, ids, result);
+        })).exceptionHandler(result::fail)
+                .putHeader(Constants.KEY_CONTENT_TYPE, "application/json")
+                .end(batch.encode());
+    }
+
+    private static void report(List<Map<Route, RouteStats>> perDriver, long durationNanos) {
+        final Map<Route, RouteStats> merged = new EnumMap<>(Route.class);
+        final RouteStats total = new RouteStats();
+        for (Route route : Route.values()) {
+            RouteStats stats = new RouteStats();
+            perDriver.forEach(driver -> stats.add(driver.get(route)));
+            merged.put(route, stats);
+            total.add(stats);
+        }
+
+        final double seconds = durationNanos / 1e9;
+        System.out.printf("%-11s %9s %9s %9s %9s %9s %9s %8s %8s %8s %8s%n",
+                "route", "count", "rps", "p50 ms", "p99 ms", "p99.9 ms", "max ms",
+                "ok", "4xx", "5xx", "failed");
+        merged.forEach((route, stats) -> {
+            if (stats.count() > 0) {
+                printRow(route.getKey(), stats, seconds);
+            }
+        });
+        printRow("total", total, seconds);
+    }
+
+    private static void printRow(String name, RouteStats stats, double seconds) {
+        final Histogram latency = stats.getLatency();
+        System.out.printf("%-11s %9d %9.1f %9.3f %9.3f %9.3f %9.3f %8d %8d %8d %8d%n",
+                name, stats.count(), stats.count() / seconds,
+                latency.getValueAtPercentile(50) / 1000.0,
+                latency.getValueAtPercentile(99) / 1000.0,
+                latency.getValueAtPercentile(99.9) / 1000.0,
+                latency.getMaxValue() / 1000.0,
+                stats.getSuccess(), stats.getClientErrors(), stats.getServerErrors(), stats.getFailures());
+    }
+}
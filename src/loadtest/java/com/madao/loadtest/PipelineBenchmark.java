@@ -0,0 +1,223 @@
+package com.madao.loadtest;
+
+import com.madao.entity.Todo;
+import com.madao.metrics.Metrics;
+import com.madao.service.RedisTodoService;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.redis.RedisClient;
+import io.vertx.redis.RedisOptions;
+import org.HdrHistogram.Histogram;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency of {@link RedisTodoService} with and without
+ * {@code redis.pipelining}, at increasing numbers of operations in flight.
+ * <p>
+ * Drives the service directly on one event loop, with no HTTP in between,
+ * so the difference is the Redis client alone. The todos are written to
+ * database {@code pipeline.database} of the Redis at {@code redis.host} and
+ * {@code redis.port}, which is emptied first. For every concurrency both
+ * {@link Variant}s run the same closed loop on a fresh Vert.x instance:
+ * {@code concurrency} operations in flight, each completed one followed by
+ * the next, a {@code GET} of a random todo or, with probability
+ * {@code pipeline.updates}, a {@code PATCH} of its order.
+ * <p>
+ * The only argument is a JSON config file:
+ * <pre>
+ *   pipeline.concurrency  operations in flight, one run each ([1, 16, 64, 256])
+ *   pipeline.requests     measured operations per variant and concurrency (100000)
+ *   pipeline.warmup       unmeasured operations before those (20000)
+ *   pipeline.todos        todos to read and patch (1000)
+ *   pipeline.updates      share of PATCHes, from 0 to 1 (0.2)
+ *   pipeline.database     Redis database to use (15)
+ * </pre>
+ */
+public class PipelineBenchmark {
+
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    enum Variant {
+        PLAIN(false),
+        PIPELINED(true);
+
+        private final boolean pipelining;
+
+        Variant(boolean pipelining) {
+            this.pipelining = pipelining;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final JsonObject config = args.length == 0 ? new JsonObject()
+                : new JsonObject(new String(Files.readAllBytes(Paths.get(args[0])), "UTF-8"));
+        final RedisOptions options = new RedisOptions()
+                .setHost(config.getString("redis.host", "127.0.0.1"))
+                .setPort(config.getInteger("redis.port", 6379))
+                .setSelect(config.getInteger("pipeline.database", 15));
+
+        final List<Integer> concurrencies = new ArrayList<>();
+        config.getJsonArray("pipeline.concurrency", new JsonArray().add(1).add(16).add(64).add(256))
+                .forEach(concurrency -> concurrencies.add((Integer) concurrency));
+
+        seed(options, config.getInteger("pipeline.todos", 1000));
+        System.out.printf("%-10s %6s %10s %9s %9s %9s %12s%n",
+                "variant", "flight", "ops/s", "p50 ms", "p99 ms", "max ms", "cmds/write");
+        for (int concurrency : concurrencies) {
+            for (Variant variant : Variant.values()) {
+                final Vertx vertx = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(1));
+                try {
+                    new Run(vertx, options, config, variant, concurrency).await();
+                } finally {
+                    final CountDownLatch closed = new CountDownLatch(1);
+                    vertx.close(v -> closed.countDown());
+                    closed.await();
+                }
+            }
+        }
+    }
+
+    private static void seed(RedisOptions options, int todos) throws InterruptedException {
+        final Vertx vertx = Vertx.vertx();
+        final RedisClient redis = RedisClient.create(vertx, options);
+        final RedisTodoService service = new RedisTodoService(vertx, Collections.singletonList(options),
+                1, RedisTodoService.DEFAULT_RING_POINTS);
+        final List<Todo> batch = new ArrayList<>(todos);
+        for (int id = 1; id <= todos; id++) {
+            batch.add(new Todo(id, "todo " + id, false, id, "todo/" + id));
+        }
+
+        final CountDownLatch seeded = new CountDownLatch(1);
+        final Future<String> flushed = Future.future();
+        redis.flushdb(flushed.completer());
+        flushed.compose(v -> service.insertMany(batch)).setHandler(res -> {
+            if (res.failed()) {
+                System.err.println("[Error] Seeding Redis failed!");
+                res.cause().printStackTrace();
+                System.exit(1);
+            }
+            seeded.countDown();
+        });
+        seeded.await();
+        vertx.close();
+    }
+
+    /**
+     * One variant at one concurrency. Everything runs on one context, the
+     * way the commands of one verticle instance do.
+     */
+    private static final class Run {
+        private final Vertx vertx;
+        private final Variant variant;
+        private final int concurrency;
+        private final int warmup;
+        private final int requests;
+        private final int todos;
+        private final double updates;
+        private final RedisTodoService service;
+        private final Random random = new Random(42);
+        private final Histogram latency = new Histogram(HIGHEST_MICROS, 3);
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private int started;
+        private int completed;
+        private long measuredFrom;
+        private Throwable failure;
+
+        Run(Vertx vertx, RedisOptions options, JsonObject config, Variant variant, int concurrency) {
+            this.vertx = vertx;
+            this.variant = variant;
+            this.concurrency = concurrency;
+            this.warmup = config.getInteger("pipeline.warmup", 20_000);
+            this.requests = config.getInteger("pipeline.requests", 100_000);
+            this.todos = config.getInteger("pipeline.todos", 1000);
+            this.updates = config.getDouble("pipeline.updates", 0.2);
+            this.service = new RedisTodoService(vertx, Collections.singletonList(options),
+                    1, RedisTodoService.DEFAULT_RING_POINTS, variant.pipelining,
+                    Math.max(RedisTodoService.DEFAULT_PIPELINE_PENDING, concurrency * 4));
+        }
+
+        void await() throws InterruptedException {
+            final Context context = vertx.getOrCreateContext();
+            context.runOnContext(v -> {
+                for (int i = 0; i < concurrency; i++) {
+                    send();
+                }
+            });
+            done.await();
+            if (failure != null) {
+                System.err.println("[Error] " + variant + " at " + concurrency + " in flight failed!");
+                failure.printStackTrace();
+            }
+        }
+
+        private void send() {
+            if (started == warmup + requests) {
+                return;
+            }
+            final boolean measured = started++ >= warmup;
+            final String id = String.valueOf(1 + random.nextInt(todos));
+            final long sentAt = System.nanoTime();
+            final Future<?> operation = random.nextDouble() < updates
+                    ? service.update(id, new Todo(0, null, null, random.nextInt(100_000), null))
+                    : service.getCertain(id);
+            operation.setHandler(res -> {
+                if (res.failed()) {
+                    fail(res.cause());
+                    return;
+                }
+                if (measured) {
+                    latency.recordValue(Math.min(
+                            TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentAt), HIGHEST_MICROS));
+                }
+                completed();
+            });
+        }
+
+        private void completed() {
+            if (++completed == warmup) {
+                measuredFrom = System.nanoTime();
+                latency.reset();
+            }
+            if (completed == warmup + requests) {
+                report();
+                done.countDown();
+            } else {
+                send();
+            }
+        }
+
+        private void fail(Throwable cause) {
+            if (failure == null) {
+                failure = cause;
+                done.countDown();
+            }
+        }
+
+        // operations that overlapped the start of the measurement are a rounding error at these counts
+        private void report() {
+            final double seconds = (System.nanoTime() - measuredFrom) / 1e9;
+            final Metrics metrics = Metrics.get(vertx);
+            final long commands = metrics.counter("todo_redis_pipelined_commands_total", "").labels().get();
+            final long writes = metrics.counter("todo_redis_pipeline_writes_total", "").labels().get();
+            System.out.printf("%-10s %6d %10.0f %9.3f %9.3f %9.3f %12s%n",
+                    variant, concurrency, requests / seconds,
+                    latency.getValueAtPercentile(50) / 1000.0,
+                    latency.getValueAtPercentile(99) / 1000.0,
+                    latency.getMaxValue() / 1000.0,
+                    writes == 0 ? "-" : String.format("%.1f", (double) commands / writes));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.madao.loadtest;
+
+import io.vertx.core.http.HttpMethod;
+
+/**
+ * The routes the load generator can drive, with the config key that sets
+ * each one's share of the mix ({@code load.mix.<key>}).
+ */
+public enum Route {
+    GET("get", HttpMethod.GET, 50),
+    LIST("list", HttpMethod.GET, 5),
+    CREATE("create", HttpMethod.POST, 20),
+    UPDATE("update", HttpMethod.PATCH, 20),
+    DELETE("delete", HttpMethod.DELETE, 5),
+    DELETE_ALL("delete_all", HttpMethod.DELETE, 0);
+
+    private final String key;
+    private final HttpMethod method;
+    private final int defaultWeight;
+
+    Route(String key, HttpMethod method, int defaultWeight) {
+        this.key = key;
+        this.method = method;
+        this.defaultWeight = defaultWeight;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    public int getDefaultWeight() {
+        return defaultWeight;
+    }
+}
@@ -0,0 +1,72 @@
+package com.madao.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencies and outcome counts of one route. Not thread safe: every driver
+ * keeps its own and they are merged with {@link #add(RouteStats)} at the end.
+ */
+public class RouteStats {
+
+    // anything slower than a minute is clamped, it is a failure in any report anyway
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final Histogram latency = new Histogram(HIGHEST_MICROS, 3);
+    private long success;
+    private long clientErrors;
+    private long serverErrors;
+    private long failures;
+
+    public void record(long latencyNanos, int statusCode) {
+        latency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), HIGHEST_MICROS));
+        if (statusCode >= 500) {
+            serverErrors++;
+        } else if (statusCode >= 400) {
+            clientErrors++;
+        } else {
+            success++;
+        }
+    }
+
+    /**
+     * A request that never got a response (connection error or timeout).
+     */
+    public void fail(long latencyNanos) {
+        latency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), HIGHEST_MICROS));
+        failures++;
+    }
+
+    public void add(RouteStats other) {
+        latency.add(other.latency);
+        success += other.success;
+        clientErrors += other.clientErrors;
+        serverErrors += other.serverErrors;
+        failures += other.failures;
+    }
+
+    public long count() {
+        return latency.getTotalCount();
+    }
+
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    public long getSuccess() {
+        return success;
+    }
+
+    public long getClientErrors() {
+        return clientErrors;
+    }
+
+    public long getServerErrors() {
+        return serverErrors;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+}
@@ -0,0 +1,336 @@
+package com.madao.loadtest;
+
+import com.madao.Constants;
+import com.madao.verticles.MainVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.NetClient;
+import io.vertx.core.net.NetServer;
+import io.vertx.core.net.NetSocket;
+import org.HdrHistogram.Histogram;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bytes on the wire and latency of {@code GET /todos} for large lists, over
+ * HTTP/1.1 and h2c, with and without compression.
+ * <p>
+ * Deploys the application ({@link MainVerticle}) in-process like
+ * {@link LoadTest} and puts a byte-counting TCP proxy in front of it, so the
+ * byte counts include headers, chunk and frame overhead, not just bodies.
+ * For every list size the todos are created with varied titles (a list of
+ * identical ones would compress unrealistically well), then every
+ * {@link Variant} runs the same closed loop: {@code wire.concurrency}
+ * requests in flight, each answered one followed by the next.
+ * <p>
+ * The only argument is a JSON config file; the {@code wire.*} keys
+ * configure the run, everything else is handed to the verticle:
+ * <pre>
+ *   wire.sizes        list sizes to measure, ascending ([100, 1000, 5000])
+ *   wire.requests     measured requests per variant and size (1000)
+ *   wire.warmup       unmeasured requests before those (200)
+ *   wire.concurrency  requests in flight (8)
+ *   wire.path         the request URI ("/todos")
+ *   wire.proxy_port   port of the counting proxy (8083)
+ * </pre>
+ */
+public class WireBenchmark {
+
+    private static final String[] WORDS = {
+            "buy", "milk", "call", "mum", "fix", "the", "bike", "tyre", "write", "report",
+            "book", "flights", "to", "Lisbon", "water", "plants", "renew", "passport", "pay",
+            "rent", "review", "pull", "request", "clean", "kitchen", "before", "Friday"
+    };
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    enum Variant {
+        HTTP_1_1(HttpVersion.HTTP_1_1, false),
+        HTTP_1_1_GZIP(HttpVersion.HTTP_1_1, true),
+        H2C(HttpVersion.HTTP_2, false),
+        H2C_GZIP(HttpVersion.HTTP_2, true);
+
+        private final HttpVersion version;
+        private final boolean compressed;
+
+        Variant(HttpVersion version, boolean compressed) {
+            this.version = version;
+            this.compressed = compressed;
+        }
+
+        HttpClientOptions options(int concurrency) {
+            return new HttpClientOptions()
+                    .setProtocolVersion(version)
+                    // h2c with prior knowledge, the server needs no upgrade round trip
+                    .setHttp2ClearTextUpgrade(false)
+                    .setHttp2MaxPoolSize(1)
+                    .setHttp2MultiplexingLimit(concurrency)
+                    .setMaxPoolSize(concurrency)
+                    .setKeepAlive(true)
+                    .setTcpNoDelay(true)
+                    .setTryUseCompression(compressed);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final JsonObject config = args.length == 0 ? new JsonObject()
+                : new JsonObject(new String(Files.readAllBytes(Paths.get(args[0])), "UTF-8"));
+
+        final Vertx server = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(1));
+        final Vertx client = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(1));
+        final Proxy proxy = new Proxy(client, config);
+
+        final List<Integer> sizes = new ArrayList<>();
+        config.getJsonArray("wire.sizes", new JsonArray().add(100).add(1000).add(5000))
+                .forEach(size -> sizes.add((Integer) size));
+
+        final CountDownLatch finished = new CountDownLatch(1);
+        LoadTest.deploy(server, config, 1)
+                .compose(v -> proxy.listen())
+                .compose(v -> {
+                    System.out.printf("%-14s %6s %11s %11s %9s %9s %9s %9s%n",
+                            "variant", "todos", "down B/req", "up B/req", "rps", "p50 ms", "p99 ms", "max ms");
+                    return measureSizes(client, proxy, config, sizes.iterator(), 0);
+                })
+                .setHandler(res -> {
+                    if (res.failed()) {
+                        System.err.println("[Error] Wire benchmark failed!");
+                        res.cause().printStackTrace();
+                    }
+                    finished.countDown();
+                });
+
+        finished.await();
+        client.close();
+        server.close();
+    }
+
+    private static Future<Void> measureSizes(Vertx vertx, Proxy proxy, JsonObject config,
+                                             Iterator<Integer> sizes, int seeded) {
+        if (!sizes.hasNext()) {
+            return Future.succeededFuture();
+        }
+        final int size = sizes.next();
+        final HttpClient http = vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost(config.getString("load.host", "localhost"))
+                .setDefaultPort(config.getInteger("load.port", 8082)));
+        final Future<Void> created = Future.future();
+        seed(http, size - seeded, new Random(size), created);
+        return created
+                .compose(v -> {
+                    http.close();
+                    return measureVariants(vertx, proxy, config, size, 0);
+                })
+                .compose(v -> measureSizes(vertx, proxy, config, sizes, Math.max(seeded, size)));
+    }
+
+    private static Future<Void> measureVariants(Vertx vertx, Proxy proxy, JsonObject config, int size, int next) {
+        if (next == Variant.values().length) {
+            return Future.succeededFuture();
+        }
+        return new Run(vertx, proxy, config, Variant.values()[next], size).start()
+                .compose(v -> measureVariants(vertx, proxy, config, size, next + 1));
+    }
+
+    private static void seed(HttpClient http, int remaining, Random random, Future<Void> result) {
+        if (remaining <= 0) {
+            result.complete();
+            return;
+        }
+
+        final int size = Math.min(remaining, 1000);
+        final JsonArray batch = new JsonArray();
+        for (int i = 0; i < size; i++) {
+            final StringBuilder title = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+            for (int words = 2 + random.nextInt(6); words > 0; words--) {
+                title.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            batch.add(new JsonObject()
+                    .put("title", title.toString())
+                    .put("completed", random.nextBoolean())
+                    .put("order", random.nextInt(100_000)));
+        }
+
+        http.post(Constants.API_BATCH_CREATE, response -> response.bodyHandler(body -> {
+            if (response.statusCode() != 201) {
+                result.fail("Seeding failed with status " + response.statusCode());
+                return;
+            }
+            seed(http, remaining - size, random, result);
+        })).exceptionHandler(result::fail)
+                .putHeader(Constants.KEY_CONTENT_TYPE, "application/json")
+                .end(batch.encode());
+    }
+
+    /**
+     * One variant against one list size, on its own client so that the
+     * connections (and their HTTP/2 settings and HPACK tables) are fresh.
+     */
+    private static final class Run {
+        private final Proxy proxy;
+        private final Variant variant;
+        private final int size;
+        private final String path;
+        private final int concurrency;
+        private final int warmup;
+        private final int requests;
+        private final HttpClient client;
+        private final Histogram latency = new Histogram(HIGHEST_MICROS, 3);
+        private final Future<Void> done = Future.future();
+
+        private int started;
+        private int completed;
+        private long measuredFrom;
+
+        Run(Vertx vertx, Proxy proxy, JsonObject config, Variant variant, int size) {
+            this.proxy = proxy;
+            this.variant = variant;
+            this.size = size;
+            this.path = config.getString("wire.path", Constants.API_LIST_ALL);
+            this.concurrency = config.getInteger("wire.concurrency", 8);
+            this.warmup = config.getInteger("wire.warmup", 200);
+            this.requests = config.getInteger("wire.requests", 1000);
+            this.client = vertx.createHttpClient(variant.options(concurrency)
+                    .setDefaultHost("localhost")
+                    .setDefaultPort(proxy.port));
+        }
+
+        Future<Void> start() {
+            for (int i = 0; i < concurrency; i++) {
+                send();
+            }
+            return done;
+        }
+
+        private void send() {
+            if (started == warmup + requests) {
+                return;
+            }
+            final boolean measured = started++ >= warmup;
+            final long sentAt = System.nanoTime();
+            client.get(path, response -> response.bodyHandler(body -> {
+                if (response.statusCode() != 200) {
+                    fail(new IllegalStateException(path + " answered " + response.statusCode()));
+                    return;
+                }
+                if (measured) {
+                    latency.recordValue(Math.min(
+                            TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentAt), HIGHEST_MICROS));
+                }
+                completed();
+            })).exceptionHandler(this::fail).end();
+        }
+
+        private void completed() {
+            if (++completed == warmup) {
+                // only now is nothing of the warm-up still in flight
+                proxy.reset();
+                measuredFrom = System.nanoTime();
+                latency.reset();
+            }
+            if (completed == warmup + requests) {
+                report();
+                client.close();
+                done.complete();
+            } else {
+                send();
+            }
+        }
+
+        private void fail(Throwable cause) {
+            if (!done.isComplete()) {
+                client.close();
+                done.fail(cause);
+            }
+        }
+
+        // requests that overlapped the reset are a rounding error at these counts
+        private void report() {
+            final double seconds = (System.nanoTime() - measuredFrom) / 1e9;
+            System.out.printf("%-14s %6d %11d %11d %9.1f %9.3f %9.3f %9.3f%n",
+                    variant, size,
+                    proxy.down.get() / requests, proxy.up.get() / requests,
+                    requests / seconds,
+                    latency.getValueAtPercentile(50) / 1000.0,
+                    latency.getValueAtPercentile(99) / 1000.0,
+                    latency.getMaxValue() / 1000.0);
+        }
+    }
+
+    /**
+     * Forwards every connection to the server and counts the bytes going
+     * each way.
+     */
+    private static final class Proxy {
+        private final Vertx vertx;
+        private final int port;
+        private final String targetHost;
+        private final int targetPort;
+        private final AtomicLong up = new AtomicLong();
+        private final AtomicLong down = new AtomicLong();
+
+        Proxy(Vertx vertx, JsonObject config) {
+            this.vertx = vertx;
+            this.port = config.getInteger("wire.proxy_port", 8083);
+            this.targetHost = config.getString("load.host", "localhost");
+            this.targetPort = config.getInteger("load.port", 8082);
+        }
+
+        void reset() {
+            up.set(0);
+            down.set(0);
+        }
+
+        Future<Void> listen() {
+            final NetClient client = vertx.createNetClient();
+            final NetServer server = vertx.createNetServer().connectHandler(downstream -> {
+                downstream.pause();
+                client.connect(targetPort, targetHost, res -> {
+                    if (res.failed()) {
+                        downstream.close();
+                        return;
+                    }
+                    final NetSocket upstream = res.result();
+                    pipe(downstream, upstream, up);
+                    pipe(upstream, downstream, down);
+                    downstream.resume();
+                });
+            });
+
+            final Future<Void> result = Future.future();
+            server.listen(port, res -> {
+                if (res.succeeded()) {
+                    result.complete();
+                } else {
+                    result.fail(res.cause());
+                }
+            });
+            return result;
+        }
+
+        private static void pipe(NetSocket from, NetSocket to, AtomicLong counter) {
+            from.handler(data -> {
+                counter.addAndGet(data.length());
+                to.write(data);
+                if (to.writeQueueFull()) {
+                    from.pause();
+                    to.drainHandler(v -> from.resume());
+                }
+            });
+            from.closeHandler(v -> to.close());
+        }
+    }
+}
@@ -3,9 +3,36 @@ package com.madao;
 public final class Constants {
 
     public static final String REDIS_TODO_KEY = "VERT_TODO";
+    public static final String REDIS_TODO_SEQ_KEY = "VERT_TODO_SEQ";
+    // secondary indexes of a todo hash are named after it, kept by RedisScripts
+    public static final String REDIS_COMPLETED_SUFFIX = ":completed";
+    public static final String REDIS_OPEN_SUFFIX = ":open";
+    public static final String REDIS_ORDER_SUFFIX = ":order";
+    public static final String REDIS_COMPLETED_ORDER_SUFFIX = REDIS_COMPLETED_SUFFIX + REDIS_ORDER_SUFFIX;
+    public static final String REDIS_OPEN_ORDER_SUFFIX = REDIS_OPEN_SUFFIX + REDIS_ORDER_SUFFIX;
+    // bumped whenever an index is added, so the next migration pass builds it
+    public static final String REDIS_INDEXED_SUFFIX = ":indexed:2";
+    public static final String REDIS_TODO_COMPLETED_KEY = REDIS_TODO_KEY + REDIS_COMPLETED_SUFFIX;
+    public static final String REDIS_TODO_OPEN_KEY = REDIS_TODO_KEY + REDIS_OPEN_SUFFIX;
+    public static final String REDIS_TODO_ORDER_KEY = REDIS_TODO_KEY + REDIS_ORDER_SUFFIX;
+    public static final String REDIS_TODO_COMPLETED_ORDER_KEY = REDIS_TODO_KEY + REDIS_COMPLETED_ORDER_SUFFIX;
+    public static final String REDIS_TODO_OPEN_ORDER_KEY = REDIS_TODO_KEY + REDIS_OPEN_ORDER_SUFFIX;
+    public static final String REDIS_TODO_INDEXED_KEY = REDIS_TODO_KEY + REDIS_INDEXED_SUFFIX;
+    // the shard layout the hashes were last balanced for, on every endpoint
+    public static final String REDIS_TODO_LAYOUT_KEY = REDIS_TODO_KEY + ":layout";
+    // a deleted hash and its indexes are renamed to <hash>:trash:<deletion id> until purged
+    public static final String REDIS_TRASH_INFIX = ":trash:";
 
     public static final String KEY_CONTENT_TYPE = "content-type";
     public static final String VALUE_CONTENT_TYPE = "application/json;charset=utf8e";
+    public static final String KEY_NEXT_CURSOR = "x-next-cursor";
+    public static final String KEY_ETAG = "etag";
+    public static final String KEY_IF_NONE_MATCH = "if-none-match";
+    public static final String KEY_ACCEPT_ENCODING = "accept-encoding";
+    public static final String KEY_CONTENT_ENCODING = "content-encoding";
+    public static final String KEY_VARY = "vary";
+    public static final String KEY_LOCATION = "location";
+    public static final String KEY_RETRY_AFTER = "retry-after";
 
     private Constants() {}
 
@@ -15,4 +42,10 @@ public final class Constants {
     public static final String API_UPDATE ="/todos/:todoId" ;
     public static final String API_DELETE = "/todos/:todoId";
     public static final String API_DELETE_ALL = "/todos";
+    public static final String API_BATCH_CREATE = "/todos/batch";
+    public static final String API_BATCH_UPDATE = "/todos/batch";
+    public static final String API_BATCH_DELETE = "/todos/batch";
+    public static final String API_CHANGES = "/todos/changes";
+    public static final String API_DELETION = "/todos/deletions/:deletionId";
+    public static final String API_METRICS = "/metrics";
 }
@@ -0,0 +1,65 @@
+package com.madao.entity;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Progress of one {@code DELETE /todos}. Backends reclaim the storage of a
+ * large list in the background, a batch at a time; this is how far they
+ * got. {@code total} is -1 when the backend cannot tell cheaply, and
+ * {@code error} is only set once the deletion stopped short.
+ */
+public class Deletion {
+
+    private final String id;
+    private final long total;
+    private final long deleted;
+    private final boolean done;
+    private final String error;
+
+    public Deletion(String id, long total, long deleted, boolean done, String error) {
+        this.id = id;
+        this.total = total;
+        this.deleted = deleted;
+        this.done = done;
+        this.error = error;
+    }
+
+    public Deletion(JsonObject json) {
+        this(json.getString("id"), json.getLong("total", -1L), json.getLong("deleted", 0L),
+                json.getBoolean("done", false), json.getString("error"));
+    }
+
+    public JsonObject toJson() {
+        final JsonObject json = new JsonObject()
+                .put("id", id)
+                .put("deleted", deleted)
+                .put("done", done);
+        if (total >= 0) {
+            json.put("total", total);
+        }
+        if (error != null) {
+            json.put("error", error);
+        }
+        return json;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
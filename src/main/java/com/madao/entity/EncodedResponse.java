@@ -0,0 +1,93 @@
+package com.madao.entity;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A response body encoded once, with a strong ETag derived from its bytes.
+ * Because the tag only depends on the content, every verticle instance and
+ * node hands out the same tag for the same body. The tag is only hashed
+ * the first time it is asked for.
+ */
+public class EncodedResponse {
+
+    private static final int ETAG_BYTES = 8;
+
+    private final Buffer body;
+    private volatile String etag; // racing threads compute the same tag
+    private final Map<String, Buffer> encodings = new ConcurrentHashMap<>(2);
+
+    public EncodedResponse(Buffer body) {
+        this.body = body;
+    }
+
+    public static EncodedResponse of(Todo todo) {
+        return new EncodedResponse(TodoJson.encode(todo));
+    }
+
+    public static EncodedResponse of(List<Todo> todos) {
+        return new EncodedResponse(Buffer.buffer(Json.encodePrettily(todos)));
+    }
+
+    private static String etagOf(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+            StringBuilder tag = new StringBuilder(ETAG_BYTES * 2 + 2).append('"');
+            for (int i = 0; i < ETAG_BYTES; i++) {
+                tag.append(Character.forDigit((digest[i] >> 4) & 0xF, 16))
+                        .append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return tag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Buffer getBody() {
+        return body;
+    }
+
+    /**
+     * The body in a content coding such as gzip, made by {@code encoder} the
+     * first time that coding is asked for.
+     */
+    public Buffer getBody(String coding, Function<Buffer, Buffer> encoder) {
+        return encodings.computeIfAbsent(coding, c -> encoder.apply(body));
+    }
+
+    public String getEtag() {
+        String tag = etag;
+        if (tag == null) {
+            tag = etagOf(body.getBytes());
+            etag = tag;
+        }
+        return tag;
+    }
+
+    /**
+     * Whether an {@code If-None-Match} header value matches this body. Uses
+     * the weak comparison RFC 7232 prescribes for this header.
+     */
+    public boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(getEtag())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
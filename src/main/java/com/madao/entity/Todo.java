@@ -3,13 +3,9 @@ package com.madao.entity;
 import io.vertx.codegen.annotations.DataObject;
 import io.vertx.core.json.JsonObject;
 
-import java.util.concurrent.atomic.AtomicInteger;
-
 @DataObject(generateConverter = true)
 public class Todo {
 
-    private static final AtomicInteger acc = new AtomicInteger(0); // counter
-
     private int id;
     private String title;
     private Boolean completed;
@@ -57,18 +53,6 @@ public class Todo {
         this.id = id;
     }
 
-    public void setIncId() {
-        this.id = acc.incrementAndGet();
-    }
-
-    public static int getIncId() {
-        return acc.get();
-    }
-
-    public static void setIncIdWith(int n) {
-        acc.set(n);
-    }
-
     public String getTitle() {
         return title;
     }
@@ -81,6 +65,10 @@ public class Todo {
         return getOrElse(completed, false);
     }
 
+    public boolean hasCompleted() {
+        return completed != null;
+    }
+
     public void setCompleted(Boolean completed) {
         this.completed = completed;
     }
@@ -89,6 +77,10 @@ public class Todo {
         return getOrElse(order, 0);
     }
 
+    public boolean hasOrder() {
+        return order != null;
+    }
+
     public void setOrder(Integer order) {
         this.order = order;
     }
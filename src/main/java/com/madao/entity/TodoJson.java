@@ -0,0 +1,269 @@
+package com.madao.entity;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the JSON of a {@link Todo} token by token, straight
+ * between the bytes of a {@link Buffer} and the fields of the todo.
+ * <p>
+ * {@code new Todo(JsonObject)} first builds a {@code LinkedHashMap} of
+ * boxed values and then picks the fields out of it through
+ * {@link TodoConverter}; encoding with {@code Json.encode} goes through a
+ * {@code String} that is copied into a {@code Buffer} again afterwards.
+ * The results are the same: decoding uses the parser settings of
+ * {@link Json#mapper}, a field of the wrong type is left unset, the last of
+ * repeated keys wins, and unknown keys and anything after the object are
+ * ignored; encoding writes byte for byte what {@code Json.encode} writes.
+ */
+public final class TodoJson {
+
+    private static final JsonFactory FACTORY = Json.mapper.getFactory();
+
+    private static final byte[] ID = ascii("{\"id\":");
+    private static final byte[] TITLE = ascii(",\"title\":");
+    private static final byte[] COMPLETED_TRUE = ascii(",\"completed\":true");
+    private static final byte[] COMPLETED_FALSE = ascii(",\"completed\":false");
+    private static final byte[] ORDER = ascii(",\"order\":");
+    private static final byte[] URL = ascii(",\"url\":");
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] MIN_INT = ascii(String.valueOf(Integer.MIN_VALUE));
+    private static final byte[] CONTROL_ESCAPE = ascii("\\u00");
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private TodoJson() {}
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static Todo decode(Buffer json) {
+        try (JsonParser parser = parser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new DecodeException("Failed to decode: expected a JSON object");
+            }
+            return read(parser);
+        } catch (IOException e) {
+            throw new DecodeException("Failed to decode:" + e.getMessage());
+        }
+    }
+
+    public static Todo decode(String json) {
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new DecodeException("Failed to decode: expected a JSON object");
+            }
+            return read(parser);
+        } catch (IOException e) {
+            throw new DecodeException("Failed to decode:" + e.getMessage());
+        }
+    }
+
+    /**
+     * A JSON array of todos, refused as soon as it holds something other
+     * than an object or more than {@code maxSize} of them.
+     */
+    public static List<Todo> decodeArray(Buffer json, int maxSize) {
+        try (JsonParser parser = parser(json)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new DecodeException("Failed to decode: expected a JSON array");
+            }
+            final List<Todo> todos = new ArrayList<>();
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                if (todos.size() == maxSize) {
+                    throw new DecodeException("Failed to decode: more than " + maxSize + " elements");
+                }
+                todos.add(read(parser));
+            }
+            if (token != JsonToken.END_ARRAY) {
+                throw new DecodeException("Failed to decode: expected an array of JSON objects");
+            }
+            return todos;
+        } catch (IOException e) {
+            throw new DecodeException("Failed to decode:" + e.getMessage());
+        }
+    }
+
+    public static Buffer encode(Todo todo) {
+        final Buffer buffer = Buffer.buffer(128);
+        write(buffer, todo);
+        return buffer;
+    }
+
+    public static Buffer encode(List<Todo> todos) {
+        final Buffer buffer = Buffer.buffer(128 * todos.size() + 2);
+        buffer.appendByte((byte) '[');
+        for (int i = 0; i < todos.size(); i++) {
+            if (i > 0) {
+                buffer.appendByte((byte) ',');
+            }
+            write(buffer, todos.get(i));
+        }
+        return buffer.appendByte((byte) ']');
+    }
+
+    /**
+     * Append the JSON of {@code todo} to {@code buffer}.
+     */
+    public static void encode(Todo todo, Buffer buffer) {
+        write(buffer, todo);
+    }
+
+    private static JsonParser parser(Buffer json) throws IOException {
+        final ByteBuf bytes = json.getByteBuf();
+        if (bytes.hasArray()) {
+            return FACTORY.createParser(bytes.array(), bytes.arrayOffset() + bytes.readerIndex(),
+                    bytes.readableBytes());
+        }
+        return FACTORY.createParser(new ByteBufInputStream(bytes));
+    }
+
+    // the parser is on the START_OBJECT of the todo, and is left on its END_OBJECT
+    private static Todo read(JsonParser parser) throws IOException {
+        final Todo todo = new Todo();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            switch (name) {
+                case "id":
+                    todo.setId(value.isNumeric() ? intValue(parser) : 0);
+                    break;
+                case "title":
+                    todo.setTitle(value == JsonToken.VALUE_STRING ? parser.getText() : null);
+                    break;
+                case "completed":
+                    todo.setCompleted(value.isBoolean() ? value == JsonToken.VALUE_TRUE : null);
+                    break;
+                case "order":
+                    todo.setOrder(value.isNumeric() ? intValue(parser) : null);
+                    break;
+                case "url":
+                    todo.setUrl(value == JsonToken.VALUE_STRING ? parser.getText() : null);
+                    break;
+            }
+            parser.skipChildren();
+        }
+        return todo;
+    }
+
+    // what Number.intValue() makes of the Integer, Long, BigInteger or Double a JsonObject would hold
+    private static int intValue(JsonParser parser) throws IOException {
+        switch (parser.getNumberType()) {
+            case INT:
+                return parser.getIntValue();
+            case LONG:
+                return (int) parser.getLongValue();
+            case BIG_INTEGER:
+                return parser.getBigIntegerValue().intValue();
+            default:
+                return (int) parser.getDoubleValue();
+        }
+    }
+
+    // the properties Jackson finds on Todo, in the order it writes them
+    private static void write(Buffer out, Todo todo) {
+        out.appendBytes(ID);
+        writeInt(out, todo.getId());
+        out.appendBytes(TITLE);
+        writeString(out, todo.getTitle());
+        out.appendBytes(todo.isCompleted() ? COMPLETED_TRUE : COMPLETED_FALSE);
+        out.appendBytes(ORDER);
+        writeInt(out, todo.getOrder());
+        out.appendBytes(URL);
+        writeString(out, todo.getUrl());
+        out.appendByte((byte) '}');
+    }
+
+    private static void writeInt(Buffer out, int value) {
+        if (value == Integer.MIN_VALUE) {
+            out.appendBytes(MIN_INT);
+            return;
+        }
+        if (value < 0) {
+            out.appendByte((byte) '-');
+            value = -value;
+        }
+        int unit = 1;
+        while (unit <= value / 10) {
+            unit *= 10;
+        }
+        for (; unit > 0; unit /= 10) {
+            out.appendByte((byte) ('0' + value / unit % 10));
+        }
+    }
+
+    // escaped like Jackson does; a lone surrogate becomes '?', as in String.getBytes(UTF_8)
+    private static void writeString(Buffer out, String s) {
+        if (s == null) {
+            out.appendBytes(NULL);
+            return;
+        }
+        out.appendByte((byte) '"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                writeAscii(out, c);
+            } else if (c < 0x800) {
+                out.appendByte((byte) (0xc0 | c >> 6))
+                        .appendByte((byte) (0x80 | c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                out.appendByte((byte) (0xf0 | cp >> 18))
+                        .appendByte((byte) (0x80 | cp >> 12 & 0x3f))
+                        .appendByte((byte) (0x80 | cp >> 6 & 0x3f))
+                        .appendByte((byte) (0x80 | cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                out.appendByte((byte) '?');
+            } else {
+                out.appendByte((byte) (0xe0 | c >> 12))
+                        .appendByte((byte) (0x80 | c >> 6 & 0x3f))
+                        .appendByte((byte) (0x80 | c & 0x3f));
+            }
+        }
+        out.appendByte((byte) '"');
+    }
+
+    private static void writeAscii(Buffer out, char c) {
+        switch (c) {
+            case '"':
+            case '\\':
+                out.appendByte((byte) '\\').appendByte((byte) c);
+                return;
+            case '\b':
+                out.appendByte((byte) '\\').appendByte((byte) 'b');
+                return;
+            case '\t':
+                out.appendByte((byte) '\\').appendByte((byte) 't');
+                return;
+            case '\n':
+                out.appendByte((byte) '\\').appendByte((byte) 'n');
+                return;
+            case '\f':
+                out.appendByte((byte) '\\').appendByte((byte) 'f');
+                return;
+            case '\r':
+                out.appendByte((byte) '\\').appendByte((byte) 'r');
+                return;
+        }
+        if (c < 0x20) {
+            out.appendBytes(CONTROL_ESCAPE)
+                    .appendByte((byte) HEX[c >> 4])
+                    .appendByte((byte) HEX[c & 0xf]);
+        } else {
+            out.appendByte((byte) c);
+        }
+    }
+}
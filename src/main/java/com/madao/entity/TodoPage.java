@@ -0,0 +1,43 @@
+package com.madao.entity;
+
+import java.util.List;
+
+/**
+ * One page of a cursor-paginated listing. {@code cursor} is the opaque token
+ * to pass back for the next page, or null once the listing is exhausted.
+ */
+public class TodoPage {
+
+    private final List<Todo> todos;
+    private final String cursor;
+
+    public TodoPage(List<Todo> todos, String cursor) {
+        this.todos = todos;
+        this.cursor = cursor;
+    }
+
+    public List<Todo> getTodos() {
+        return todos;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public boolean hasMore() {
+        return cursor != null;
+    }
+
+    /**
+     * Whether {@code cursor} is the id of a todo, the cursor of backends that
+     * page by id.
+     */
+    public static boolean isIdCursor(String cursor) {
+        try {
+            Integer.parseInt(cursor);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.madao.entity;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A filtered, sorted and limited listing: {@code GET /todos?completed=false&sort=order&limit=50}.
+ * A null {@code completed} matches every todo; sorted listings break ties
+ * on the id.
+ */
+public class TodoQuery {
+
+    public enum Sort {
+        NONE(null), ORDER("order"), ORDER_DESC("-order");
+
+        private final String param;
+
+        Sort(String param) {
+            this.param = param;
+        }
+
+        /**
+         * The sort named by a {@code sort} request parameter, or null if there is none by that name.
+         */
+        public static Sort of(String param) {
+            if (param == null) {
+                return NONE;
+            }
+            for (Sort sort : values()) {
+                if (param.equals(sort.param)) {
+                    return sort;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final Comparator<Todo> BY_ORDER = Comparator.comparingInt(Todo::getOrder)
+            .thenComparingInt(Todo::getId);
+
+    private final Boolean completed;
+    private final Sort sort;
+    private final int limit;
+
+    public TodoQuery(Boolean completed, Sort sort, int limit) {
+        this.completed = completed;
+        this.sort = sort;
+        this.limit = limit;
+    }
+
+    public TodoQuery(JsonObject json) {
+        this(json.getBoolean("completed"), Sort.valueOf(json.getString("sort")), json.getInteger("limit"));
+    }
+
+    public JsonObject toJson() {
+        return new JsonObject()
+                .put("completed", completed)
+                .put("sort", sort.name())
+                .put("limit", limit);
+    }
+
+    public Boolean getCompleted() {
+        return completed;
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public TodoQuery withLimit(int limit) {
+        return new TodoQuery(completed, sort, limit);
+    }
+
+    public boolean matches(Todo todo) {
+        return completed == null || completed == todo.isCompleted();
+    }
+
+    /**
+     * The order of the result, or null when it is unspecified.
+     */
+    public Comparator<Todo> comparator() {
+        switch (sort) {
+            case ORDER:
+                return BY_ORDER;
+            case ORDER_DESC:
+                return BY_ORDER.reversed();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Run the query over {@code todos} in memory.
+     */
+    public List<Todo> apply(Iterable<Todo> todos) {
+        final Selection selection = select();
+        todos.forEach(selection::offer);
+        return selection.result();
+    }
+
+    public Selection select() {
+        return new Selection();
+    }
+
+    /**
+     * Collects the result of the query from todos offered one at a time, in
+     * any order. Sorted queries keep only the best {@code limit} todos in a
+     * heap instead of sorting everything.
+     */
+    public final class Selection {
+        private final Comparator<Todo> comparator = comparator();
+        // the head is the worst of the best so far
+        private final PriorityQueue<Todo> best = comparator == null ? null
+                : new PriorityQueue<>(Math.min(limit, 128) + 1, comparator.reversed());
+        private final List<Todo> first = new ArrayList<>(Math.min(limit, 128));
+
+        private Selection() {
+        }
+
+        public void offer(Todo todo) {
+            if (!matches(todo)) {
+                return;
+            }
+            if (best == null) {
+                if (first.size() < limit) {
+                    first.add(todo);
+                }
+                return;
+            }
+            best.add(todo);
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+
+        public List<Todo> result() {
+            if (best == null) {
+                return first;
+            }
+            final List<Todo> result = new ArrayList<>(best);
+            Collections.sort(result, comparator);
+            return result;
+        }
+    }
+}
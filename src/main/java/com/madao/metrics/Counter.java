@@ -0,0 +1,25 @@
+package com.madao.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Counter implements Metric {
+
+    private final LongAdder value = new LongAdder();
+
+    public void inc() {
+        value.increment();
+    }
+
+    public void inc(long n) {
+        value.add(n);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels) {
+        Metrics.sample(out, name, labels, get());
+    }
+}
@@ -0,0 +1,58 @@
+package com.madao.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * All series of one metric name, one child per combination of label values.
+ * Callers on hot paths should keep the child returned by {@link #labels}
+ * instead of looking it up on every use.
+ */
+public final class Family<T extends Metric> {
+
+    private final String name;
+    private final String help;
+    private final String type;
+    private final String[] labelNames;
+    private final Supplier<T> factory;
+    private final Map<List<String>, T> children = new ConcurrentHashMap<>();
+
+    Family(String name, String help, String type, String[] labelNames, Supplier<T> factory) {
+        this.name = name;
+        this.help = help;
+        this.type = type;
+        this.labelNames = labelNames;
+        this.factory = factory;
+    }
+
+    public T labels(String... values) {
+        if (values.length != labelNames.length) {
+            throw new IllegalArgumentException(name + " takes labels " + Arrays.toString(labelNames));
+        }
+        final List<String> key = Arrays.asList(values);
+        final T child = children.get(key);
+        return child != null ? child : children.computeIfAbsent(key, k -> factory.get());
+    }
+
+    void write(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        children.forEach((values, child) -> {
+            final StringBuilder labels = new StringBuilder();
+            for (int i = 0; i < labelNames.length; i++) {
+                if (i > 0) {
+                    labels.append(',');
+                }
+                labels.append(labelNames[i]).append("=\"").append(escape(values.get(i))).append('"');
+            }
+            child.write(out, name, labels.toString());
+        });
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,32 @@
+package com.madao.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A value that goes up and down, such as the number of requests in flight.
+ */
+public final class Gauge implements Metric {
+
+    private final AtomicLong value = new AtomicLong();
+
+    public void inc() {
+        value.incrementAndGet();
+    }
+
+    public void dec() {
+        value.decrementAndGet();
+    }
+
+    public void set(long newValue) {
+        value.set(newValue);
+    }
+
+    public long get() {
+        return value.get();
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels) {
+        Metrics.sample(out, name, labels, get());
+    }
+}
@@ -0,0 +1,67 @@
+package com.madao.metrics;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed buckets, exported in seconds. Recording is a
+ * short scan over the bounds and two {@link LongAdder} increments, so it is
+ * cheap enough for every request and every backend call.
+ */
+public final class Histogram implements Metric {
+
+    private static final double[] BOUNDS_SECONDS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+    private static final long[] BOUNDS_NANOS = new long[BOUNDS_SECONDS.length];
+    private static final String[] BOUNDS_LABELS = new String[BOUNDS_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS_SECONDS.length; i++) {
+            BOUNDS_NANOS[i] = (long) (BOUNDS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+            // "0.0005" rather than Double.toString's "5.0E-4"
+            BOUNDS_LABELS[i] = "le=\"" + BigDecimal.valueOf(BOUNDS_SECONDS[i]).stripTrailingZeros().toPlainString() + "\"";
+        }
+    }
+
+    // buckets[i] counts observations in (bound[i-1], bound[i]]; the last one is +Inf
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void observeNanos(long nanos) {
+        int i = 0;
+        while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Record the time elapsed since {@code startNanos} (a {@link System#nanoTime()} value).
+     */
+    public void observeSince(long startNanos) {
+        observeNanos(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels) {
+        final String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < BOUNDS_SECONDS.length; i++) {
+            cumulative += buckets[i].sum();
+            Metrics.sample(out, name + "_bucket", prefix + BOUNDS_LABELS[i], cumulative);
+        }
+        cumulative += buckets[BOUNDS_SECONDS.length].sum();
+        Metrics.sample(out, name + "_bucket", prefix + "le=\"+Inf\"", cumulative);
+        Metrics.sample(out, name + "_sum", labels, sumNanos.sum() / 1e9);
+        Metrics.sample(out, name + "_count", labels, cumulative);
+    }
+}
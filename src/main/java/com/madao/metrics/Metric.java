@@ -0,0 +1,13 @@
+package com.madao.metrics;
+
+/**
+ * One labelled time series (or, for histograms, one group of them).
+ */
+interface Metric {
+
+    /**
+     * Append this metric in the Prometheus text format. {@code labels} is
+     * the already rendered label set without braces, possibly empty.
+     */
+    void write(StringBuilder out, String name, String labels);
+}
@@ -0,0 +1,75 @@
+package com.madao.metrics;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * Registry of every metric in one Vert.x instance, shared by all deployed
+ * verticles and services and rendered by {@link #scrape()} in the
+ * Prometheus text exposition format (version 0.0.4).
+ */
+public final class Metrics implements Shareable {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String SHARED_MAP = "todo.metrics";
+
+    private final Map<String, Family<?>> families = new TreeMap<>();
+
+    /**
+     * The registry of {@code vertx}, created on first use.
+     */
+    public static Metrics get(Vertx vertx) {
+        Metrics metrics = new Metrics();
+        Metrics existing = (Metrics) vertx.sharedData()
+                .getLocalMap(SHARED_MAP)
+                .putIfAbsent(SHARED_MAP, metrics);
+        return existing != null ? existing : metrics;
+    }
+
+    public Family<Counter> counter(String name, String help, String... labelNames) {
+        return family(name, help, "counter", labelNames, Counter::new);
+    }
+
+    public Family<Gauge> gauge(String name, String help, String... labelNames) {
+        return family(name, help, "gauge", labelNames, Gauge::new);
+    }
+
+    public Family<Histogram> histogram(String name, String help, String... labelNames) {
+        return family(name, help, "histogram", labelNames, Histogram::new);
+    }
+
+    // registering the same name again returns the existing family, so every verticle instance can ask for it
+    @SuppressWarnings("unchecked")
+    private synchronized <T extends Metric> Family<T> family(String name, String help, String type,
+                                                            String[] labelNames, Supplier<T> factory) {
+        return (Family<T>) families.computeIfAbsent(name,
+                n -> new Family<>(name, help, type, labelNames, factory));
+    }
+
+    public synchronized String scrape() {
+        final StringBuilder out = new StringBuilder(4096);
+        families.values().forEach(family -> family.write(out));
+        return out.toString();
+    }
+
+    static void sample(StringBuilder out, String name, String labels, long value) {
+        sampleName(out, name, labels).append(value).append('\n');
+    }
+
+    static void sample(StringBuilder out, String name, String labels, double value) {
+        sampleName(out, name, labels).append(value).append('\n');
+    }
+
+    private static StringBuilder sampleName(StringBuilder out, String name, String labels) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        return out.append(' ');
+    }
+}
@@ -0,0 +1,240 @@
+package com.madao.service;
+
+import com.madao.entity.Deletion;
+import com.madao.entity.Todo;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonObject;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Serves {@link #getCertain(String)} from a bounded in-process cache in front
+ * of another {@link TodoService}.
+ * <p>
+ * Every instance is owned by one verticle and only touched from its event
+ * loop, so no locking is needed. Writes drop the entry both before and after
+ * they reach the backend, and publish each drop on {@link #INVALIDATE_ADDRESS}
+ * so the caches of the other verticle instances (or nodes) follow.
+ */
+public class CachingTodoService extends DelegatingTodoService {
+
+    public static final String INVALIDATE_ADDRESS = "todo.cache.invalidate";
+
+    static final String HEADER_ORIGIN = "origin";
+    static final String ALL_KEYS = "*";
+
+    public enum Policy {
+        LRU, FIFO
+    }
+
+    private static final class CacheEntry {
+        final Todo todo;
+        final long expiresAt;
+
+        CacheEntry(Todo todo, long expiresAt) {
+            this.todo = todo;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Vertx vertx;
+    private final String origin = UUID.randomUUID().toString();
+    private final long ttlNanos;
+    private final Map<String, CacheEntry> cache;
+
+    // bumped on every write; a read that started in an older epoch must not fill the cache
+    private long epoch;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public CachingTodoService(Vertx vertx, TodoService delegate, JsonObject config) {
+        this(vertx, delegate,
+                config.getInteger("cache.max_entries", 10_000),
+                config.getLong("cache.ttl", 60_000L),
+                Policy.valueOf(config.getString("cache.policy", "lru").toUpperCase()));
+    }
+
+    public CachingTodoService(Vertx vertx, TodoService delegate, int maxEntries, long ttlMillis, Policy policy) {
+        super(delegate);
+        this.vertx = vertx;
+        // a non-positive ttl keeps entries until they are pushed out by size
+        this.ttlNanos = ttlMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(ttlMillis) : Long.MAX_VALUE / 2;
+        this.cache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, policy == Policy.LRU) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() > maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        vertx.eventBus().<String>consumer(INVALIDATE_ADDRESS, message -> {
+            if (!origin.equals(message.headers().get(HEADER_ORIGIN))) {
+                evict(message.body());
+            }
+        });
+    }
+
+    // "7" and "007" name the same todo
+    static String key(String todoId) {
+        try {
+            return String.valueOf(Integer.parseInt(todoId));
+        } catch (NumberFormatException e) {
+            return todoId;
+        }
+    }
+
+    private void evict(String key) {
+        epoch++;
+        if (ALL_KEYS.equals(key)) {
+            cache.clear();
+        } else {
+            cache.remove(key);
+        }
+    }
+
+    private void invalidate(String key) {
+        evict(key);
+        vertx.eventBus().publish(INVALIDATE_ADDRESS, key,
+                new DeliveryOptions().addHeader(HEADER_ORIGIN, origin));
+    }
+
+    private void put(String key, Todo todo) {
+        cache.put(key, new CacheEntry(todo, System.nanoTime() + ttlNanos));
+    }
+
+    @Override
+    public Future<Boolean> insert(Todo todo) {
+        final String key = String.valueOf(todo.getId());
+        invalidate(key);
+        return delegate.insert(todo).map(res -> {
+            invalidate(key);
+            return res;
+        });
+    }
+
+    @Override
+    public Future<Boolean> insertMany(List<Todo> todos) {
+        final List<String> keys = todos.stream()
+                .map(todo -> String.valueOf(todo.getId()))
+                .collect(Collectors.toList());
+        keys.forEach(this::invalidate);
+        return delegate.insertMany(todos).map(res -> {
+            keys.forEach(this::invalidate);
+            return res;
+        });
+    }
+
+    @Override
+    public Future<Optional<Todo>> getCertain(String todoID) {
+        final String key = key(todoID);
+        final CacheEntry entry = cache.get(key);
+        if (entry != null) {
+            if (entry.expiresAt - System.nanoTime() > 0) {
+                hits++;
+                return Future.succeededFuture(Optional.of(entry.todo));
+            }
+            cache.remove(key);
+            evictions++;
+        }
+
+        misses++;
+        final long started = epoch;
+        return delegate.getCertain(todoID).map(res -> {
+            if (res.isPresent() && started == epoch) {
+                put(key, res.get());
+            }
+            return res;
+        });
+    }
+
+    @Override
+    public Future<Todo> update(String todoId, Todo newTodo) {
+        final String key = key(todoId);
+        invalidate(key);
+        return delegate.update(todoId, newTodo).map(res -> {
+            // a read served while the write was in flight may have cached the old value
+            invalidate(key);
+            return res;
+        });
+    }
+
+    @Override
+    public Future<List<Todo>> updateMany(List<Todo> patches) {
+        final List<String> keys = patches.stream()
+                .map(todo -> String.valueOf(todo.getId()))
+                .collect(Collectors.toList());
+        keys.forEach(this::invalidate);
+        return delegate.updateMany(patches).map(res -> {
+            keys.forEach(this::invalidate);
+            return res;
+        });
+    }
+
+    @Override
+    public Future<Boolean> delete(String todoId) {
+        final String key = key(todoId);
+        invalidate(key);
+        return delegate.delete(todoId).map(res -> {
+            invalidate(key);
+            return res;
+        });
+    }
+
+    @Override
+    public Future<Boolean> deleteMany(List<String> todoIds) {
+        final List<String> keys = todoIds.stream()
+                .map(CachingTodoService::key)
+                .collect(Collectors.toList());
+        keys.forEach(this::invalidate);
+        return delegate.deleteMany(todoIds).map(res -> {
+            keys.forEach(this::invalidate);
+            return res;
+        });
+    }
+
+    @Override
+    public Future<Deletion> deleteAll() {
+        invalidate(ALL_KEYS);
+        return delegate.deleteAll().map(res -> {
+            invalidate(ALL_KEYS);
+            return res;
+        });
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public long evictions() {
+        return evictions;
+    }
+
+    public JsonObject stats() {
+        return new JsonObject()
+                .put("size", cache.size())
+                .put("hits", hits)
+                .put("misses", misses)
+                .put("evictions", evictions);
+    }
+}
@@ -0,0 +1,109 @@
+package com.madao.service;
+
+import com.madao.entity.Deletion;
+import com.madao.entity.Todo;
+import com.madao.service.eventbus.TodoMessageCodec;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+
+import java.util.List;
+
+/**
+ * Publishes a change event on {@link #ADDRESS} for every write the wrapped
+ * service acknowledges, so every verticle instance (or node) can push it to
+ * the clients following {@code /todos/changes}.
+ * <p>
+ * The kind of change travels in the {@value #HEADER_TYPE} header. Created and
+ * updated events carry the todo as it now is, deleted events the id and the
+ * cleared event, sent for {@link #deleteAll()}, nothing.
+ */
+public class ChangeFeedTodoService extends DelegatingTodoService {
+
+    public static final String ADDRESS = "todo.changes";
+    public static final String HEADER_TYPE = "type";
+
+    public static final String CREATED = "created";
+    public static final String UPDATED = "updated";
+    public static final String DELETED = "deleted";
+    public static final String CLEARED = "cleared";
+
+    private final Vertx vertx;
+
+    public ChangeFeedTodoService(Vertx vertx, TodoService delegate) {
+        super(delegate);
+        this.vertx = vertx;
+        TodoMessageCodec.register(vertx);
+    }
+
+    private void publish(String type, Object body) {
+        vertx.eventBus().publish(ADDRESS, body, new DeliveryOptions().addHeader(HEADER_TYPE, type));
+    }
+
+    @Override
+    public Future<Boolean> insert(Todo todo) {
+        return delegate.insert(todo).map(res -> {
+            if (res) {
+                publish(CREATED, todo);
+            }
+            return res;
+        });
+    }
+
+    @Override
+    public Future<Boolean> insertMany(List<Todo> todos) {
+        return delegate.insertMany(todos).map(res -> {
+            if (res) {
+                todos.forEach(todo -> publish(CREATED, todo));
+            }
+            return res;
+        });
+    }
+
+    @Override
+    public Future<Todo> update(String todoId, Todo newTodo) {
+        return delegate.update(todoId, newTodo).map(res -> {
+            if (res != null) {
+                publish(UPDATED, res);
+            }
+            return res;
+        });
+    }
+
+    @Override
+    public Future<List<Todo>> updateMany(List<Todo> patches) {
+        return delegate.updateMany(patches).map(res -> {
+            res.forEach(todo -> publish(UPDATED, todo));
+            return res;
+        });
+    }
+
+    @Override
+    public Future<Boolean> delete(String todoId) {
+        return delegate.delete(todoId).map(res -> {
+            if (res) {
+                publish(DELETED, todoId);
+            }
+            return res;
+        });
+    }
+
+    @Override
+    public Future<Boolean> deleteMany(List<String> todoIds) {
+        return delegate.deleteMany(todoIds).map(res -> {
+            if (res) {
+                todoIds.forEach(todoId -> publish(DELETED, todoId));
+            }
+            return res;
+        });
+    }
+
+    @Override
+    public Future<Deletion> deleteAll() {
+        // clients can drop their copies as soon as the deletion is under way
+        return delegate.deleteAll().map(res -> {
+            publish(CLEARED, null);
+            return res;
+        });
+    }
+}
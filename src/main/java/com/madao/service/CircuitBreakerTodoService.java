@@ -0,0 +1,183 @@
+package com.madao.service;
+
+import com.madao.entity.Deletion;
+import com.madao.entity.Todo;
+import com.madao.entity.TodoPage;
+import com.madao.entity.TodoQuery;
+import com.madao.metrics.Counter;
+import com.madao.metrics.Gauge;
+import com.madao.metrics.Metrics;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Fails calls at once while the wrapped service keeps failing, instead of
+ * letting them queue up behind it until the clients time out.
+ * <p>
+ * Closed, every call goes through. A call that fails, or that takes longer
+ * than {@code circuit_breaker.timeout} milliseconds, counts as a failure,
+ * and {@code circuit_breaker.max_failures} of them in a row open the
+ * breaker. Open, every call fails with {@link CircuitOpenException}
+ * (answered with 503) for {@code circuit_breaker.reset_timeout}
+ * milliseconds; then one trial call is let through, which closes the
+ * breaker if it succeeds and opens it again if it does not.
+ * <p>
+ * A call refused with {@link RejectedExecutionException} got a prompt
+ * answer from a backend that is protecting itself, so it counts as a
+ * success. Like the caches, every instance belongs to one verticle and is
+ * only touched from its event loop.
+ */
+public class CircuitBreakerTodoService extends DelegatingTodoService {
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final Vertx vertx;
+    private final long timeoutMillis;
+    private final int maxFailures;
+    private final long resetMillis;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openUntil; // System.nanoTime() at which the trial call may go
+
+    private final Gauge open;
+    private final Counter opened;
+    private final Counter refused;
+
+    public CircuitBreakerTodoService(Vertx vertx, TodoService delegate, JsonObject config) {
+        super(delegate);
+        this.vertx = vertx;
+        this.timeoutMillis = config.getLong("circuit_breaker.timeout", 10_000L);
+        this.maxFailures = config.getInteger("circuit_breaker.max_failures", 5);
+        this.resetMillis = config.getLong("circuit_breaker.reset_timeout", 5_000L);
+
+        final Metrics metrics = Metrics.get(vertx);
+        final String instance = Integer.toHexString(System.identityHashCode(this));
+        this.open = metrics.gauge("todo_circuit_breaker_open",
+                "Whether the circuit breaker is refusing calls (1) or not (0).", "instance").labels(instance);
+        this.opened = metrics.counter("todo_circuit_breaker_opened_total",
+                "Times the circuit breaker opened.").labels();
+        this.refused = metrics.counter("todo_circuit_breaker_refused_total",
+                "Calls refused while the circuit breaker was open.").labels();
+    }
+
+    private <T> Future<T> guarded(Supplier<Future<T>> call) {
+        if (state == State.OPEN && System.nanoTime() - openUntil >= 0) {
+            state = State.HALF_OPEN;
+        } else if (state != State.CLOSED) {
+            // open, or half-open with the trial call still out
+            refused.inc();
+            return Future.failedFuture(new CircuitOpenException(Math.max(0,
+                    TimeUnit.NANOSECONDS.toMillis(openUntil - System.nanoTime()))));
+        }
+
+        final Future<T> result = Future.future();
+        final long timer = vertx.setTimer(Math.max(1, timeoutMillis), id -> {
+            failed();
+            result.fail(new TimeoutException("No answer from the backend within " + timeoutMillis + " ms"));
+        });
+        call.get().setHandler(res -> {
+            if (result.isComplete()) {
+                return; // timed out, and already counted
+            }
+            vertx.cancelTimer(timer);
+            if (res.succeeded() || res.cause() instanceof RejectedExecutionException
+                    || res.cause() instanceof IllegalArgumentException) {
+                succeeded();
+            } else {
+                failed();
+            }
+            result.completer().handle(res);
+        });
+        return result;
+    }
+
+    private void succeeded() {
+        failures = 0;
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            open.set(0);
+        }
+    }
+
+    private void failed() {
+        if (state == State.OPEN) {
+            return; // a call from before it opened
+        }
+        if (state == State.HALF_OPEN || ++failures >= maxFailures) {
+            state = State.OPEN;
+            failures = 0;
+            openUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(resetMillis);
+            open.set(1);
+            opened.inc();
+        }
+    }
+
+    @Override
+    public Future<Boolean> initData() {
+        return guarded(delegate::initData);
+    }
+
+    @Override
+    public Future<Boolean> insert(Todo todo) {
+        return guarded(() -> delegate.insert(todo));
+    }
+
+    @Override
+    public Future<Boolean> insertMany(List<Todo> todos) {
+        return guarded(() -> delegate.insertMany(todos));
+    }
+
+    @Override
+    public Future<List<Todo>> getAll() {
+        return guarded(delegate::getAll);
+    }
+
+    @Override
+    public Future<TodoPage> getPage(String cursor, int limit) {
+        return guarded(() -> delegate.getPage(cursor, limit));
+    }
+
+    @Override
+    public Future<List<Todo>> query(TodoQuery query) {
+        return guarded(() -> delegate.query(query));
+    }
+
+    @Override
+    public Future<Optional<Todo>> getCertain(String todoID) {
+        return guarded(() -> delegate.getCertain(todoID));
+    }
+
+    @Override
+    public Future<Todo> update(String todoId, Todo newTodo) {
+        return guarded(() -> delegate.update(todoId, newTodo));
+    }
+
+    @Override
+    public Future<List<Todo>> updateMany(List<Todo> patches) {
+        return guarded(() -> delegate.updateMany(patches));
+    }
+
+    @Override
+    public Future<Boolean> delete(String todoId) {
+        return guarded(() -> delegate.delete(todoId));
+    }
+
+    @Override
+    public Future<Boolean> deleteMany(List<String> todoIds) {
+        return guarded(() -> delegate.deleteMany(todoIds));
+    }
+
+    @Override
+    public Future<Deletion> deleteAll() {
+        return guarded(delegate::deleteAll);
+    }
+}
@@ -0,0 +1,24 @@
+package com.madao.service;
+
+/**
+ * A call refused by {@link CircuitBreakerTodoService} without reaching the
+ * backend, because the backend has been failing.
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    public CircuitOpenException(long retryAfterMillis) {
+        super("Circuit breaker is open");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * How long until the breaker lets a call through again.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
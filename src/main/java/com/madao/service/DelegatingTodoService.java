@@ -0,0 +1,87 @@
+package com.madao.service;
+
+import com.madao.entity.Deletion;
+import com.madao.entity.Todo;
+import com.madao.entity.TodoPage;
+import com.madao.entity.TodoQuery;
+import io.vertx.core.Future;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Base class for decorators: forwards every call to the wrapped service so
+ * subclasses only override the operations they care about.
+ */
+public abstract class DelegatingTodoService implements TodoService {
+
+    protected final TodoService delegate;
+
+    protected DelegatingTodoService(TodoService delegate) {
+        this.delegate = delegate;
+    }
+
+    public TodoService getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public Future<Boolean> initData() {
+        return delegate.initData();
+    }
+
+    @Override
+    public Future<Boolean> insert(Todo todo) {
+        return delegate.insert(todo);
+    }
+
+    @Override
+    public Future<Boolean> insertMany(List<Todo> todos) {
+        return delegate.insertMany(todos);
+    }
+
+    @Override
+    public Future<List<Todo>> getAll() {
+        return delegate.getAll();
+    }
+
+    @Override
+    public Future<TodoPage> getPage(String cursor, int limit) {
+        return delegate.getPage(cursor, limit);
+    }
+
+    @Override
+    public Future<List<Todo>> query(TodoQuery query) {
+        return delegate.query(query);
+    }
+
+    @Override
+    public Future<Optional<Todo>> getCertain(String todoID) {
+        return delegate.getCertain(todoID);
+    }
+
+    @Override
+    public Future<Todo> update(String todoId, Todo newTodo) {
+        return delegate.update(todoId, newTodo);
+    }
+
+    @Override
+    public Future<List<Todo>> updateMany(List<Todo> patches) {
+        return delegate.updateMany(patches);
+    }
+
+    @Override
+    public Future<Boolean> delete(String todoId) {
+        return delegate.delete(todoId);
+    }
+
+    @Override
+    public Future<Boolean> deleteMany(List<String> todoIds) {
+        return delegate.deleteMany(todoIds);
+    }
+
+    @Override
+    public Future<Deletion> deleteAll() {
+        return delegate.deleteAll();
+    }
+}
@@ -0,0 +1,111 @@
+package com.madao.service;
+
+import com.madao.entity.Deletion;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where backends record the progress of their {@link TodoService#deleteAll()}
+ * and the HTTP verticles read it: a local map shared by every verticle of the
+ * Vert.x instance, so it does not matter which instance runs the deletion.
+ * Progress is also published on the event bus, for HTTP verticles that
+ * {@link #follow()} a backend running elsewhere. Finished deletions are
+ * forgotten after ten minutes.
+ */
+public final class Deletions {
+
+    private static final String MAP = "todo.deletions";
+    private static final String ADDRESS = "todo.deletions";
+    private static final long RETAIN_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final Vertx vertx;
+    private final LocalMap<String, JsonObject> progress;
+
+    public Deletions(Vertx vertx) {
+        this.vertx = vertx;
+        this.progress = vertx.sharedData().getLocalMap(MAP);
+    }
+
+    public Tracker start() {
+        return new Tracker();
+    }
+
+    /**
+     * The latest progress of deletion {@code id}, or null if there is none by that id.
+     */
+    public Deletion get(String id) {
+        final JsonObject json = progress.get(id);
+        return json == null ? null : new Deletion(json);
+    }
+
+    /**
+     * Record the progress that backends on other verticles or cluster nodes
+     * publish, until the returned consumer is unregistered.
+     */
+    public MessageConsumer<JsonObject> follow() {
+        return vertx.eventBus().consumer(ADDRESS, message -> record(message.body()));
+    }
+
+    private void record(JsonObject json) {
+        final String id = json.getString("id");
+        progress.put(id, json);
+        if (json.getBoolean("done", false)) {
+            vertx.setTimer(RETAIN_MILLIS, timer -> progress.remove(id));
+        }
+    }
+
+    /**
+     * The running side of one deletion, owned by the backend that runs it.
+     */
+    public final class Tracker {
+        private final String id = UUID.randomUUID().toString();
+        private long total = -1;
+        private long deleted;
+
+        private Tracker() {
+            publish(false, null);
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public void total(long total) {
+            this.total = total;
+            publish(false, null);
+        }
+
+        public void deleted(long n) {
+            deleted += n;
+            publish(false, null);
+        }
+
+        public Deletion snapshot() {
+            return new Deletion(id, total, deleted, false, null);
+        }
+
+        public Deletion finish() {
+            return end(null);
+        }
+
+        public Deletion fail(Throwable cause) {
+            return end(String.valueOf(cause.getMessage()));
+        }
+
+        private Deletion end(String error) {
+            return publish(true, error);
+        }
+
+        private Deletion publish(boolean done, String error) {
+            final Deletion deletion = new Deletion(id, total, deleted, done, error);
+            record(deletion.toJson());
+            vertx.eventBus().publish(ADDRESS, deletion.toJson());
+            return deletion;
+        }
+    }
+}
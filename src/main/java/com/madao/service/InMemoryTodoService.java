@@ -0,0 +1,335 @@
+package com.madao.service;
+
+import com.madao.entity.Deletion;
+import com.madao.entity.Todo;
+import com.madao.entity.TodoPage;
+import com.madao.entity.TodoQuery;
+import com.madao.util.ConcurrentIntObjectMap;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class InMemoryTodoService implements TodoService {
+
+    private static final String SHARED_MAP = "todo.memory";
+    private static final int NO_ID = Integer.MIN_VALUE; // marks an unparsable id
+    private static final int SAMPLE_ID = 1;
+
+    private static final class Store implements Shareable {
+        // keeps its keys in order too, so a page starts right at its cursor
+        final ConcurrentIntObjectMap<Todo> todos = new ConcurrentIntObjectMap<>();
+        final AtomicInteger maxId = new AtomicInteger();
+        // the services using the store, and whether one of them already snapshots it
+        final AtomicInteger users = new AtomicInteger();
+        final AtomicBoolean snapshotting = new AtomicBoolean();
+        // set once the snapshot was loaded, so an empty store never replaces it
+        volatile boolean loaded;
+        // the snapshot (or the sample) goes in once per store, by the first service to get here
+        final AtomicBoolean initializing = new AtomicBoolean();
+        private AsyncResult<Boolean> initialized; // guarded by this, null until that succeeded
+        private final List<Handler<AsyncResult<Boolean>>> waiting = new ArrayList<>(); // guarded by this
+
+        // handler runs on the caller's context once the store is initialized
+        void whenInitialized(Vertx vertx, Handler<AsyncResult<Boolean>> handler) {
+            final Context context = vertx.getOrCreateContext();
+            final AsyncResult<Boolean> result;
+            synchronized (this) {
+                if (initialized == null) {
+                    waiting.add(res -> context.runOnContext(v -> handler.handle(res)));
+                    return;
+                }
+                result = initialized;
+            }
+            handler.handle(result);
+        }
+
+        // a failed initialization is left for the next service to try again
+        void initialized(AsyncResult<Boolean> result) {
+            final List<Handler<AsyncResult<Boolean>>> waiters;
+            synchronized (this) {
+                if (result.succeeded()) {
+                    initialized = result;
+                } else {
+                    initializing.set(false);
+                }
+                waiters = new ArrayList<>(waiting);
+                waiting.clear();
+            }
+            waiters.forEach(waiter -> waiter.handle(result));
+        }
+    }
+
+    private final Vertx vertx;
+    private final JsonObject config;
+    private final Store store;
+    private final ConcurrentIntObjectMap<Todo> todos;
+    private final AtomicInteger maxId;
+    private final Deletions deletions;
+    private long snapshotTimer = -1; // set if this service writes the periodic snapshots
+
+    public InMemoryTodoService(JsonObject config) {
+        this(Vertx.vertx(), config);
+    }
+
+    public InMemoryTodoService(Vertx vertx, JsonObject config) {
+        this.vertx = vertx;
+        this.config = config;
+        // one store per Vert.x instance, shared by every deployed verticle
+        Store store = new Store();
+        Store existing = (Store) vertx.sharedData()
+                .getLocalMap(SHARED_MAP)
+                .putIfAbsent(SHARED_MAP, store);
+        if (existing != null) {
+            store = existing;
+        }
+        store.users.incrementAndGet();
+        this.store = store;
+        this.todos = store.todos;
+        this.maxId = store.maxId;
+        this.deletions = new Deletions(vertx);
+    }
+
+    /**
+     * The highest id ever stored in this instance, used to seed id allocation.
+     */
+    public int maxId() {
+        return maxId.get();
+    }
+
+    private static int parseId(String todoId) {
+        try {
+            return Integer.parseInt(todoId);
+        } catch (NumberFormatException e) {
+            return NO_ID;
+        }
+    }
+
+    /**
+     * Load the snapshot, or insert the sample todo, unless another service
+     * of the same store did so already; then it only waits for that. Loading
+     * again would undo every write and deletion made since.
+     */
+    @Override
+    public Future<Boolean> initData() {
+        final String snapshot = config.getString("memory.snapshot.path");
+        if (store.initializing.compareAndSet(false, true)) {
+            load(snapshot).setHandler(store::initialized);
+        }
+        final Future<Boolean> result = Future.future();
+        store.whenInitialized(vertx, result.completer());
+        if (snapshot == null) {
+            return result;
+        }
+
+        // only a store whose snapshot was read may overwrite it, and only one service does
+        return result.compose(loaded -> {
+            store.loaded = true;
+            if (store.snapshotting.compareAndSet(false, true)) {
+                final long interval = config.getLong("memory.snapshot.interval", 30_000L);
+                snapshotTimer = vertx.setPeriodic(interval, id -> snapshot(snapshot));
+            }
+            return Future.succeededFuture(loaded);
+        });
+    }
+
+    private Future<Boolean> load(String snapshot) {
+        if (snapshot == null) {
+            return insertSample();
+        }
+
+        Future<Boolean> result = Future.future();
+        vertx.fileSystem().exists(snapshot, exists -> {
+            if (exists.failed()) {
+                result.fail(exists.cause());
+            } else if (!exists.result()) {
+                insertSample().setHandler(result.completer());
+            } else {
+                vertx.fileSystem().readFile(snapshot, read -> {
+                    if (read.failed()) {
+                        result.fail(read.cause());
+                        return;
+                    }
+                    final List<Todo> loaded = new ArrayList<>();
+                    try {
+                        new JsonArray(read.result().toString())
+                                .forEach(x -> loaded.add(new Todo((JsonObject) x)));
+                    } catch (DecodeException | ClassCastException e) {
+                        // the file stays as it is for someone to look at
+                        result.fail(new IllegalStateException("Unreadable snapshot " + snapshot, e));
+                        return;
+                    }
+                    insertMany(loaded).setHandler(result.completer());
+                });
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Stop snapshotting; the last service of the store writes a final
+     * snapshot.
+     */
+    public Future<Void> close() {
+        if (snapshotTimer != -1) {
+            vertx.cancelTimer(snapshotTimer);
+            snapshotTimer = -1;
+        }
+        final String snapshot = config.getString("memory.snapshot.path");
+        if (store.users.decrementAndGet() > 0 || snapshot == null || !store.loaded) {
+            return Future.succeededFuture();
+        }
+        return snapshot(snapshot);
+    }
+
+    private Future<Boolean> insertSample() {
+        if (todos.containsKey(SAMPLE_ID)) {
+            return Future.succeededFuture(true);
+        }
+        return insert(new Todo(SAMPLE_ID, "Something to do...", false, 1, "todo/ex"));
+    }
+
+    /**
+     * Write every todo to {@code path} as a JSON array. The file is written to
+     * a sibling temp file first and then moved over the old one, so a crash
+     * half-way through never leaves a truncated snapshot behind. Walking and
+     * encoding the store happen on a worker too; the map is concurrent, and
+     * the todos in it are replaced, never changed.
+     */
+    public Future<Void> snapshot(String path) {
+        Future<Void> result = Future.future();
+        vertx.<Void>executeBlocking(f -> {
+            // a final snapshot may start while a periodic one is still writing the temp file
+            synchronized (store) {
+                try {
+                    final JsonArray array = new JsonArray();
+                    todos.forEachValue(todo -> array.add(todo.toJson()));
+                    final Buffer encoded = Buffer.buffer(array.encode());
+                    Path target = Paths.get(path).toAbsolutePath();
+                    Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+                    Files.write(temp, encoded.getBytes());
+                    Files.move(temp, target,
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    f.complete();
+                } catch (Exception e) {
+                    f.fail(e);
+                }
+            }
+        }, false, res -> {
+            if (res.succeeded()) {
+                result.complete();
+            } else {
+                System.err.println("[Error] Failed to snapshot todos to " + path);
+                res.cause().printStackTrace();
+                result.fail(res.cause());
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public Future<Boolean> insert(Todo todo) {
+        todos.put(todo.getId(), new Todo(todo));
+        maxId.accumulateAndGet(todo.getId(), Math::max);
+        return Future.succeededFuture(true);
+    }
+
+    @Override
+    public Future<Boolean> insertMany(List<Todo> todos) {
+        todos.forEach(this::insert);
+        return Future.succeededFuture(true);
+    }
+
+    @Override
+    public Future<List<Todo>> getAll() {
+        return Future.succeededFuture(todos.values());
+    }
+
+    @Override
+    public Future<TodoPage> getPage(String cursor, int limit) {
+        if (cursor != null && !TodoPage.isIdCursor(cursor)) {
+            return Future.failedFuture(new IllegalArgumentException("Invalid cursor: " + cursor));
+        }
+        final int after = cursor == null ? Integer.MIN_VALUE : Integer.parseInt(cursor);
+
+        // keyset over id: the `limit` smallest ids above the cursor
+        List<Todo> list = todos.valuesAbove(after, limit);
+        String next = list.size() < limit ? null : String.valueOf(list.get(list.size() - 1).getId());
+        return Future.succeededFuture(new TodoPage(list, next));
+    }
+
+    @Override
+    public Future<List<Todo>> query(TodoQuery query) {
+        final TodoQuery.Selection selection = query.select();
+        todos.forEachValue(selection::offer);
+        return Future.succeededFuture(selection.result());
+    }
+
+    @Override
+    public Future<Optional<Todo>> getCertain(String todoID) {
+        int id = parseId(todoID);
+        return Future.succeededFuture(
+                Optional.ofNullable(id == NO_ID ? null : todos.get(id)));
+    }
+
+    @Override
+    public Future<Todo> update(String todoId, Todo newTodo) {
+        int id = parseId(todoId);
+        return Future.succeededFuture(
+                id == NO_ID ? null : todos.computeIfPresent(id, old -> old.merge(newTodo)));
+    }
+
+    @Override
+    public Future<List<Todo>> updateMany(List<Todo> patches) {
+        List<Todo> updated = new ArrayList<>(patches.size());
+        for (Todo patch : patches) {
+            Todo todo = todos.computeIfPresent(patch.getId(), old -> old.merge(patch));
+            if (todo != null) {
+                updated.add(todo);
+            }
+        }
+        return Future.succeededFuture(updated);
+    }
+
+    @Override
+    public Future<Boolean> delete(String todoId) {
+        int id = parseId(todoId);
+        if (id != NO_ID) {
+            todos.remove(id);
+        }
+        return Future.succeededFuture(true);
+    }
+
+    @Override
+    public Future<Boolean> deleteMany(List<String> todoIds) {
+        todoIds.forEach(this::delete);
+        return Future.succeededFuture(true);
+    }
+
+    @Override
+    public Future<Deletion> deleteAll() {
+        // dropping the entries is all there is, the collector reclaims them
+        final Deletions.Tracker deletion = deletions.start();
+        final int size = todos.size();
+        todos.clear();
+        deletion.total(size);
+        deletion.deleted(size);
+        return Future.succeededFuture(deletion.finish());
+    }
+}
@@ -1,6 +1,14 @@
 package com.madao.service;
 
+import com.madao.entity.Deletion;
 import com.madao.entity.Todo;
+import com.madao.entity.TodoPage;
+import com.madao.entity.TodoQuery;
+import com.madao.metrics.Counter;
+import com.madao.metrics.Gauge;
+import com.madao.metrics.Histogram;
+import com.madao.metrics.Metrics;
+import com.madao.util.GradientLimiter;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
@@ -10,10 +18,37 @@ import io.vertx.core.json.JsonObject;
 import io.vertx.ext.jdbc.JDBCClient;
 import io.vertx.ext.sql.SQLConnection;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * Stores todos in one SQL table through the shared JDBC pool.
+ * <p>
+ * The connections that all instances on the pool use at once are capped by
+ * its shared {@link GradientLimiter}, between {@code jdbc.limit.min} and
+ * {@code jdbc.limit.max} (by default the pool's {@code max_pool_size}), so
+ * when the database slows down fewer statements are sent its way instead
+ * of more queueing up inside it. Callers beyond the limit wait at most
+ * {@code jdbc.limit.queue_timeout} milliseconds and are then refused with
+ * {@link RejectedExecutionException}. Every statement is cancelled after
+ * {@code jdbc.query_timeout} seconds.
+ * <p>
+ * Reads go through plain JDBC on a worker thread, with an explicit column
+ * list, and decode each row straight into a {@link Todo} as the driver
+ * delivers it. MySQL only fetches in batches of {@code jdbc.fetch_size}
+ * with {@code useCursorFetch=true} in the URL; otherwise Connector/J reads
+ * the whole result before handing out the first row.
+ */
 public class JdbcTodoService implements TodoService {
 
     private static final String SQL_CREATE = "CREATE TABLE IF NOT EXISTS `todo` (\n" +
@@ -22,24 +57,68 @@ public class JdbcTodoService implements TodoService {
             "  `completed` tinyint(1) DEFAULT NULL,\n" +
             "  `order` int(11) DEFAULT NULL,\n" +
             "  `url` varchar(255) DEFAULT NULL,\n" +
+            "  `generation` int(11) NOT NULL DEFAULT 0,\n" +
             "  PRIMARY KEY (`id`) )";
+    private static final String GENERATION = "todo";
+    // run after SQL_CREATE on every start; each one either succeeds or finds its work already done
+    private static final String[] SQL_SCHEMA = {
+            // tables created before deleteAll() had generations to go by
+            "ALTER TABLE `todo` ADD COLUMN `generation` int(11) NOT NULL DEFAULT 0",
+            // serve the completed filter and the order sort of query(); InnoDB appends the id to both
+            "CREATE INDEX `idx_todo_completed_order` ON `todo` (`completed`, `order`)",
+            "CREATE INDEX `idx_todo_order` ON `todo` (`order`)",
+            "CREATE TABLE IF NOT EXISTS `todo_generation` (\n" +
+                    "  `name` varchar(32) NOT NULL,\n" +
+                    "  `generation` int(11) NOT NULL,\n" +
+                    "  PRIMARY KEY (`name`) )",
+            "INSERT INTO `todo_generation` (`name`, `generation`) SELECT '" + GENERATION + "', 0 FROM DUAL\n" +
+                    "WHERE NOT EXISTS (SELECT 1 FROM `todo_generation` WHERE `name` = '" + GENERATION + "')"
+    };
+    // every todo is stamped with the generation current when it is written, in the same statement
     private static final String SQL_INSERT = "INSERT INTO `todo` " +
-            "(`id`, `title`, `completed`, `order`, `url`) VALUES (?, ?, ?, ?, ?)";
-    private static final String SQL_QUERY = "SELECT * FROM todo WHERE id = ?";
-    private static final String SQL_QUERY_ALL = "SELECT * FROM todo";
-    private static final String SQL_UPDATE = "UPDATE `todo`\n" +
-            "SET `id` = ?,\n" +
-            "`title` = ?,\n" +
-            "`completed` = ?,\n" +
-            "`order` = ?,\n" +
-            "`url` = ?\n" +
-            "WHERE `id` = ?;";
+            "(`id`, `title`, `completed`, `order`, `url`, `generation`)\n" +
+            "SELECT ?, ?, ?, ?, ?, `generation` FROM `todo_generation` WHERE `name` = '" + GENERATION + "'";
+    // rows of older generations are deleted already, even while deleteAll() is still purging them
+    private static final String SQL_CURRENT = "`generation` >= " +
+            "(SELECT `generation` FROM `todo_generation` WHERE `name` = '" + GENERATION + "')";
+    private static final String SQL_COLUMNS = "SELECT `id`, `title`, `completed`, `order`, `url` FROM `todo` " +
+            "WHERE " + SQL_CURRENT;
+    private static final String SQL_QUERY = SQL_COLUMNS + " AND `id` = ?";
+    private static final String SQL_QUERY_ALL = SQL_COLUMNS;
+    private static final String SQL_QUERY_PAGE = SQL_COLUMNS + " AND `id` > ? ORDER BY `id` LIMIT ?";
+    private static final String SQL_QUERY_FILTERED = SQL_COLUMNS;
+    private static final String SQL_PATCH = "UPDATE `todo`\n" +
+            "SET `title` = COALESCE(?, `title`),\n" +
+            "`completed` = COALESCE(?, `completed`),\n" +
+            "`order` = COALESCE(?, `order`)\n" +
+            "WHERE `id` = ? AND " + SQL_CURRENT;
+    private static final String SQL_QUERY_IN = SQL_COLUMNS + " AND `id` IN ";
     private static final String SQL_DELETE = "DELETE FROM `todo` WHERE `id` = ?";
-    private static final String SQL_DELETE_ALL = "DELETE FROM `todo`";
+    private static final String SQL_NEXT_GENERATION = "UPDATE `todo_generation` " +
+            "SET `generation` = `generation` + 1 WHERE `name` = '" + GENERATION + "'";
+    private static final String SQL_GENERATION = "SELECT `generation` FROM `todo_generation` " +
+            "WHERE `name` = '" + GENERATION + "'";
+    private static final String SQL_MAX_ID = "SELECT MAX(`id`) FROM `todo` WHERE `generation` < ?";
+    // the upper end of the next id range holding at most ? rows of older generations
+    private static final String SQL_RANGE_END = "SELECT MAX(`id`) FROM " +
+            "(SELECT `id` FROM `todo` WHERE `id` > ? AND `id` <= ? AND `generation` < ? " +
+            "ORDER BY `id` LIMIT ?) AS `range`";
+    private static final String SQL_DELETE_RANGE = "DELETE FROM `todo` " +
+            "WHERE `id` > ? AND `id` <= ? AND `generation` < ?";
 
     private final Vertx vertx;
     private final JsonObject config;
+    private final DataSource dataSource;
     private final JDBCClient client;
+    private final Histogram poolWait;
+    private final GradientLimiter limiter;
+    private final int queryTimeout;
+    private final int fetchSize;
+    private final Gauge limit;
+    private final Counter limited;
+    private final Deletions deletions;
+    private final int deleteBatch;
+    private final long deletePause;
 
     public JdbcTodoService(JsonObject config) {
         this(Vertx.vertx(), config);
@@ -48,7 +127,137 @@ public class JdbcTodoService implements TodoService {
     public JdbcTodoService(Vertx vertx, JsonObject config) {
         this.vertx = vertx;
         this.config = config;
-        this.client = JDBCClient.createShared(vertx, config);
+        this.dataSource = SharedDataSource.get(vertx, config);
+        this.client = JDBCClient.create(vertx, dataSource);
+        this.poolWait = Metrics.get(vertx)
+                .histogram("todo_jdbc_pool_wait_seconds", "Time spent waiting for a pooled JDBC connection.")
+                .labels();
+        this.limiter = SharedDataSource.limiter(vertx, config);
+        this.queryTimeout = config.getInteger("jdbc.query_timeout", 5);
+        this.fetchSize = config.getInteger("jdbc.fetch_size", 1000);
+        this.limit = Metrics.get(vertx).gauge("todo_jdbc_concurrency_limit",
+                "Connections the users of a pool may use at once, adapted to their latency.", "datasource")
+                .labels(config.getString("datasource_name", JDBCClient.DEFAULT_DS_NAME));
+        this.limited = Metrics.get(vertx).counter("todo_jdbc_limited_total",
+                "Statements refused because the concurrency limit was reached.").labels();
+        this.deletions = new Deletions(vertx);
+        this.deleteBatch = config.getInteger("delete_all.batch", 1000);
+        this.deletePause = config.getLong("delete_all.pause", 10L);
+    }
+
+    private void getConnection(Handler<AsyncResult<SQLConnection>> handler) {
+        final long started = System.nanoTime();
+        limiter.acquire(permit -> {
+            limit.set(limiter.limit());
+            if (permit.failed()) {
+                limited.inc();
+                handler.handle(Future.failedFuture(permit.cause()));
+                return;
+            }
+            client.getConnection(conn -> {
+                poolWait.observeSince(started);
+                if (conn.failed()) {
+                    limiter.cancel();
+                    handler.handle(conn);
+                    return;
+                }
+                final SQLConnection connection = new LimitedSQLConnection(conn.result(), limiter);
+                if (queryTimeout > 0) {
+                    connection.setQueryTimeout(queryTimeout);
+                }
+                handler.handle(Future.succeededFuture(connection));
+            });
+        });
+    }
+
+    /**
+     * Run the prepared {@code sql} on a pooled connection of its own and
+     * hand every row to {@code sink} as a {@link Todo} as soon as it is read,
+     * {@code jdbc.fetch_size} rows per round trip. Nothing holds the result
+     * set as a whole and no row passes through a JsonObject, so memory stays
+     * flat however many rows there are. {@code sink} runs on a worker
+     * thread; the future completes on the caller's context after the last
+     * row.
+     */
+    private Future<Void> read(String sql, Object[] params, Consumer<Todo> sink) {
+        final Future<Void> result = Future.future();
+        final long started = System.nanoTime();
+        limiter.acquire(permit -> {
+            limit.set(limiter.limit());
+            if (permit.failed()) {
+                limited.inc();
+                result.fail(permit.cause());
+                return;
+            }
+            final long[] acquired = {0};
+            vertx.<Void>executeBlocking(
+                    done -> {
+                        try (Connection connection = dataSource.getConnection()) {
+                            acquired[0] = System.nanoTime();
+                            poolWait.observeSince(started);
+                            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                                statement.setQueryTimeout(Math.max(0, queryTimeout));
+                                statement.setFetchSize(fetchSize);
+                                for (int i = 0; i < params.length; i++) {
+                                    statement.setObject(i + 1, params[i]);
+                                }
+                                try (ResultSet rows = statement.executeQuery()) {
+                                    while (rows.next()) {
+                                        sink.accept(todo(rows));
+                                    }
+                                }
+                            }
+                            done.complete();
+                        } catch (SQLException e) {
+                            done.fail(e);
+                        }
+                    },
+                    false,
+                    res -> {
+                        if (acquired[0] == 0) {
+                            limiter.cancel(); // no connection, so nothing to learn from
+                        } else {
+                            limiter.release(System.nanoTime() - acquired[0]);
+                        }
+                        result.completer().handle(res);
+                    });
+        });
+        return result;
+    }
+
+    // the columns of SQL_COLUMNS, in order
+    private static Todo todo(ResultSet row) throws SQLException {
+        final Todo todo = new Todo();
+        todo.setId(row.getInt(1));
+        todo.setTitle(row.getString(2));
+        final boolean completed = row.getBoolean(3);
+        todo.setCompleted(row.wasNull() ? null : completed);
+        final int order = row.getInt(4);
+        todo.setOrder(row.wasNull() ? null : order);
+        todo.setUrl(row.getString(5));
+        return todo;
+    }
+
+    // the same, for rows read through the JDBC client; drivers differ in what they make of a TINYINT(1)
+    private static Todo todo(JsonArray row) {
+        final Object completed = row.getValue(2);
+        final Number order = (Number) row.getValue(3);
+        return new Todo(row.getInteger(0), row.getString(1),
+                completed instanceof Number ? ((Number) completed).intValue() != 0 : (Boolean) completed,
+                order == null ? null : order.intValue(), row.getString(4));
+    }
+
+    private Future<List<Todo>> readAll(String sql, Object... params) {
+        final List<Todo> todos = new ArrayList<>();
+        final Future<List<Todo>> result = Future.future();
+        read(sql, params, todos::add).setHandler(res -> {
+            if (res.failed()) {
+                result.fail(res.cause());
+            } else {
+                result.complete(todos);
+            }
+        });
+        return result;
     }
 
     private Handler<AsyncResult<SQLConnection>> connHandler(Future future, Handler<SQLConnection> handler) {
@@ -62,37 +271,88 @@ public class JdbcTodoService implements TodoService {
         };
     }
 
+    private static JsonArray params(Object... values) {
+        JsonArray params = new JsonArray();
+        for (Object value : values) {
+            if (value == null) {
+                params.addNull();
+            } else {
+                params.add(value);
+            }
+        }
+        return params;
+    }
+
+    private static JsonArray insertParams(Todo todo) {
+        return params(todo.getId(), todo.getTitle(), todo.isCompleted(), todo.getOrder(), todo.getUrl());
+    }
+
+    // fields that are absent from the patch bind as NULL and are kept by COALESCE
+    private static JsonArray patchParams(Todo patch) {
+        return params(patch.getTitle(),
+                patch.hasCompleted() ? patch.isCompleted() : null,
+                patch.hasOrder() ? patch.getOrder() : null,
+                patch.getId());
+    }
+
+    private static String placeholders(int n) {
+        return Stream.generate(() -> "?")
+                .limit(n)
+                .collect(Collectors.joining(", ", "(", ")"));
+    }
+
     @Override
     public Future<Boolean> initData() {
         Future<Boolean> result = Future.future();
-        client.getConnection(connHandler(
+        getConnection(connHandler(
                 result,
                 connection -> connection.execute(SQL_CREATE, create -> {
                     if (create.succeeded()) {
-                        result.complete(true);
+                        updateSchema(connection, 0, result);
                     } else {
                         result.fail(create.cause());
+                        connection.close();
                     }
-
-                    connection.close();
                 })
 
         ));
         return result;
     }
 
+    private void updateSchema(SQLConnection connection, int next, Future<Boolean> result) {
+        if (next == SQL_SCHEMA.length) {
+            result.complete(true);
+            connection.close();
+            return;
+        }
+
+        connection.execute(SQL_SCHEMA[next], update -> {
+            if (update.succeeded() || isDuplicate(update.cause())) {
+                updateSchema(connection, next + 1, result);
+            } else {
+                result.fail(update.cause());
+                connection.close();
+            }
+        });
+    }
+
+    // MySQL has no CREATE INDEX or ADD COLUMN IF NOT EXISTS; they are there from an earlier start,
+    // or another node seeded the generation at the same time
+    private static boolean isDuplicate(Throwable cause) {
+        final String message = String.valueOf(cause.getMessage());
+        return message.contains("Duplicate key name") || message.contains("Duplicate column name")
+                || message.contains("Duplicate entry") || message.contains("already exists")
+                || message.contains("primary key violation");
+    }
+
     @Override
     public Future<Boolean> insert(Todo todo) {
         Future<Boolean> result = Future.future();
-        client.getConnection(connHandler(
+        getConnection(connHandler(
                 result,
                 connection -> connection.updateWithParams(
                         SQL_INSERT,
-                        new JsonArray().add(todo.getId())
-                                .add(todo.getTitle())
-                                .add(todo.isCompleted())
-                                .add(todo.getOrder())
-                                .add(todo.getUrl()),
+                        insertParams(todo),
                         r -> {
                             if (r.failed()) {
                                 result.fail(r.cause());
@@ -109,105 +369,188 @@ public class JdbcTodoService implements TodoService {
     }
 
     @Override
-    public Future<List<Todo>> getAll() {
-        Future<List<Todo>> result = Future.future();
-        client.getConnection(connHandler(
+    public Future<Boolean> insertMany(List<Todo> todos) {
+        if (todos.isEmpty()) {
+            return Future.succeededFuture(true);
+        }
+
+        Future<Boolean> result = Future.future();
+        getConnection(connHandler(
                 result,
-                connection -> connection.query(
-                        SQL_QUERY_ALL,
+                connection -> connection.batchWithParams(
+                        SQL_INSERT,
+                        todos.stream()
+                                .map(JdbcTodoService::insertParams)
+                                .collect(Collectors.toList()),
                         r -> {
                             if (r.failed()) {
                                 result.fail(r.cause());
                             } else {
-                                List<Todo> todos = r.result()
-                                        .getRows()
-                                        .stream()
-                                        .map(Todo::new)
-                                        .collect(Collectors.toList());
-                                result.complete(todos);
+                                result.complete(true);
                             }
 
                             connection.close();
                         })
                 )
-
         );
         return result;
     }
 
+    @Override
+    public Future<List<Todo>> getAll() {
+        return readAll(SQL_QUERY_ALL);
+    }
+
+    @Override
+    public Future<TodoPage> getPage(String cursor, int limit) {
+        if (cursor != null && !TodoPage.isIdCursor(cursor)) {
+            return Future.failedFuture(new IllegalArgumentException("Invalid cursor: " + cursor));
+        }
+        final int after = cursor == null ? 0 : Integer.parseInt(cursor);
+
+        Future<TodoPage> result = Future.future();
+        readAll(SQL_QUERY_PAGE, after, limit).setHandler(res -> {
+            if (res.failed()) {
+                result.fail(res.cause());
+                return;
+            }
+            final List<Todo> todos = res.result();
+            // a short page means the keyset is exhausted
+            String next = todos.size() < limit ? null : String.valueOf(todos.get(todos.size() - 1).getId());
+            result.complete(new TodoPage(todos, next));
+        });
+        return result;
+    }
+
+    private static String querySql(TodoQuery query) {
+        final StringBuilder sql = new StringBuilder(SQL_QUERY_FILTERED);
+        if (query.getCompleted() != null) {
+            sql.append(" AND `completed` = ?");
+        }
+        switch (query.getSort()) {
+            case ORDER:
+                sql.append(" ORDER BY `order`, `id`");
+                break;
+            case ORDER_DESC:
+                sql.append(" ORDER BY `order` DESC, `id` DESC");
+                break;
+        }
+        return sql.append(" LIMIT ?").toString();
+    }
+
+    @Override
+    public Future<List<Todo>> query(TodoQuery query) {
+        final Object[] params = query.getCompleted() == null
+                ? new Object[]{query.getLimit()}
+                : new Object[]{query.getCompleted(), query.getLimit()};
+        return readAll(querySql(query), params);
+    }
+
     @Override
     public Future<Optional<Todo>> getCertain(String todoID) {
         Future<Optional<Todo>> result = Future.future();
-        client.getConnection(connHandler(
+        readAll(SQL_QUERY, todoID).setHandler(res -> {
+            if (res.failed()) {
+                result.fail(res.cause());
+            } else {
+                result.complete(res.result().stream().findFirst());
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public Future<Todo> update(String todoId, Todo newTodo) {
+        Future<Todo> result = Future.future();
+        final Todo patch = new Todo(newTodo);
+        try {
+            patch.setId(Integer.parseInt(todoId));
+        } catch (NumberFormatException e) {
+            return Future.succeededFuture();
+        }
+
+        // the merge happens inside the UPDATE, so one connection and no read-modify-write race
+        getConnection(connHandler(
                 result,
-                connection -> connection.queryWithParams(
-                        SQL_QUERY,
-                        new JsonArray()
-                                .add(todoID),
+                connection -> connection.updateWithParams(
+                        SQL_PATCH,
+                        patchParams(patch),
                         r -> {
                             if (r.failed()) {
                                 result.fail(r.cause());
+                                connection.close();
+                            } else if (r.result().getUpdated() == 0) {
+                                result.complete(null);
+                                connection.close();
                             } else {
-                                List<JsonObject> list = r.result().getRows();
-                                if (list == null || list.isEmpty()) {
-                                    result.complete(Optional.empty());
-                                } else {
-                                    result.complete(Optional.of(new Todo(list.get(0))));
-                                }
-                            }
+                                connection.queryWithParams(
+                                        SQL_QUERY,
+                                        new JsonArray().add(patch.getId()),
+                                        x -> {
+                                            if (x.failed()) {
+                                                result.fail(x.cause());
+                                            } else {
+                                                List<JsonArray> rows = x.result().getResults();
+                                                result.complete(rows.isEmpty() ? null : todo(rows.get(0)));
+                                            }
 
-                            connection.close();
+                                            connection.close();
+                                        });
+                            }
                         })
-                )
-        );
+        ));
         return result;
     }
 
     @Override
-    public Future<Todo> update(String todoId, Todo newTodo) {
-        Future<Todo> result = Future.future();
-        client.getConnection(connHandler(
-                result,
-                connection -> getCertain(todoId).setHandler(r -> {
-                    if (r.failed()) {
-                        result.fail(r.cause());
-                    } else {
-                        Optional<Todo> oldTodo = r.result();
+    public Future<List<Todo>> updateMany(List<Todo> patches) {
+        if (patches.isEmpty()) {
+            return Future.succeededFuture(new ArrayList<>());
+        }
 
-                        if (!oldTodo.isPresent()) {
-                            result.complete(null);
-                        } else {
-                            Todo mergeTodo = oldTodo.get().merge(newTodo);
-                            int updateId = oldTodo.get().getId();
+        Future<List<Todo>> result = Future.future();
+        getConnection(connHandler(
+                result,
+                connection -> connection.batchWithParams(
+                        SQL_PATCH,
+                        patches.stream()
+                                .map(JdbcTodoService::patchParams)
+                                .collect(Collectors.toList()),
+                        r -> {
+                            if (r.failed()) {
+                                result.fail(r.cause());
+                                connection.close();
+                                return;
+                            }
 
-                            connection.updateWithParams(
-                                    SQL_UPDATE,
-                                    new JsonArray()
-                                            .add(updateId)
-                                            .add(mergeTodo.getTitle())
-                                            .add(mergeTodo.isCompleted())
-                                            .add(mergeTodo.getOrder())
-                                            .add(mergeTodo.getUrl()),
+                            // read the merged rows back on the same connection
+                            JsonArray ids = new JsonArray();
+                            patches.forEach(patch -> ids.add(patch.getId()));
+                            connection.queryWithParams(
+                                    SQL_QUERY_IN + placeholders(ids.size()),
+                                    ids,
                                     x -> {
                                         if (x.failed()) {
                                             result.fail(x.cause());
                                         } else {
-                                            result.complete(mergeTodo);
+                                            result.complete(x.result()
+                                                    .getResults()
+                                                    .stream()
+                                                    .map(JdbcTodoService::todo)
+                                                    .collect(Collectors.toList()));
                                         }
 
                                         connection.close();
                                     });
-                        }
-                    }
-                })
-
-        ));
+                        })
+                )
+        );
         return result;
     }
 
     private Future<Boolean> deleteProcess(String sql, JsonArray params) {
         Future<Boolean> result = Future.future();
-        client.getConnection(connHandler(
+        getConnection(connHandler(
                 result,
                 connection -> connection.updateWithParams(sql, params, r -> {
                     if (r.failed()) {
@@ -228,7 +571,129 @@ public class JdbcTodoService implements TodoService {
     }
 
     @Override
-    public Future<Boolean> deleteAll() {
-        return deleteProcess(SQL_DELETE_ALL, new JsonArray());
+    public Future<Boolean> deleteMany(List<String> todoIds) {
+        if (todoIds.isEmpty()) {
+            return Future.succeededFuture(true);
+        }
+
+        Future<Boolean> result = Future.future();
+        getConnection(connHandler(
+                result,
+                connection -> connection.batchWithParams(
+                        SQL_DELETE,
+                        todoIds.stream()
+                                .map(id -> new JsonArray().add(id))
+                                .collect(Collectors.toList()),
+                        r -> {
+                            if (r.failed()) {
+                                result.complete(false);
+                            } else {
+                                result.complete(true);
+                            }
+
+                            connection.close();
+                        })
+        ));
+        return result;
+    }
+
+    /**
+     * An unbounded {@code DELETE FROM todo} holds its locks and undo log for
+     * the whole table at once. Instead the generation is advanced first, and
+     * the rows of older generations are deleted in id ranges of
+     * {@code delete_all.batch} rows, each in a transaction of its own, with a
+     * pause of {@code delete_all.pause} milliseconds in between.
+     * <p>
+     * Todos created meanwhile belong to the new generation and are kept, even
+     * when their id comes from a block reserved before the deletion started
+     * and lies below ids being deleted.
+     */
+    @Override
+    public Future<Deletion> deleteAll() {
+        Future<Deletion> result = Future.future();
+        getConnection(connHandler(
+                result,
+                connection -> connection.update(SQL_NEXT_GENERATION, next -> {
+                    if (next.failed()) {
+                        connection.close();
+                        result.fail(next.cause());
+                        return;
+                    }
+                    connection.query(SQL_GENERATION, current -> {
+                        if (current.failed() || current.result().getNumRows() == 0) {
+                            connection.close();
+                            result.fail(current.failed() ? current.cause()
+                                    : new IllegalStateException("Generation " + GENERATION + " is missing"));
+                            return;
+                        }
+                        final int generation = current.result().getResults().get(0).getInteger(0);
+                        connection.queryWithParams(SQL_MAX_ID, new JsonArray().add(generation), r -> {
+                            connection.close();
+                            if (r.failed()) {
+                                result.fail(r.cause());
+                                return;
+                            }
+
+                            final Deletions.Tracker deletion = deletions.start();
+                            final Long last = r.result().getResults().get(0).getLong(0);
+                            if (last == null) {
+                                result.complete(deletion.finish());
+                                return;
+                            }
+                            result.complete(deletion.snapshot());
+                            deleteRange(deletion, generation, Long.MIN_VALUE, last);
+                        });
+                    });
+                })
+        ));
+        return result;
+    }
+
+    private void deleteRange(Deletions.Tracker deletion, int generation, long after, long last) {
+        final Future<Long> deleted = Future.future();
+        getConnection(connHandler(
+                deleted,
+                connection -> connection.queryWithParams(
+                        SQL_RANGE_END,
+                        new JsonArray().add(after).add(last).add(generation).add(deleteBatch),
+                        range -> {
+                            if (range.failed()) {
+                                connection.close();
+                                deleted.fail(range.cause());
+                                return;
+                            }
+                            final Long end = range.result().getResults().get(0).getLong(0);
+                            if (end == null) {
+                                // nothing left up to the last id
+                                connection.close();
+                                deleted.complete(null);
+                                return;
+                            }
+                            connection.updateWithParams(
+                                    SQL_DELETE_RANGE,
+                                    new JsonArray().add(after).add(end).add(generation),
+                                    r -> {
+                                        connection.close();
+                                        if (r.failed()) {
+                                            deleted.fail(r.cause());
+                                        } else {
+                                            deletion.deleted(r.result().getUpdated());
+                                            deleted.complete(end);
+                                        }
+                                    });
+                        })
+        ));
+        deleted.setHandler(res -> {
+            if (res.failed() && res.cause() instanceof RejectedExecutionException) {
+                // regular traffic has the connections, try the same range again later
+                vertx.setTimer(Math.max(1, deletePause), id -> deleteRange(deletion, generation, after, last));
+            } else if (res.failed()) {
+                deletion.fail(res.cause());
+            } else if (res.result() == null) {
+                deletion.finish();
+            } else {
+                vertx.setTimer(Math.max(1, deletePause), id -> deleteRange(deletion, generation, res.result(), last));
+            }
+        });
     }
 }
@@ -0,0 +1,147 @@
+package com.madao.service;
+
+import com.madao.util.GradientLimiter;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.SQLConnection;
+import io.vertx.ext.sql.TransactionIsolation;
+import io.vertx.ext.sql.UpdateResult;
+
+import java.util.List;
+
+/**
+ * A pooled connection that gives its {@link GradientLimiter} permit back on
+ * close, reporting how long it was held.
+ */
+final class LimitedSQLConnection implements SQLConnection {
+
+    private final SQLConnection delegate;
+    private final GradientLimiter limiter;
+    private final long acquired = System.nanoTime();
+    private boolean released;
+
+    LimitedSQLConnection(SQLConnection delegate, GradientLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    private void release() {
+        if (!released) {
+            released = true;
+            limiter.release(System.nanoTime() - acquired);
+        }
+    }
+
+    @Override
+    public void close(Handler<AsyncResult<Void>> handler) {
+        release();
+        delegate.close(handler);
+    }
+
+    @Override
+    public void close() {
+        release();
+        delegate.close();
+    }
+
+    @Override
+    public SQLConnection setAutoCommit(boolean autoCommit, Handler<AsyncResult<Void>> handler) {
+        delegate.setAutoCommit(autoCommit, handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection execute(String sql, Handler<AsyncResult<Void>> handler) {
+        delegate.execute(sql, handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection query(String sql, Handler<AsyncResult<ResultSet>> handler) {
+        delegate.query(sql, handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection queryWithParams(String sql, JsonArray params, Handler<AsyncResult<ResultSet>> handler) {
+        delegate.queryWithParams(sql, params, handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection update(String sql, Handler<AsyncResult<UpdateResult>> handler) {
+        delegate.update(sql, handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection updateWithParams(String sql, JsonArray params, Handler<AsyncResult<UpdateResult>> handler) {
+        delegate.updateWithParams(sql, params, handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection call(String sql, Handler<AsyncResult<ResultSet>> handler) {
+        delegate.call(sql, handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection callWithParams(String sql, JsonArray params, JsonArray outputs,
+                                        Handler<AsyncResult<ResultSet>> handler) {
+        delegate.callWithParams(sql, params, outputs, handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection commit(Handler<AsyncResult<Void>> handler) {
+        delegate.commit(handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection rollback(Handler<AsyncResult<Void>> handler) {
+        delegate.rollback(handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection setQueryTimeout(int timeoutInSeconds) {
+        delegate.setQueryTimeout(timeoutInSeconds);
+        return this;
+    }
+
+    @Override
+    public SQLConnection batch(List<String> sqlStatements, Handler<AsyncResult<List<Integer>>> handler) {
+        delegate.batch(sqlStatements, handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection batchWithParams(String sql, List<JsonArray> args,
+                                         Handler<AsyncResult<List<Integer>>> handler) {
+        delegate.batchWithParams(sql, args, handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection batchCallableWithParams(String sql, List<JsonArray> inArgs, List<JsonArray> outArgs,
+                                                 Handler<AsyncResult<List<Integer>>> handler) {
+        delegate.batchCallableWithParams(sql, inArgs, outArgs, handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection setTransactionIsolation(TransactionIsolation isolation, Handler<AsyncResult<Void>> handler) {
+        delegate.setTransactionIsolation(isolation, handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection getTransactionIsolation(Handler<AsyncResult<TransactionIsolation>> handler) {
+        delegate.getTransactionIsolation(handler);
+        return this;
+    }
+}
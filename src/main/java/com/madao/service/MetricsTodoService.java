@@ -0,0 +1,109 @@
+package com.madao.service;
+
+import com.madao.entity.Deletion;
+import com.madao.entity.Todo;
+import com.madao.entity.TodoPage;
+import com.madao.entity.TodoQuery;
+import com.madao.metrics.Counter;
+import com.madao.metrics.Family;
+import com.madao.metrics.Histogram;
+import com.madao.metrics.Metrics;
+import io.vertx.core.Future;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Records the latency and failures of every call into the wrapped service,
+ * labelled with the backend and the operation.
+ */
+public class MetricsTodoService extends DelegatingTodoService {
+
+    private final String backend;
+    private final Family<Histogram> duration;
+    private final Family<Counter> errors;
+
+    public MetricsTodoService(Metrics metrics, TodoService delegate, String backend) {
+        super(delegate);
+        this.backend = backend;
+        this.duration = metrics.histogram("todo_service_duration_seconds",
+                "Latency of TodoService operations.", "backend", "operation");
+        this.errors = metrics.counter("todo_service_errors_total",
+                "TodoService operations that failed.", "backend", "operation");
+    }
+
+    private <T> Future<T> timed(String operation, Supplier<Future<T>> call) {
+        final Histogram histogram = duration.labels(backend, operation);
+        final long started = System.nanoTime();
+        final Future<T> result = Future.future();
+        call.get().setHandler(res -> {
+            histogram.observeSince(started);
+            if (res.failed()) {
+                errors.labels(backend, operation).inc();
+            }
+            result.completer().handle(res);
+        });
+        return result;
+    }
+
+    @Override
+    public Future<Boolean> initData() {
+        return timed("initData", delegate::initData);
+    }
+
+    @Override
+    public Future<Boolean> insert(Todo todo) {
+        return timed("insert", () -> delegate.insert(todo));
+    }
+
+    @Override
+    public Future<Boolean> insertMany(List<Todo> todos) {
+        return timed("insertMany", () -> delegate.insertMany(todos));
+    }
+
+    @Override
+    public Future<List<Todo>> getAll() {
+        return timed("getAll", delegate::getAll);
+    }
+
+    @Override
+    public Future<TodoPage> getPage(String cursor, int limit) {
+        return timed("getPage", () -> delegate.getPage(cursor, limit));
+    }
+
+    @Override
+    public Future<List<Todo>> query(TodoQuery query) {
+        return timed("query", () -> delegate.query(query));
+    }
+
+    @Override
+    public Future<Optional<Todo>> getCertain(String todoID) {
+        return timed("getCertain", () -> delegate.getCertain(todoID));
+    }
+
+    @Override
+    public Future<Todo> update(String todoId, Todo newTodo) {
+        return timed("update", () -> delegate.update(todoId, newTodo));
+    }
+
+    @Override
+    public Future<List<Todo>> updateMany(List<Todo> patches) {
+        return timed("updateMany", () -> delegate.updateMany(patches));
+    }
+
+    @Override
+    public Future<Boolean> delete(String todoId) {
+        return timed("delete", () -> delegate.delete(todoId));
+    }
+
+    @Override
+    public Future<Boolean> deleteMany(List<String> todoIds) {
+        return timed("deleteMany", () -> delegate.deleteMany(todoIds));
+    }
+
+    @Override
+    public Future<Deletion> deleteAll() {
+        return timed("deleteAll", delegate::deleteAll);
+    }
+}
@@ -0,0 +1,377 @@
+package com.madao.service;
+
+import com.madao.metrics.Counter;
+import com.madao.metrics.Metrics;
+import com.madao.util.RedisCommands;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.net.NetClient;
+import io.vertx.core.net.NetClientOptions;
+import io.vertx.core.net.NetSocket;
+import io.vertx.redis.RedisOptions;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * One connection to one Redis endpoint that writes every command issued
+ * within the same event loop tick in a single socket write.
+ * <p>
+ * {@link io.vertx.redis.RedisClient} already sends a command without
+ * waiting for the replies to the earlier ones, but it hops onto the event
+ * loop and writes and flushes each command on its own. Here commands are
+ * encoded into one buffer, which goes out in a task queued behind the
+ * current one; replies come back in the order the commands went out and
+ * are handed to their callers in that order. With many requests in flight
+ * on one event loop, that is one write and usually one read per tick
+ * instead of one per command.
+ * <p>
+ * {@code AUTH} and {@code SELECT} of the {@link RedisOptions} are sent
+ * first on every (re)connection. When the connection fails or closes,
+ * every command still waiting for a reply fails, and the next one
+ * reconnects. With {@code maxPending} commands waiting for their replies,
+ * or while the socket's write queue is full, a new command fails at once
+ * with {@link RejectedExecutionException} instead of queueing behind a
+ * Redis that does not keep up.
+ * <p>
+ * Replies are parsed as they arrive and the parse goes on where the last
+ * read left it, so a reply spread over many reads is still read once.
+ * Not thread safe: every instance belongs to the verticle that created it.
+ */
+final class PipelinedRedis implements RedisCommands {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final Object INCOMPLETE = new Object();
+    private static final Object NESTED = new Object(); // an array was opened, its elements follow
+
+    // an error reply, kept apart from a status reply
+    private static final class Error {
+        final String message;
+
+        Error(String message) {
+            this.message = message;
+        }
+    }
+
+    // an array reply still missing elements
+    private static final class Frame {
+        final JsonArray array = new JsonArray();
+        int remaining;
+
+        Frame(int count) {
+            this.remaining = count;
+        }
+    }
+
+    private final Vertx vertx;
+    private final RedisOptions options;
+    private final int maxPending;
+    private final Counter sent;
+    private final Counter writes;
+    private final Deque<Handler<AsyncResult<Object>>> waiting = new ArrayDeque<>();
+
+    private Context context;
+    private NetClient client;
+    private NetSocket socket;
+    private boolean connecting;
+    private boolean flushQueued;
+    private Buffer out = Buffer.buffer();
+    private Buffer in = Buffer.buffer();
+    private int position; // how far into in the replies have been read
+    private int scanned; // where the search for the end of the next line goes on
+    private int bulk = -1; // the length of a bulk string whose header was read, until all of it is in
+    private final Deque<Frame> frames = new ArrayDeque<>(); // open arrays, innermost last
+
+    PipelinedRedis(Vertx vertx, RedisOptions options, int maxPending) {
+        this.vertx = vertx;
+        this.options = options;
+        this.maxPending = maxPending;
+        final Metrics metrics = Metrics.get(vertx);
+        this.sent = metrics.counter("todo_redis_pipelined_commands_total",
+                "Commands sent through auto-pipelined connections.").labels();
+        this.writes = metrics.counter("todo_redis_pipeline_writes_total",
+                "Socket writes of auto-pipelined connections; commands per write is the batch size.").labels();
+    }
+
+    @Override
+    public void hget(String key, String field, Handler<AsyncResult<String>> handler) {
+        send(Arrays.asList("HGET", key, field), res -> handler.handle(
+                res.failed() ? Future.failedFuture(res.cause()) : Future.succeededFuture((String) res.result())));
+    }
+
+    @Override
+    public void hvals(String key, Handler<AsyncResult<JsonArray>> handler) {
+        send(Arrays.asList("HVALS", key), res -> handler.handle(
+                res.failed() ? Future.failedFuture(res.cause()) : Future.succeededFuture((JsonArray) res.result())));
+    }
+
+    @Override
+    public void evalsha(String sha, List<String> keys, List<String> args, Handler<AsyncResult<JsonArray>> handler) {
+        script("EVALSHA", sha, keys, args, handler);
+    }
+
+    @Override
+    public void eval(String script, List<String> keys, List<String> args, Handler<AsyncResult<JsonArray>> handler) {
+        script("EVAL", script, keys, args, handler);
+    }
+
+    private void script(String command, String script, List<String> keys, List<String> args,
+                        Handler<AsyncResult<JsonArray>> handler) {
+        final Object[] words = new Object[3 + keys.size() + args.size()];
+        words[0] = command;
+        words[1] = script;
+        words[2] = String.valueOf(keys.size());
+        int i = 3;
+        for (String key : keys) {
+            words[i++] = key;
+        }
+        for (String arg : args) {
+            words[i++] = arg;
+        }
+        send(Arrays.asList(words), res -> {
+            if (res.failed()) {
+                handler.handle(Future.failedFuture(res.cause()));
+            } else if (res.result() instanceof JsonArray) {
+                handler.handle(Future.succeededFuture((JsonArray) res.result()));
+            } else {
+                handler.handle(Future.succeededFuture(new JsonArray().add(res.result())));
+            }
+        });
+    }
+
+    private void send(List<?> words, Handler<AsyncResult<Object>> handler) {
+        if (waiting.size() >= maxPending || socket != null && socket.writeQueueFull()) {
+            handler.handle(Future.failedFuture(new RejectedExecutionException("Redis pipeline full")));
+            return;
+        }
+        encode(out, words);
+        waiting.add(handler);
+        sent.inc();
+        if (!flushQueued) {
+            flushQueued = true;
+            if (context == null) {
+                context = vertx.getOrCreateContext();
+            }
+            // behind whatever else this tick still issues
+            context.runOnContext(v -> flush());
+        }
+    }
+
+    private static void encode(Buffer out, List<?> words) {
+        out.appendByte((byte) '*').appendString(String.valueOf(words.size())).appendBytes(CRLF);
+        for (Object word : words) {
+            final byte[] bytes = word.toString().getBytes(StandardCharsets.UTF_8);
+            out.appendByte((byte) '$').appendString(String.valueOf(bytes.length)).appendBytes(CRLF)
+                    .appendBytes(bytes).appendBytes(CRLF);
+        }
+    }
+
+    private void flush() {
+        flushQueued = false;
+        if (socket == null) {
+            connect();
+            return;
+        }
+        if (out.length() > 0) {
+            final Buffer batch = out;
+            out = Buffer.buffer(batch.length());
+            socket.write(batch);
+            writes.inc();
+        }
+    }
+
+    private void connect() {
+        if (connecting) {
+            return;
+        }
+        connecting = true;
+        if (client == null) {
+            client = vertx.createNetClient(new NetClientOptions().setTcpNoDelay(true).setTcpKeepAlive(true));
+        }
+        client.connect(options.getPort(), options.getHost(), res -> {
+            connecting = false;
+            if (res.failed()) {
+                failAll(res.cause());
+                return;
+            }
+            socket = res.result();
+            socket.handler(this::received);
+            socket.closeHandler(v -> closed(new IllegalStateException("Connection to Redis closed")));
+            socket.exceptionHandler(this::closed);
+
+            // the session setup goes in front of everything queued meanwhile
+            final Buffer setup = Buffer.buffer();
+            int replies = 0;
+            if (options.getAuth() != null) {
+                encode(setup, Arrays.asList("AUTH", options.getAuth()));
+                replies++;
+            }
+            if (options.getSelect() != null) {
+                encode(setup, Arrays.asList("SELECT", options.getSelect()));
+                replies++;
+            }
+            for (; replies > 0; replies--) {
+                waiting.addFirst(this::setUp);
+            }
+            if (setup.length() > 0) {
+                out = setup.appendBuffer(out);
+            }
+            flush();
+        });
+    }
+
+    private void setUp(AsyncResult<Object> res) {
+        if (res.failed() && socket != null) {
+            socket.close();
+        }
+    }
+
+    private void closed(Throwable cause) {
+        if (socket != null) {
+            socket = null;
+            in = Buffer.buffer();
+            position = 0;
+            scanned = 0;
+            bulk = -1;
+            frames.clear();
+            failAll(cause);
+        }
+    }
+
+    // replies to unsent commands never come either
+    private void failAll(Throwable cause) {
+        out = Buffer.buffer();
+        final Future<Object> failed = Future.failedFuture(cause);
+        while (!waiting.isEmpty()) {
+            waiting.poll().handle(failed);
+        }
+    }
+
+    private void received(Buffer data) {
+        in.appendBuffer(data);
+        Object reply;
+        while ((reply = parse()) != INCOMPLETE) {
+            final Handler<AsyncResult<Object>> handler = waiting.poll();
+            if (handler != null) {
+                handler.handle(reply instanceof Error
+                        ? Future.failedFuture(((Error) reply).message)
+                        : Future.succeededFuture(reply));
+            }
+        }
+        // copy what is left only once it is at most half of the buffer, so each byte is copied O(1) times
+        if (position == in.length()) {
+            in = Buffer.buffer();
+            scanned = 0;
+            position = 0;
+        } else if (position > 0 && position >= in.length() - position) {
+            in = in.getBuffer(position, in.length());
+            scanned -= position;
+            position = 0;
+        }
+    }
+
+    // the next complete reply, or INCOMPLETE once everything that has arrived is consumed
+    private Object parse() {
+        while (true) {
+            Object value = element();
+            if (value == INCOMPLETE) {
+                return INCOMPLETE;
+            }
+            // a finished value may finish the arrays around it too
+            while (value != NESTED && !frames.isEmpty()) {
+                final Frame frame = frames.peekLast();
+                if (value == null) {
+                    frame.array.addNull();
+                } else {
+                    frame.array.add(value instanceof Error ? ((Error) value).message : value);
+                }
+                if (--frame.remaining > 0) {
+                    value = NESTED;
+                } else {
+                    frames.pollLast();
+                    value = frame.array;
+                }
+            }
+            if (value != NESTED) {
+                return value;
+            }
+        }
+    }
+
+    // one value from position on, NESTED for the header of a non-empty array, INCOMPLETE if not all in yet
+    private Object element() {
+        if (bulk >= 0) {
+            return bulkString();
+        }
+        final String line = line();
+        if (line == null) {
+            return INCOMPLETE;
+        }
+        switch (line.charAt(0)) {
+            case '+':
+                return line.substring(1);
+            case '-':
+                return new Error(line.substring(1));
+            case ':':
+                return Long.parseLong(line.substring(1));
+            case '$': {
+                final int length = Integer.parseInt(line.substring(1));
+                if (length < 0) {
+                    return null;
+                }
+                bulk = length;
+                return bulkString();
+            }
+            case '*': {
+                final int count = Integer.parseInt(line.substring(1));
+                if (count < 0) {
+                    return null;
+                }
+                if (count == 0) {
+                    return new JsonArray();
+                }
+                frames.add(new Frame(count));
+                return NESTED;
+            }
+            default:
+                throw new IllegalStateException("Unexpected Redis reply: " + line);
+        }
+    }
+
+    // the body of the bulk string whose header was read, once all of it has arrived
+    private Object bulkString() {
+        if (position + bulk + CRLF.length > in.length()) {
+            return INCOMPLETE;
+        }
+        final String value = in.getString(position, position + bulk, "UTF-8");
+        position += bulk + CRLF.length;
+        scanned = position;
+        bulk = -1;
+        return value;
+    }
+
+    // the next CRLF-terminated line without its CRLF, or null if it has not fully arrived
+    private String line() {
+        final int lf = in.getByteBuf().indexOf(Math.max(scanned, position), in.length(), (byte) '\n');
+        if (lf < 0) {
+            scanned = in.length();
+            return null;
+        }
+        if (lf == position || in.getByte(lf - 1) != '\r') {
+            throw new IllegalStateException("Malformed Redis reply");
+        }
+        final String line = in.getString(position, lf - 1, "UTF-8");
+        position = lf + 1;
+        scanned = position;
+        return line;
+    }
+}
@@ -0,0 +1,293 @@
+package com.madao.service;
+
+import com.madao.Constants;
+import com.madao.entity.Todo;
+import com.madao.util.LuaScript;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Server-side scripts shared by everything that talks to the todo hash.
+ */
+public final class RedisScripts {
+
+    /**
+     * Lua counterparts of {@link TodoCodec#decode(String)} and
+     * {@link TodoCodec#encode(Todo)}; decode also accepts legacy JSON values.
+     */
+    private static final String CODEC =
+            "local function decode(s)\n" +
+            "  if string.byte(s, 1) ~= 2 then\n" +
+            "    local t = cjson.decode(s)\n" +
+            "    for k, v in pairs(t) do if v == cjson.null then t[k] = nil end end\n" +
+            "    return t\n" +
+            "  end\n" +
+            "  local id, flags, order, len, pos = string.match(s, '^\\2(%-?%d+),(%d+),(%-?%d+),(%d+),()')\n" +
+            "  flags, len = tonumber(flags), tonumber(len)\n" +
+            "  local t = {id = tonumber(id)}\n" +
+            "  if bit.band(flags, 1) ~= 0 then t.completed = bit.band(flags, 2) ~= 0 end\n" +
+            "  if bit.band(flags, 4) ~= 0 then t.order = tonumber(order) end\n" +
+            "  if bit.band(flags, 8) ~= 0 then t.title = string.sub(s, pos, pos + len - 1) end\n" +
+            "  if bit.band(flags, 16) ~= 0 then t.url = string.sub(s, pos + len) end\n" +
+            "  return t\n" +
+            "end\n" +
+            "local function encode(t)\n" +
+            "  local flags = 0\n" +
+            "  if t.completed ~= nil then flags = flags + (t.completed and 3 or 1) end\n" +
+            "  if t.order ~= nil then flags = flags + 4 end\n" +
+            "  if t.title ~= nil then flags = flags + 8 end\n" +
+            "  if t.url ~= nil then flags = flags + 16 end\n" +
+            "  local title, url = t.title or '', t.url or ''\n" +
+            "  return string.format('\\2%d,%d,%d,%d,', t.id or 0, flags, t.order or 0, #title) .. title .. url\n" +
+            "end\n";
+
+    /**
+     * Upkeep of the secondary indexes, for scripts whose KEYS start with
+     * {@link #INDEX_KEYS}: a set of the ids of completed todos, one of the
+     * open ones, a sorted set of all of them scored by order, and one sorted
+     * set each for the completed and the open ones. Sorted set members are
+     * the ids zero-padded to ten digits, so todos with the same order come
+     * back in id order like they do from the other backends.
+     */
+    private static final String INDEX =
+            "local function member(id) return string.format('%010d', tonumber(id)) end\n" +
+            "local function index(id, completed, order)\n" +
+            "  local add, rem, zadd, zrem = KEYS[3], KEYS[2], KEYS[6], KEYS[5]\n" +
+            "  if completed then add, rem, zadd, zrem = KEYS[2], KEYS[3], KEYS[5], KEYS[6] end\n" +
+            "  redis.call('SADD', add, id)\n" +
+            "  redis.call('SREM', rem, id)\n" +
+            "  redis.call('ZADD', KEYS[4], order or 0, member(id))\n" +
+            "  redis.call('ZADD', zadd, order or 0, member(id))\n" +
+            "  redis.call('ZREM', zrem, member(id))\n" +
+            "end\n" +
+            "local function unindex(id)\n" +
+            "  redis.call('SREM', KEYS[2], id)\n" +
+            "  redis.call('SREM', KEYS[3], id)\n" +
+            "  if tonumber(id) then\n" +
+            "    redis.call('ZREM', KEYS[4], member(id))\n" +
+            "    redis.call('ZREM', KEYS[5], member(id))\n" +
+            "    redis.call('ZREM', KEYS[6], member(id))\n" +
+            "  end\n" +
+            "end\n";
+
+    public static final List<String> INDEX_KEYS = indexKeys(Constants.REDIS_TODO_KEY);
+
+    /**
+     * The todo hash {@code hash} followed by its indexes, named like
+     * {@link #INDEX_KEYS} are for the unsharded hash.
+     */
+    public static List<String> indexKeys(String hash) {
+        return Collections.unmodifiableList(Arrays.asList(
+                hash,
+                hash + Constants.REDIS_COMPLETED_SUFFIX,
+                hash + Constants.REDIS_OPEN_SUFFIX,
+                hash + Constants.REDIS_ORDER_SUFFIX,
+                hash + Constants.REDIS_COMPLETED_ORDER_SUFFIX,
+                hash + Constants.REDIS_OPEN_ORDER_SUFFIX));
+    }
+
+    /**
+     * KEYS = {@link #INDEX_KEYS}, ARGV[1] = 'nx' to keep existing todos,
+     * then (id, encoded todo, completed '1' or '0', order) quadruples.
+     * Stores and indexes every todo; returns the number stored.
+     */
+    public static final LuaScript PUT_TODOS = new LuaScript(INDEX +
+            "local n = 0\n" +
+            "for i = 2, #ARGV, 4 do\n" +
+            "  local stored\n" +
+            "  if ARGV[1] == 'nx' then\n" +
+            "    stored = redis.call('HSETNX', KEYS[1], ARGV[i], ARGV[i + 1]) == 1\n" +
+            "  else\n" +
+            "    redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])\n" +
+            "    stored = true\n" +
+            "  end\n" +
+            "  if stored then\n" +
+            "    index(ARGV[i], ARGV[i + 2] == '1', tonumber(ARGV[i + 3]))\n" +
+            "    n = n + 1\n" +
+            "  end\n" +
+            "end\n" +
+            "return {n}\n");
+
+    /**
+     * KEYS = {@link #INDEX_KEYS}, ARGV = ids. Deletes and unindexes the
+     * todos; returns the number that existed.
+     */
+    public static final LuaScript DELETE_TODOS = new LuaScript(INDEX +
+            "local n = 0\n" +
+            "for _, id in ipairs(ARGV) do\n" +
+            "  n = n + redis.call('HDEL', KEYS[1], id)\n" +
+            "  unindex(id)\n" +
+            "end\n" +
+            "return {n}\n");
+
+    /**
+     * KEYS = {@link #INDEX_KEYS}, ARGV = (id, expected value) pairs. Deletes
+     * and unindexes each todo only if it still holds the expected value, so
+     * moving a todo to another shard never drops a concurrent update.
+     * Returns the number deleted.
+     */
+    public static final LuaScript DELETE_IF_UNCHANGED = new LuaScript(INDEX +
+            "local n = 0\n" +
+            "for i = 1, #ARGV, 2 do\n" +
+            "  if redis.call('HGET', KEYS[1], ARGV[i]) == ARGV[i + 1] then\n" +
+            "    redis.call('HDEL', KEYS[1], ARGV[i])\n" +
+            "    unindex(ARGV[i])\n" +
+            "    n = n + 1\n" +
+            "  end\n" +
+            "end\n" +
+            "return {n}\n");
+
+    /**
+     * KEYS = {@link #INDEX_KEYS}, then the same six keys of a trash hash.
+     * Renames the todo hash and its indexes to the trash keys, which takes
+     * constant time whatever their size, so the todos are gone at once and
+     * can be purged in batches. Returns the number of todos moved.
+     */
+    public static final LuaScript TRASH_TODOS = new LuaScript(
+            "local n = redis.call('HLEN', KEYS[1])\n" +
+            "for i = 1, 6 do\n" +
+            "  if redis.call('EXISTS', KEYS[i]) == 1 then redis.call('RENAME', KEYS[i], KEYS[i + 6]) end\n" +
+            "end\n" +
+            "return {n}\n");
+
+    /**
+     * KEYS = {@link #INDEX_KEYS}, ARGV = ids. Brings the index entries of the
+     * ids in line with the hash, for todos stored before the indexes existed.
+     */
+    public static final LuaScript INDEX_TODOS = new LuaScript(CODEC + INDEX +
+            "for _, id in ipairs(ARGV) do\n" +
+            "  local value = redis.call('HGET', KEYS[1], id)\n" +
+            "  if value then\n" +
+            "    local todo = decode(value)\n" +
+            "    index(id, todo.completed, todo.order)\n" +
+            "  else\n" +
+            "    unindex(id)\n" +
+            "  end\n" +
+            "end\n" +
+            "return {#ARGV}\n");
+
+    /**
+     * KEYS = {@link #INDEX_KEYS} followed by the indexed marker,
+     * ARGV[1] = completed filter ('1', '0' or ''), ARGV[2] = sort ('asc',
+     * 'desc' or ''), ARGV[3] = limit.
+     * <p>
+     * Sorted queries are one range over the sorted set of the completed
+     * filter; unsorted ones scan the filter's set. Replies {1, todo...}, or
+     * {0} while the indexes are still being built. The todos are read in
+     * chunks, since Lua cannot unpack more than a few thousand arguments.
+     */
+    public static final LuaScript QUERY_TODOS = new LuaScript(
+            "if redis.call('EXISTS', KEYS[7]) == 0 then return {0} end\n" +
+            "local filter, sorted = nil, KEYS[4]\n" +
+            "if ARGV[1] == '1' then filter, sorted = KEYS[2], KEYS[5]\n" +
+            "elseif ARGV[1] == '0' then filter, sorted = KEYS[3], KEYS[6] end\n" +
+            "local limit = tonumber(ARGV[3])\n" +
+            "local chunk = math.max(limit, 100)\n" +
+            "local ids = {}\n" +
+            "if ARGV[2] ~= '' then\n" +
+            "  local range = ARGV[2] == 'desc' and 'ZREVRANGE' or 'ZRANGE'\n" +
+            "  -- a stop of -1 would mean the whole set\n" +
+            "  local members = limit > 0 and redis.call(range, sorted, 0, limit - 1) or {}\n" +
+            "  for _, m in ipairs(members) do\n" +
+            "    ids[#ids + 1] = tostring(tonumber(m))\n" +
+            "  end\n" +
+            "else\n" +
+            "  local seen, cursor = {}, '0'\n" +
+            "  repeat\n" +
+            "    local reply = redis.call('SSCAN', filter, cursor, 'COUNT', chunk)\n" +
+            "    cursor = reply[1]\n" +
+            "    for _, id in ipairs(reply[2]) do\n" +
+            "      if #ids < limit and not seen[id] then\n" +
+            "        seen[id] = true\n" +
+            "        ids[#ids + 1] = id\n" +
+            "      end\n" +
+            "    end\n" +
+            "  until cursor == '0' or #ids >= limit\n" +
+            "end\n" +
+            "local result = {1}\n" +
+            "for i = 1, #ids, 1000 do\n" +
+            "  for _, value in ipairs(redis.call('HMGET', KEYS[1], unpack(ids, i, math.min(i + 999, #ids)))) do\n" +
+            "    if value then result[#result + 1] = value end\n" +
+            "  end\n" +
+            "end\n" +
+            "return result\n");
+
+    /**
+     * KEYS[1] = hash, ARGV[1] = todo id, ARGV[2] = patch as JSON.
+     * Applies the same rules as {@link Todo#merge(Todo)} atomically and
+     * returns the merged todo as a one-element array, or an empty array when
+     * the id is unknown (a nil reply would crash the client's JsonArray mapping).
+     * The merged value is always written back in the {@link TodoCodec} format,
+     * and indexed when KEYS are the {@link #INDEX_KEYS}.
+     */
+    public static final LuaScript MERGE_TODO = new LuaScript(CODEC + INDEX +
+            "local old = redis.call('HGET', KEYS[1], ARGV[1])\n" +
+            "if not old then return {} end\n" +
+            "local todo = decode(old)\n" +
+            "local patch = cjson.decode(ARGV[2])\n" +
+            "for _, field in ipairs({'title', 'completed', 'order'}) do\n" +
+            "  if patch[field] ~= nil then todo[field] = patch[field] end\n" +
+            "end\n" +
+            "local encoded = encode(todo)\n" +
+            "redis.call('HSET', KEYS[1], ARGV[1], encoded)\n" +
+            "if KEYS[4] then index(ARGV[1], todo.completed, todo.order) end\n" +
+            "return {encoded}\n");
+
+    /**
+     * KEYS[1] = hash, ARGV = (field, expected value, new value) triples.
+     * Replaces each field only if it still holds the expected value, so a
+     * background rewrite never clobbers a concurrent update. Returns the
+     * number of fields replaced.
+     */
+    public static final LuaScript REPLACE_IF_UNCHANGED = new LuaScript(
+            "local n = 0\n" +
+            "for i = 1, #ARGV, 3 do\n" +
+            "  if redis.call('HGET', KEYS[1], ARGV[i]) == ARGV[i + 1] then\n" +
+            "    redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 2])\n" +
+            "    n = n + 1\n" +
+            "  end\n" +
+            "end\n" +
+            "return {n}\n");
+
+    /**
+     * KEYS[1] = id sequence, ARGV[1] = id. Sets the sequence to the id if it
+     * is below it or does not exist yet; returns 1 if it did, 0 if not.
+     */
+    public static final LuaScript RAISE_SEQUENCE = new LuaScript(
+            "if tonumber(ARGV[1]) > tonumber(redis.call('GET', KEYS[1]) or '0') then\n" +
+            "  redis.call('SET', KEYS[1], ARGV[1])\n" +
+            "  return {1}\n" +
+            "end\n" +
+            "return {0}\n");
+
+    private RedisScripts() {}
+
+    /**
+     * Only the fields the client actually sent, so the script can tell
+     * "not provided" apart from the defaults {@link Todo} reports.
+     */
+    public static String patchOf(Todo todo) {
+        JsonObject patch = new JsonObject();
+        if (todo.getTitle() != null) {
+            patch.put("title", todo.getTitle());
+        }
+        if (todo.hasCompleted()) {
+            patch.put("completed", todo.isCompleted());
+        }
+        if (todo.hasOrder()) {
+            patch.put("order", todo.getOrder());
+        }
+        return patch.encode();
+    }
+
+    /**
+     * The merged todo from a {@link #MERGE_TODO} reply, or null if there was none.
+     */
+    public static String mergedOf(JsonArray reply) {
+        return reply == null || reply.isEmpty() ? null : reply.getString(0);
+    }
+}
@@ -0,0 +1,56 @@
+package com.madao.service;
+
+import com.madao.Constants;
+import com.madao.util.RedisCommands;
+import io.vertx.redis.RedisClient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One todo hash and its indexes on one Redis endpoint. Sharded hashes are
+ * named {@code VERT_TODO{n}}; the braces make the hash and its indexes one
+ * Redis Cluster hash tag, so the scripts that touch all of them still work
+ * there. A single shard keeps the unsharded names.
+ */
+final class RedisShard {
+
+    final String endpoint;
+    final RedisClient redis;
+    // what requests send; redis itself, or the pipelined connection to the endpoint
+    final RedisCommands commands;
+    final String key;
+    // KEYS of the RedisScripts that keep the indexes
+    final List<String> keys;
+    // KEYS of RedisScripts.QUERY_TODOS
+    final List<String> queryKeys;
+
+    RedisShard(String endpoint, RedisClient redis, RedisCommands commands, String key) {
+        this.endpoint = endpoint;
+        this.redis = redis;
+        this.commands = commands;
+        this.key = key;
+        this.keys = RedisScripts.indexKeys(key);
+        final List<String> queryKeys = new ArrayList<>(keys);
+        queryKeys.add(indexedKey());
+        this.queryKeys = Collections.unmodifiableList(queryKeys);
+    }
+
+    static String keyOf(int shard, int shards) {
+        return shards == 1 ? Constants.REDIS_TODO_KEY : Constants.REDIS_TODO_KEY + "{" + shard + "}";
+    }
+
+    String indexedKey() {
+        return key + Constants.REDIS_INDEXED_SUFFIX;
+    }
+
+    boolean sameAs(RedisShard other) {
+        return endpoint.equals(other.endpoint) && key.equals(other.key);
+    }
+
+    @Override
+    public String toString() {
+        return endpoint + "/" + key;
+    }
+}
@@ -1,115 +1,1163 @@
 package com.madao.service;
 
 import com.madao.Constants;
+import com.madao.entity.Deletion;
 import com.madao.entity.Todo;
+import com.madao.entity.TodoPage;
+import com.madao.entity.TodoQuery;
+import com.madao.metrics.Counter;
+import com.madao.metrics.Family;
+import com.madao.metrics.Histogram;
+import com.madao.metrics.Metrics;
+import com.madao.util.ConsistentHashRing;
+import com.madao.util.RedisCommands;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
-import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
 import io.vertx.redis.RedisClient;
 import io.vertx.redis.RedisOptions;
+import io.vertx.redis.op.ScanOptions;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+/**
+ * Stores todos in Redis hashes, partitioned over {@code shards} hash keys
+ * spread across one or more endpoints.
+ * <p>
+ * A todo belongs to the shard its id hashes to on a
+ * {@link ConsistentHashRing}, and each shard lives on the endpoint that
+ * ranks highest for it by rendezvous hashing without exceeding its fair
+ * share. So adding a shard or an endpoint only moves the todos it takes
+ * over. Operations on several todos run one script per shard, and those
+ * on all of them fan out to every shard in parallel. Endpoints must be
+ * spelled the same way ({@code host:port}) everywhere, as their names
+ * decide the placement.
+ * <p>
+ * After the layout changes, {@link #rebalance} moves every todo to its new
+ * shard. Until it is done, reads and writes that miss a todo in its shard
+ * also look in the others.
+ * <p>
+ * With {@code pipelining}, the commands of requests go over a connection
+ * of their own to each endpoint, which writes all the commands of one
+ * event loop tick at once (see {@link PipelinedRedis}). Maintenance work
+ * (layouts, scans, rebalancing, purges) always uses the plain client.
+ */
 public class RedisTodoService implements TodoService {
 
+    public static final int DEFAULT_RING_POINTS = 128;
+    public static final int DEFAULT_PIPELINE_PENDING = 10_000;
+
+    private static final String SCAN_BEGIN = "0";
+    private static final int SAMPLE_ID = 1;
+    private static final String CURSOR_SEPARATOR = ":";
+    private static final String SKIP_SEPARATOR = ".";
+    // [shard:]scan[.skip], the SCAN cursor being an unsigned 64-bit number
+    private static final Pattern CURSOR = Pattern.compile("(\\d{1,9}" + Pattern.quote(CURSOR_SEPARATOR) + ")?"
+            + "\\d{1,20}(" + Pattern.quote(SKIP_SEPARATOR) + "\\d{1,9})?");
+    private static final Pattern TODO_HASH =
+            Pattern.compile(Pattern.quote(Constants.REDIS_TODO_KEY) + "(\\{\\d+\\})?");
+    private static final Pattern TRASH_HASH = Pattern.compile(TODO_HASH.pattern()
+            + Pattern.quote(Constants.REDIS_TRASH_INFIX) + "[0-9a-f-]+");
+
     private final Vertx vertx;
-    private final RedisOptions config;
-    private final RedisClient redis;
+    private final Map<String, RedisClient> clients = new LinkedHashMap<>(); // by endpoint
+    private final List<RedisShard> shards = new ArrayList<>();
+    private final ConsistentHashRing<RedisShard> ring;
+    private final String layout;
+    private final Family<Histogram> commandDuration;
+    private final Family<Counter> commandErrors;
+    private final Deletions deletions;
+    private int purgeBatch = 1000;
+    private long purgePause = 10;
+
+    // set while todos may still sit outside their shard, in a shard or in a stray hash;
+    // nothing is known about the stored layout until rebalance() has checked it
+    private boolean rebalancing = true;
+    private List<RedisShard> strays; // null until discovered
+    private List<Future<List<RedisShard>>> discovering; // waiting for strays, while they are looked for
 
     public RedisTodoService(RedisOptions config) {
         this(Vertx.vertx(), config);
     }
 
     public RedisTodoService(Vertx vertx, RedisOptions config) {
+        this(vertx, Collections.singletonList(config), 1, DEFAULT_RING_POINTS);
+    }
+
+    public RedisTodoService(Vertx vertx, List<RedisOptions> endpoints, int shardCount, int ringPoints) {
+        this(vertx, endpoints, shardCount, ringPoints, false);
+    }
+
+    public RedisTodoService(Vertx vertx, List<RedisOptions> endpoints, int shardCount, int ringPoints,
+                            boolean pipelining) {
+        this(vertx, endpoints, shardCount, ringPoints, pipelining, DEFAULT_PIPELINE_PENDING);
+    }
+
+    /**
+     * @param maxPending commands a pipelined connection lets wait for replies before it refuses more
+     */
+    public RedisTodoService(Vertx vertx, List<RedisOptions> endpoints, int shardCount, int ringPoints,
+                            boolean pipelining, int maxPending) {
+        if (endpoints.isEmpty() || shardCount < 1) {
+            throw new IllegalArgumentException("Redis needs at least one endpoint and one shard");
+        }
+
         this.vertx = vertx;
-        this.config = config;
-        this.redis = RedisClient.create(vertx, config);
+        final Map<String, RedisCommands> commands = new HashMap<>();
+        for (RedisOptions options : endpoints) {
+            final RedisClient client = RedisClient.create(vertx, options);
+            clients.put(endpointOf(options), client);
+            commands.put(endpointOf(options),
+                    pipelining ? new PipelinedRedis(vertx, options, maxPending) : RedisCommands.of(client));
+        }
+        final List<String> keys = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            keys.add(RedisShard.keyOf(i, shardCount));
+        }
+        final Map<String, String> placement = place(keys, new ArrayList<>(clients.keySet()));
+        for (String key : keys) {
+            final String endpoint = placement.get(key);
+            shards.add(new RedisShard(endpoint, clients.get(endpoint), commands.get(endpoint), key));
+        }
+        this.ring = new ConsistentHashRing<>(keys, shards, ringPoints);
+        this.layout = "shards=" + shardCount + ",points=" + ringPoints
+                + ",endpoints=" + new TreeSet<>(clients.keySet());
+
+        Metrics metrics = Metrics.get(vertx);
+        this.commandDuration = metrics.histogram("todo_redis_command_duration_seconds",
+                "Round trip of Redis commands, from issue to reply.", "command");
+        this.commandErrors = metrics.counter("todo_redis_command_errors_total",
+                "Redis commands that failed.", "command");
+        this.deletions = new Deletions(vertx);
+    }
+
+    /**
+     * Purge the todos of a {@link #deleteAll()} {@code batchSize} at a time,
+     * with a pause of {@code pauseMillis} in between.
+     */
+    public RedisTodoService setPurge(int batchSize, long pauseMillis) {
+        this.purgeBatch = batchSize;
+        this.purgePause = Math.max(1, pauseMillis);
+        return this;
+    }
+
+    /**
+     * Whether {@code cursor} looks like one {@link #getPage} hands out;
+     * whether its shard exists is up to the instance.
+     */
+    public static boolean isCursor(String cursor) {
+        return CURSOR.matcher(cursor).matches();
+    }
+
+    public static String endpointOf(RedisOptions options) {
+        return options.getHost() + ":" + options.getPort();
+    }
+
+    /**
+     * Rendezvous hashing with bounded load: every shard goes to the endpoint
+     * that weighs highest for it among those still below their fair share,
+     * so the shards stay evenly spread and a new endpoint mostly takes over
+     * shards rather than reshuffling them.
+     */
+    private static Map<String, String> place(List<String> keys, List<String> endpoints) {
+        final int fairShare = (keys.size() + endpoints.size() - 1) / endpoints.size();
+        final Map<String, Integer> load = new HashMap<>();
+        final Map<String, String> placement = new HashMap<>();
+        for (String key : keys) {
+            String best = null;
+            long bestWeight = 0;
+            for (String endpoint : endpoints) {
+                final long weight = ConsistentHashRing.hash(key + "@" + endpoint);
+                if (load.getOrDefault(endpoint, 0) < fairShare
+                        && (best == null || Long.compareUnsigned(weight, bestWeight) > 0)) {
+                    best = endpoint;
+                    bestWeight = weight;
+                }
+            }
+            placement.put(key, best);
+            load.merge(best, 1, Integer::sum);
+        }
+        return placement;
+    }
+
+    private RedisShard owner(String todoId) {
+        return ring.owner(todoId);
+    }
+
+    private <T> Map<RedisShard, List<T>> byOwner(List<T> items, Function<T, String> idOf) {
+        final Map<RedisShard, List<T>> grouped = new LinkedHashMap<>();
+        for (T item : items) {
+            grouped.computeIfAbsent(owner(idOf.apply(item)), shard -> new ArrayList<>()).add(item);
+        }
+        return grouped;
+    }
+
+    // the shards, then the stray hashes a rebalance is still emptying
+    private List<RedisShard> sources() {
+        if (strays == null || strays.isEmpty()) {
+            return shards;
+        }
+        final List<RedisShard> sources = new ArrayList<>(shards);
+        sources.addAll(strays);
+        return sources;
+    }
+
+    // sources(), once the stray hashes are known; they are looked for at most once at a time
+    private Future<List<RedisShard>> allSources() {
+        if (!rebalancing || strays != null) {
+            return Future.succeededFuture(sources());
+        }
+        final Future<List<RedisShard>> result = Future.future();
+        if (discovering != null) {
+            discovering.add(result);
+            return result;
+        }
+        discovering = new ArrayList<>();
+        discovering.add(result);
+        discover(new ArrayList<>(clients.entrySet()), TODO_HASH, 0, new ArrayList<>()).setHandler(res -> {
+            final List<Future<List<RedisShard>>> waiting = discovering;
+            discovering = null;
+            if (res.succeeded() && strays == null) {
+                strays = straysOf(res.result());
+            }
+            for (Future<List<RedisShard>> waiter : waiting) {
+                if (res.succeeded()) {
+                    waiter.complete(sources());
+                } else {
+                    waiter.fail(res.cause());
+                }
+            }
+        });
+        return result;
+    }
+
+    private List<RedisShard> straysOf(List<RedisShard> hashes) {
+        return hashes.stream()
+                .filter(hash -> shards.stream().noneMatch(hash::sameAs))
+                .collect(Collectors.toList());
+    }
+
+    // times the command issued right after this call, up to its reply
+    private <T> Handler<AsyncResult<T>> timed(String command, Handler<AsyncResult<T>> handler) {
+        final long started = System.nanoTime();
+        return res -> {
+            commandDuration.labels(command).observeSince(started);
+            if (res.failed()) {
+                commandErrors.labels(command).inc();
+            }
+            handler.handle(res);
+        };
+    }
+
+    private static <T> Future<List<T>> concat(List<Future> parts) {
+        return CompositeFuture.all(parts).map(all -> {
+            final List<T> merged = new ArrayList<>();
+            for (int i = 0; i < all.size(); i++) {
+                merged.addAll(all.<List<T>>result(i));
+            }
+            return merged;
+        });
+    }
+
+    private Future<Boolean> put(String mode, List<Todo> todos) {
+        final List<Future> puts = new ArrayList<>();
+        byOwner(todos, todo -> String.valueOf(todo.getId()))
+                .forEach((shard, part) -> puts.add(put(shard, mode, part)));
+        return CompositeFuture.all(puts).map(all -> true);
+    }
+
+    // stores and indexes the todos in one script, so the indexes never lag the hash
+    private Future<Boolean> put(RedisShard shard, String mode, List<Todo> todos) {
+        Future<Boolean> result = Future.future();
+        List<String> args = new ArrayList<>(1 + todos.size() * 4);
+        args.add(mode);
+        for (Todo todo : todos) {
+            args.add(String.valueOf(todo.getId()));
+            args.add(TodoCodec.encode(todo));
+            args.add(todo.isCompleted() ? "1" : "0");
+            args.add(String.valueOf(todo.getOrder()));
+        }
+        RedisScripts.PUT_TODOS.run(shard.commands, shard.keys, args, timed("EVALSHA", res -> {
+            if (res.succeeded())
+                result.complete(true);
+            else
+                result.fail(res.cause());
+        }));
+        return result;
     }
 
     @Override
     public Future<Boolean> initData() {
-        return insert(new Todo(Math.abs(new java.util.Random().nextInt()),
-                "Something to do...", false, 1, "todo/ex"));
+        // nx: the sample is only written once and never clobbers a real todo
+        Todo sample = new Todo(SAMPLE_ID, "Something to do...", false, 1, "todo/ex");
+        return put("nx", Collections.singletonList(sample));
     }
 
     @Override
     public Future<Boolean> insert(Todo todo) {
-        Future<Boolean> result = Future.future();
-        final String encoded = Json.encodePrettily(todo);
-        redis.hset(Constants.REDIS_TODO_KEY, String.valueOf(todo.getId()),
-                encoded, res -> {
-                    if (res.succeeded())
-                        result.complete(true);
-                    else
-                        result.fail(res.cause());
-                });
-        return result;
+        return put("set", Collections.singletonList(todo));
+    }
+
+    @Override
+    public Future<Boolean> insertMany(List<Todo> todos) {
+        if (todos.isEmpty()) {
+            return Future.succeededFuture(true);
+        }
+
+        return put("set", todos);
     }
 
     @Override
     public Future<List<Todo>> getAll() {
+        return allSources().compose(this::getAll);
+    }
+
+    private Future<List<Todo>> getAll(List<RedisShard> sources) {
+        final boolean moving = rebalancing;
+        final List<Future> parts = sources.stream().map(this::values).collect(Collectors.toList());
+        return CompositeFuture.all(parts).map(all -> {
+            if (!moving) {
+                final List<Todo> todos = new ArrayList<>();
+                for (int i = 0; i < all.size(); i++) {
+                    todos.addAll(all.<List<Todo>>result(i));
+                }
+                return todos;
+            }
+
+            // a todo being moved can be in two hashes at once, the copy in its shard wins
+            final Map<Integer, Todo> todos = new LinkedHashMap<>();
+            for (int i = 0; i < all.size(); i++) {
+                final RedisShard shard = sources.get(i);
+                for (Todo todo : all.<List<Todo>>result(i)) {
+                    if (owner(String.valueOf(todo.getId())) == shard) {
+                        todos.put(todo.getId(), todo);
+                    } else {
+                        todos.putIfAbsent(todo.getId(), todo);
+                    }
+                }
+            }
+            return new ArrayList<>(todos.values());
+        });
+    }
+
+    private Future<List<Todo>> values(RedisShard shard) {
         Future<List<Todo>> result = Future.future();
-        redis.hvals(Constants.REDIS_TODO_KEY, res -> {
+        shard.commands.hvals(shard.key, timed("HVALS", res -> {
             if (res.succeeded()) {
                 result.complete(res.result()
                         .stream()
-                        .map(x -> new Todo((String) x))
+                        .map(x -> TodoCodec.decode((String) x))
                         .collect(Collectors.toList()));
             } else
                 result.fail(res.cause());
-        });
+        }));
         return result;
     }
 
+    /**
+     * Pages through the shards one after the other. With several shards the
+     * cursor is {@code shard:hscan-cursor}; with one it is the plain HSCAN
+     * cursor. The {@code COUNT} of HSCAN is only a hint, and a small hash
+     * comes back whole; what does not fit into the page is left for the
+     * next one, whose cursor then ends in {@code .skip}: the same HSCAN
+     * again, minus the todos already returned. Todos moved by a running
+     * rebalance may be missed or repeated.
+     */
     @Override
-    public Future<Optional<Todo>> getCertain(String todoID) {
-        Future<Optional<Todo>> result = Future.future();
-        redis.hget(Constants.REDIS_TODO_KEY, todoID, res -> {
-            if (res.succeeded()) {
-                result.complete(Optional.ofNullable(
-                        res.result() == null ? null : new Todo(res.result())));
-            } else
+    public Future<TodoPage> getPage(String cursor, int limit) {
+        int shard = 0;
+        String scanCursor = cursor == null ? SCAN_BEGIN : cursor;
+        int skip = 0;
+        if (cursor != null && !isCursor(cursor)) {
+            return Future.failedFuture(new IllegalArgumentException("Invalid cursor: " + cursor));
+        }
+        try {
+            if (cursor != null && shards.size() > 1) {
+                final int separator = cursor.indexOf(CURSOR_SEPARATOR);
+                shard = Integer.parseInt(cursor.substring(0, Math.max(separator, 0)));
+                if (shard < 0 || shard >= shards.size()) {
+                    return Future.failedFuture(new IllegalArgumentException("Invalid cursor: " + cursor));
+                }
+                scanCursor = cursor.substring(separator + 1);
+            } else if (scanCursor.contains(CURSOR_SEPARATOR)) {
+                return Future.failedFuture(new IllegalArgumentException("Invalid cursor: " + cursor));
+            }
+            final int dot = scanCursor.indexOf(SKIP_SEPARATOR);
+            if (dot >= 0) {
+                skip = Integer.parseInt(scanCursor.substring(dot + 1));
+                scanCursor = scanCursor.substring(0, dot);
+            }
+        } catch (NumberFormatException e) {
+            return Future.failedFuture(new IllegalArgumentException("Invalid cursor: " + cursor));
+        }
+        if (skip < 0) {
+            return Future.failedFuture(new IllegalArgumentException("Invalid cursor: " + cursor));
+        }
+
+        Future<TodoPage> result = Future.future();
+        pageFrom(shard, scanCursor, skip, limit, result);
+        return result;
+    }
+
+    private String cursorOf(int shard, String scanCursor, int skip) {
+        final String position = skip == 0 ? scanCursor : scanCursor + SKIP_SEPARATOR + skip;
+        return shards.size() == 1 ? position : shard + CURSOR_SEPARATOR + position;
+    }
+
+    private void pageFrom(int shard, String scanCursor, int skip, int limit, Future<TodoPage> result) {
+        scan(shards.get(shard), scanCursor, limit, timed("HSCAN", res -> {
+            if (res.failed()) {
                 result.fail(res.cause());
+                return;
+            }
+
+            final String next = res.result().getCursor();
+            final List<Todo> scanned = res.result().getTodos();
+            final List<Todo> todos = scanned.subList(Math.min(skip, scanned.size()), scanned.size());
+            if (todos.size() > limit) {
+                result.complete(new TodoPage(new ArrayList<>(todos.subList(0, limit)),
+                        cursorOf(shard, scanCursor, skip + limit)));
+            } else if (next != null) {
+                result.complete(new TodoPage(todos, cursorOf(shard, next, 0)));
+            } else if (shard + 1 == shards.size()) {
+                result.complete(new TodoPage(todos, null));
+            } else if (todos.isEmpty()) {
+                pageFrom(shard + 1, SCAN_BEGIN, 0, limit, result);
+            } else {
+                result.complete(new TodoPage(todos, cursorOf(shard + 1, SCAN_BEGIN, 0)));
+            }
+        }));
+    }
+
+    // one HSCAN page of the shard, with a null cursor once the scan is complete
+    private void scan(RedisShard shard, String cursor, int count, Handler<AsyncResult<TodoPage>> handler) {
+        shard.redis.hscan(shard.key, cursor, new ScanOptions().setCount(count), res -> {
+            if (res.succeeded()) {
+                // reply: [next cursor, [field1, value1, field2, value2, ...]]
+                String next = res.result().getString(0);
+                JsonArray entries = res.result().getJsonArray(1);
+                List<Todo> todos = new ArrayList<>(entries.size() / 2);
+                for (int i = 1; i < entries.size(); i += 2) {
+                    todos.add(TodoCodec.decode(entries.getString(i)));
+                }
+                handler.handle(Future.succeededFuture(
+                        new TodoPage(todos, SCAN_BEGIN.equals(next) ? null : next)));
+            } else {
+                handler.handle(Future.failedFuture(res.cause()));
+            }
         });
+    }
+
+    /**
+     * Every shard answers the query for its own todos, and the best
+     * {@code limit} of those answers are the answer overall.
+     */
+    @Override
+    public Future<List<Todo>> query(TodoQuery query) {
+        final List<Future> parts = new ArrayList<>(shards.size());
+        for (RedisShard shard : shards) {
+            if (query.getCompleted() == null && query.getSort() == TodoQuery.Sort.NONE) {
+                Future<TodoPage> page = Future.future();
+                scan(shard, SCAN_BEGIN, query.getLimit(), timed("HSCAN", page.completer()));
+                parts.add(page.map(TodoPage::getTodos));
+            } else {
+                parts.add(query(shard, query));
+            }
+        }
+        return RedisTodoService.<Todo>concat(parts).map(query::apply);
+    }
+
+    private Future<List<Todo>> query(RedisShard shard, TodoQuery query) {
+        Future<List<Todo>> result = Future.future();
+        List<String> args = Arrays.asList(
+                query.getCompleted() == null ? "" : query.getCompleted() ? "1" : "0",
+                query.getSort() == TodoQuery.Sort.ORDER ? "asc"
+                        : query.getSort() == TodoQuery.Sort.ORDER_DESC ? "desc" : "",
+                String.valueOf(query.getLimit()));
+        RedisScripts.QUERY_TODOS.run(shard.commands, shard.queryKeys, args, timed("EVALSHA", res -> {
+            if (res.failed()) {
+                result.fail(res.cause());
+            } else if (res.result().getLong(0) == 0) {
+                // todos stored before the indexes are still being indexed by migrateStorage
+                values(shard).map(query::apply).setHandler(result.completer());
+            } else {
+                JsonArray reply = res.result();
+                List<Todo> todos = new ArrayList<>(reply.size() - 1);
+                for (int i = 1; i < reply.size(); i++) {
+                    todos.add(TodoCodec.decode(reply.getString(i)));
+                }
+                result.complete(todos);
+            }
+        }));
+        return result;
+    }
+
+    @Override
+    public Future<Optional<Todo>> getCertain(String todoID) {
+        final RedisShard owner = owner(todoID);
+        return get(owner, todoID).compose(value -> {
+            if (value != null || !rebalancing) {
+                return Future.succeededFuture(value);
+            }
+            return locate(todoID, owner).map(found -> found == null ? null : found.value);
+        }).map(value -> Optional.ofNullable(value == null ? null : TodoCodec.decode(value)));
+    }
+
+    private Future<String> get(RedisShard shard, String todoId) {
+        Future<String> result = Future.future();
+        shard.commands.hget(shard.key, todoId, timed("HGET", result.completer()));
         return result;
     }
 
+    private static final class Located {
+        final RedisShard shard;
+        final String todoId;
+        final String value;
+
+        Located(RedisShard shard, String todoId, String value) {
+            this.shard = shard;
+            this.todoId = todoId;
+            this.value = value;
+        }
+    }
+
+    // where a todo not yet moved to its shard still is, or null
+    private Future<Located> locate(String todoId, RedisShard owner) {
+        return allSources().compose(sources -> {
+            final List<RedisShard> others = sources.stream()
+                    .filter(shard -> shard != owner)
+                    .collect(Collectors.toList());
+            final List<Future> lookups = others.stream()
+                    .map(shard -> get(shard, todoId))
+                    .collect(Collectors.toList());
+            return CompositeFuture.all(lookups).map(all -> {
+                for (int i = 0; i < all.size(); i++) {
+                    if (all.result(i) != null) {
+                        return new Located(others.get(i), todoId, all.result(i));
+                    }
+                }
+                return null;
+            });
+        });
+    }
+
+    // nx, then only delete the old copy if it is unchanged: concurrent writes win either way
+    private Future<Long> move(List<Located> todos, RedisShard to) {
+        final RedisShard from = todos.get(0).shard;
+        final List<String> expected = new ArrayList<>(todos.size() * 2);
+        for (Located todo : todos) {
+            expected.add(todo.todoId);
+            expected.add(todo.value);
+        }
+        return put(to, "nx", todos.stream().map(todo -> TodoCodec.decode(todo.value)).collect(Collectors.toList()))
+                .compose(stored -> {
+                    Future<Long> deleted = Future.future();
+                    RedisScripts.DELETE_IF_UNCHANGED.run(from.commands, from.keys, expected, timed("EVALSHA", res -> {
+                        if (res.succeeded())
+                            deleted.complete(res.result().getLong(0));
+                        else
+                            deleted.fail(res.cause());
+                    }));
+                    return deleted;
+                });
+    }
+
     @Override
     public Future<Todo> update(String todoId, Todo newTodo) {
-        return this.getCertain(todoId).compose(old -> {
-            if (old.isPresent()) {
-                Todo fnTodo = old.get().merge(newTodo);
-                return this.insert(fnTodo)
-                        .map(r -> r ? fnTodo : null);
-            } else {
-                return Future.succeededFuture();
+        final RedisShard owner = owner(todoId);
+        return merge(owner, todoId, newTodo).compose(merged -> {
+            if (merged != null || !rebalancing) {
+                return Future.succeededFuture(merged);
             }
+            // not moved yet: move it now, so the merge happens where the todo belongs
+            return locate(todoId, owner).compose(found -> found == null
+                    ? Future.<Todo>succeededFuture(null)
+                    : move(Collections.singletonList(found), owner).compose(moved -> merge(owner, todoId, newTodo)));
         });
     }
 
+    private Future<Todo> merge(RedisShard shard, String todoId, Todo newTodo) {
+        Future<Todo> result = Future.future();
+        RedisScripts.MERGE_TODO.run(shard.commands,
+                shard.keys,
+                Arrays.asList(todoId, RedisScripts.patchOf(newTodo)),
+                timed("EVALSHA", res -> {
+                    if (res.succeeded()) {
+                        String merged = RedisScripts.mergedOf(res.result());
+                        result.complete(merged == null ? null : TodoCodec.decode(merged));
+                    } else
+                        result.fail(res.cause());
+                }));
+        return result;
+    }
+
+    @Override
+    public Future<List<Todo>> updateMany(List<Todo> patches) {
+        if (patches.isEmpty()) {
+            return Future.succeededFuture(new ArrayList<>());
+        }
+
+        List<Future> updates = patches.stream()
+                .map(patch -> update(String.valueOf(patch.getId()), patch))
+                .collect(Collectors.toList());
+        return CompositeFuture.all(updates).map(all -> all.<Todo>list()
+                .stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+    }
+
     @Override
     public Future<Boolean> delete(String todoId) {
+        return deleteMany(Collections.singletonList(todoId));
+    }
+
+    @Override
+    public Future<Boolean> deleteMany(List<String> todoIds) {
+        if (todoIds.isEmpty()) {
+            return Future.succeededFuture(true);
+        }
+
+        if (!rebalancing) {
+            return deleteMany(byOwner(todoIds, id -> id));
+        }
+        // a todo may be anywhere until it is moved
+        return allSources().compose(sources -> {
+            final Map<RedisShard, List<String>> everywhere = new LinkedHashMap<>();
+            sources.forEach(shard -> everywhere.put(shard, todoIds));
+            return deleteMany(everywhere);
+        });
+    }
+
+    private Future<Boolean> deleteMany(Map<RedisShard, List<String>> byShard) {
+        final List<Future> deletes = new ArrayList<>();
+        byShard.forEach((shard, ids) -> deletes.add(delete(shard, ids)));
         Future<Boolean> result = Future.future();
-        redis.hdel(Constants.REDIS_TODO_KEY, todoId, res -> {
+        CompositeFuture.all(deletes).setHandler(res -> result.complete(res.succeeded()));
+        return result;
+    }
+
+    private Future<Void> delete(RedisShard shard, List<String> todoIds) {
+        Future<Void> result = Future.future();
+        RedisScripts.DELETE_TODOS.run(shard.commands, shard.keys, todoIds, timed("EVALSHA", res -> {
             if (res.succeeded())
-                result.complete(true);
+                result.complete();
             else
-                result.complete(false);
-        });
+                result.fail(res.cause());
+        }));
         return result;
     }
 
+    /**
+     * Renames every hash and its indexes out of the way in one script per
+     * hash, so the todos are gone at once however many there are, then
+     * purges the renamed keys one HSCAN page at a time with a pause in
+     * between. A {@code DEL} of a hash with millions of fields would block
+     * the server for seconds.
+     * <p>
+     * The indexed markers stay: empty indexes are exactly right for an
+     * empty hash. Trash left behind by a process that stopped half-way is
+     * purged by {@link #purgeTrash()}.
+     */
     @Override
-    public Future<Boolean> deleteAll() {
-        Future<Boolean> result = Future.future();
-        redis.del(Constants.REDIS_TODO_KEY, res -> {
-            if (res.succeeded())
-                result.complete(true);
-            else
-                result.complete(false);
+    public Future<Deletion> deleteAll() {
+        return allSources().compose(this::deleteAll);
+    }
+
+    private Future<Deletion> deleteAll(List<RedisShard> sources) {
+        final Deletions.Tracker deletion = deletions.start();
+        final List<RedisShard> trash = new ArrayList<>();
+        final List<Future<Long>> renames = new ArrayList<>();
+        for (RedisShard shard : sources) {
+            final RedisShard bin = new RedisShard(shard.endpoint, shard.redis, shard.commands,
+                    shard.key + Constants.REDIS_TRASH_INFIX + deletion.id());
+            final List<String> keys = new ArrayList<>(shard.keys);
+            keys.addAll(bin.keys);
+            Future<Long> renamed = Future.future();
+            RedisScripts.TRASH_TODOS.run(shard.redis, keys, Collections.emptyList(), timed("EVALSHA", res -> {
+                if (res.succeeded()) {
+                    trash.add(bin);
+                    renamed.complete(res.result().getLong(0));
+                } else {
+                    renamed.fail(res.cause());
+                }
+            }));
+            renames.add(renamed);
+        }
+
+        Future<Deletion> result = Future.future();
+        settled(renames).setHandler(v -> {
+            long total = 0;
+            Throwable failure = null;
+            for (Future<Long> renamed : renames) {
+                if (renamed.succeeded()) {
+                    total += renamed.result();
+                } else {
+                    failure = renamed.cause();
+                }
+            }
+            deletion.total(total);
+
+            // the hashes that were renamed are purged either way, only not reported on
+            final boolean reported = failure == null && total > 0;
+            if (failure != null) {
+                result.fail(failure);
+                deletion.fail(failure);
+            } else {
+                result.complete(reported ? deletion.snapshot() : deletion.finish());
+            }
+            purge(trash, 0, reported ? deletion : null, 0L).setHandler(res -> {
+                if (!reported) {
+                    return;
+                }
+                if (res.succeeded()) {
+                    deletion.finish();
+                } else {
+                    deletion.fail(res.cause());
+                }
+            });
+        });
+        return result;
+    }
+
+    // completes once every future has, whether it succeeded or not
+    private static Future<Void> settled(List<? extends Future<?>> futures) {
+        final Future<Void> result = Future.future();
+        final int[] pending = {futures.size()};
+        if (futures.isEmpty()) {
+            result.complete();
+        }
+        for (Future<?> future : futures) {
+            future.setHandler(res -> {
+                if (--pending[0] == 0) {
+                    result.complete();
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Purge the trash that {@link #deleteAll()} calls left behind on any
+     * endpoint, when the process stopped before they were done.
+     *
+     * @return the number of todos purged
+     */
+    public Future<Long> purgeTrash() {
+        return discover(new ArrayList<>(clients.entrySet()), TRASH_HASH, 0, new ArrayList<>())
+                .compose(trash -> purge(trash, 0, null, 0L));
+    }
+
+    private Future<Long> purge(List<RedisShard> trash, int next, Deletions.Tracker deletion, long purged) {
+        if (next == trash.size()) {
+            return Future.succeededFuture(purged);
+        }
+        final Future<Long> emptied = Future.future();
+        purgeFrom(trash.get(next), SCAN_BEGIN, deletion, 0L, emptied);
+        return emptied.compose(n -> purge(trash, next + 1, deletion, purged + n));
+    }
+
+    private void purgeFrom(RedisShard bin, String cursor, Deletions.Tracker deletion, long purged,
+                           Future<Long> result) {
+        bin.redis.hscan(bin.key, cursor, new ScanOptions().setCount(purgeBatch), timed("HSCAN", res -> {
+            if (res.failed()) {
+                result.fail(res.cause());
+                return;
+            }
+
+            final String next = res.result().getString(0);
+            final JsonArray entries = res.result().getJsonArray(1);
+            final List<String> ids = new ArrayList<>(entries.size() / 2);
+            for (int i = 0; i < entries.size(); i += 2) {
+                ids.add(entries.getString(i));
+            }
+            final Future<Long> deleted = Future.future();
+            if (ids.isEmpty()) {
+                deleted.complete(0L);
+            } else {
+                RedisScripts.DELETE_TODOS.run(bin.redis, bin.keys, ids, timed("EVALSHA", r -> {
+                    if (r.succeeded())
+                        deleted.complete(r.result().getLong(0));
+                    else
+                        deleted.fail(r.cause());
+                }));
+            }
+
+            deleted.setHandler(r -> {
+                if (r.failed()) {
+                    result.fail(r.cause());
+                    return;
+                }
+                if (deletion != null) {
+                    deletion.deleted(r.result());
+                }
+                final long soFar = purged + r.result();
+                if (SCAN_BEGIN.equals(next)) {
+                    // the indexes only still hold entries that had no todo in the hash
+                    bin.redis.delMany(bin.keys, timed("DEL", d -> {
+                        if (d.succeeded())
+                            result.complete(soFar);
+                        else
+                            result.fail(d.cause());
+                    }));
+                } else {
+                    vertx.setTimer(purgePause, id -> purgeFrom(bin, next, deletion, soFar, result));
+                }
+            });
+        }));
+    }
+
+    /**
+     * Rewrite every value still stored as legacy JSON in the {@link TodoCodec}
+     * format, one HSCAN page at a time with a pause in between so regular
+     * traffic keeps priority. A value changed by a concurrent write is left
+     * alone, that write has already stored the new format.
+     * <p>
+     * Until one full pass has also indexed every todo of a shard,
+     * {@link #query} falls back to filtering all of that shard's todos; the
+     * pass ends by setting the shard's indexed marker, which for the
+     * unsharded hash is {@link Constants#REDIS_TODO_INDEXED_KEY}.
+     *
+     * @return the number of values rewritten
+     */
+    public Future<Long> migrateStorage(int batchSize, long pauseMillis) {
+        return migrateShards(0, batchSize, pauseMillis, 0L);
+    }
+
+    private Future<Long> migrateShards(int shard, int batchSize, long pauseMillis, long migrated) {
+        if (shard == shards.size()) {
+            return Future.succeededFuture(migrated);
+        }
+        return migrateStorage(shards.get(shard), batchSize, pauseMillis)
+                .compose(n -> migrateShards(shard + 1, batchSize, pauseMillis, migrated + n));
+    }
+
+    private Future<Long> migrateStorage(RedisShard shard, int batchSize, long pauseMillis) {
+        Future<Long> result = Future.future();
+        shard.redis.exists(shard.indexedKey(), res -> {
+            if (res.failed()) {
+                result.fail(res.cause());
+                return;
+            }
+
+            final boolean indexed = res.result() != 0;
+            Future<Long> migrated = Future.future();
+            migrateFrom(shard, SCAN_BEGIN, batchSize, Math.max(1, pauseMillis), indexed, 0L, migrated);
+            migrated.setHandler(m -> {
+                if (m.failed() || indexed) {
+                    result.completer().handle(m);
+                    return;
+                }
+                shard.redis.set(shard.indexedKey(), "1", r -> {
+                    if (r.succeeded())
+                        result.complete(m.result());
+                    else
+                        result.fail(r.cause());
+                });
+            });
+        });
+        return result;
+    }
+
+    private void migrateFrom(RedisShard shard, String cursor, int batchSize, long pauseMillis, boolean indexed,
+                             long migrated, Future<Long> result) {
+        shard.redis.hscan(shard.key, cursor, new ScanOptions().setCount(batchSize), res -> {
+            if (res.failed()) {
+                result.fail(res.cause());
+                return;
+            }
+
+            String next = res.result().getString(0);
+            JsonArray entries = res.result().getJsonArray(1);
+            List<String> triples = new ArrayList<>();
+            List<String> ids = new ArrayList<>(entries.size() / 2);
+            for (int i = 1; i < entries.size(); i += 2) {
+                ids.add(entries.getString(i - 1));
+                String value = entries.getString(i);
+                if (TodoCodec.isLegacy(value)) {
+                    triples.add(entries.getString(i - 1));
+                    triples.add(value);
+                    triples.add(TodoCodec.encode(TodoCodec.decode(value)));
+                }
+            }
+
+            Future<Long> replaced = Future.future();
+            if (!indexed && !ids.isEmpty()) {
+                // indexing reads the current value, so a write racing the scan is indexed either way
+                Future<JsonArray> indexing = Future.future();
+                RedisScripts.INDEX_TODOS.run(shard.redis, shard.keys, ids, indexing.completer());
+                indexing.setHandler(r -> {
+                    if (r.failed()) {
+                        replaced.fail(r.cause());
+                    } else {
+                        replace(shard, triples, replaced);
+                    }
+                });
+            } else {
+                replace(shard, triples, replaced);
+            }
+
+            replaced.setHandler(r -> {
+                if (r.failed()) {
+                    result.fail(r.cause());
+                } else if (SCAN_BEGIN.equals(next)) {
+                    result.complete(migrated + r.result());
+                } else {
+                    vertx.setTimer(pauseMillis, id ->
+                            migrateFrom(shard, next, batchSize, pauseMillis, indexed, migrated + r.result(), result));
+                }
+            });
+        });
+    }
+
+    private void replace(RedisShard shard, List<String> triples, Future<Long> replaced) {
+        if (triples.isEmpty()) {
+            replaced.complete(0L);
+            return;
+        }
+
+        RedisScripts.REPLACE_IF_UNCHANGED.run(shard.redis,
+                Collections.singletonList(shard.key), triples,
+                r -> {
+                    if (r.succeeded())
+                        replaced.complete(r.result().getLong(0));
+                    else
+                        replaced.fail(r.cause());
+                });
+    }
+
+    /**
+     * Move every todo that is not in its shard there: after the number of
+     * shards or the endpoints changed, or when moving off an unsharded
+     * deployment. Todo hashes are found by {@code SCAN} on every endpoint,
+     * plus the {@code former} ones being retired, and emptied one HSCAN page
+     * at a time with a pause in between.
+     * <p>
+     * Nothing happens if every endpoint already records this layout and
+     * there are no former endpoints. Until that check or a pass succeeds,
+     * reads and writes that miss a todo in its shard also look everywhere
+     * else, so call this once at startup whatever the configuration.
+     *
+     * @return the number of todos moved
+     */
+    public Future<Long> rebalance(List<RedisOptions> former, int batchSize, long pauseMillis) {
+        final Map<String, RedisClient> endpoints = new LinkedHashMap<>(clients);
+        final List<RedisClient> retired = new ArrayList<>();
+        for (RedisOptions options : former) {
+            if (!endpoints.containsKey(endpointOf(options))) {
+                RedisClient client = RedisClient.create(vertx, options);
+                endpoints.put(endpointOf(options), client);
+                retired.add(client);
+            }
+        }
+
+        final Future<Long> result = Future.future();
+        balanced().compose(balanced -> {
+            if (balanced && retired.isEmpty()) {
+                return Future.succeededFuture(0L);
+            }
+            rebalancing = true;
+            return discover(new ArrayList<>(endpoints.entrySet()), TODO_HASH, 0, new ArrayList<>())
+                    .compose(sources -> {
+                        strays = straysOf(sources);
+                        return moveAll(sources, 0, batchSize, Math.max(1, pauseMillis), 0L);
+                    })
+                    .compose(moved -> saveLayout(retired).map(v -> moved));
+        }).setHandler(res -> {
+            // after a failure todos may still be anywhere, so keep looking for them
+            if (res.succeeded()) {
+                rebalancing = false;
+                strays = Collections.emptyList();
+                retired.forEach(client -> client.close(closed -> {}));
+            }
+            result.completer().handle(res);
         });
         return result;
     }
-}
\ No newline at end of file
+
+    private Future<Boolean> balanced() {
+        final List<Future> layouts = new ArrayList<>();
+        for (RedisClient client : clients.values()) {
+            Future<String> stored = Future.future();
+            client.get(Constants.REDIS_TODO_LAYOUT_KEY, stored.completer());
+            layouts.add(stored);
+        }
+        return CompositeFuture.all(layouts).map(all -> all.list().stream().allMatch(layout::equals));
+    }
+
+    // retired endpoints forget theirs, in case they ever rejoin
+    private Future<Void> saveLayout(List<RedisClient> retired) {
+        final List<Future> saved = new ArrayList<>();
+        for (RedisClient client : clients.values()) {
+            Future<Void> set = Future.future();
+            client.set(Constants.REDIS_TODO_LAYOUT_KEY, layout, set.completer());
+            saved.add(set);
+        }
+        for (RedisClient client : retired) {
+            Future<Long> deleted = Future.future();
+            client.del(Constants.REDIS_TODO_LAYOUT_KEY, deleted.completer());
+            saved.add(deleted);
+        }
+        return CompositeFuture.all(saved).map(all -> null);
+    }
+
+    // every hash named like pattern on the endpoints, one endpoint at a time
+    private Future<List<RedisShard>> discover(List<Map.Entry<String, RedisClient>> endpoints, Pattern pattern,
+                                              int next, List<RedisShard> found) {
+        if (next == endpoints.size()) {
+            return Future.succeededFuture(found);
+        }
+        final Map.Entry<String, RedisClient> endpoint = endpoints.get(next);
+        final Future<List<String>> keys = Future.future();
+        scanKeys(endpoint.getValue(), pattern, SCAN_BEGIN, new ArrayList<>(), keys);
+        return keys.compose(names -> {
+            for (String key : names) {
+                final RedisShard source = new RedisShard(endpoint.getKey(), endpoint.getValue(),
+                        RedisCommands.of(endpoint.getValue()), key);
+                found.add(shards.stream().filter(source::sameAs).findFirst().orElse(source));
+            }
+            return discover(endpoints, pattern, next + 1, found);
+        });
+    }
+
+    /**
+     * The highest todo id in any todo hash on {@code endpoints}, whatever
+     * shard layout wrote it, or 0 if there is none. Read one SCAN and HSCAN
+     * page at a time, so no server is blocked for long on a large hash.
+     */
+    public static Future<Integer> maxId(List<RedisClient> endpoints) {
+        Future<Integer> max = Future.succeededFuture(0);
+        for (RedisClient client : endpoints) {
+            max = max.compose(found -> {
+                final Future<List<String>> keys = Future.future();
+                scanKeys(client, TODO_HASH, SCAN_BEGIN, new ArrayList<>(), keys);
+                return keys.compose(names -> maxId(client, names, 0, found));
+            });
+        }
+        return max;
+    }
+
+    private static Future<Integer> maxId(RedisClient client, List<String> keys, int next, int max) {
+        if (next == keys.size()) {
+            return Future.succeededFuture(max);
+        }
+        final Future<Integer> found = Future.future();
+        maxIdFrom(client, keys.get(next), SCAN_BEGIN, max, found);
+        return found.compose(m -> maxId(client, keys, next + 1, m));
+    }
+
+    private static void maxIdFrom(RedisClient client, String key, String cursor, int max, Future<Integer> result) {
+        client.hscan(key, cursor, new ScanOptions().setCount(1000), res -> {
+            if (res.failed()) {
+                result.fail(res.cause());
+                return;
+            }
+            int found = max;
+            final JsonArray entries = res.result().getJsonArray(1);
+            for (int i = 0; i < entries.size(); i += 2) {
+                try {
+                    found = Math.max(found, Integer.parseInt(entries.getString(i)));
+                } catch (NumberFormatException e) {
+                    // not a todo id, nothing an allocator could collide with
+                }
+            }
+            final String next = res.result().getString(0);
+            if (SCAN_BEGIN.equals(next)) {
+                result.complete(found);
+            } else {
+                maxIdFrom(client, key, next, found, result);
+            }
+        });
+    }
+
+    private static void scanKeys(RedisClient client, Pattern pattern, String cursor, List<String> found,
+                                 Future<List<String>> result) {
+        client.scan(cursor, new ScanOptions().setMatch(Constants.REDIS_TODO_KEY + "*").setCount(1000), res -> {
+            if (res.failed()) {
+                result.fail(res.cause());
+                return;
+            }
+            for (Object key : res.result().getJsonArray(1)) {
+                if (pattern.matcher((String) key).matches()) {
+                    found.add((String) key);
+                }
+            }
+            final String next = res.result().getString(0);
+            if (SCAN_BEGIN.equals(next)) {
+                result.complete(found);
+            } else {
+                scanKeys(client, pattern, next, found, result);
+            }
+        });
+    }
+
+    private Future<Long> moveAll(List<RedisShard> sources, int next, int batchSize, long pauseMillis, long moved) {
+        if (next == sources.size()) {
+            return Future.succeededFuture(moved);
+        }
+        final RedisShard source = sources.get(next);
+        if (shards.size() == 1 && source == shards.get(0)) {
+            // the only shard owns everything
+            return moveAll(sources, next + 1, batchSize, pauseMillis, moved);
+        }
+        final Future<Long> emptied = Future.future();
+        moveFrom(source, SCAN_BEGIN, batchSize, pauseMillis, 0L, emptied);
+        // an emptied hash may leave its indexed marker behind, which stays true: moves index what they store
+        return emptied.compose(n -> moveAll(sources, next + 1, batchSize, pauseMillis, moved + n));
+    }
+
+    private void moveFrom(RedisShard source, String cursor, int batchSize, long pauseMillis,
+                          long moved, Future<Long> result) {
+        source.redis.hscan(source.key, cursor, new ScanOptions().setCount(batchSize), res -> {
+            if (res.failed()) {
+                result.fail(res.cause());
+                return;
+            }
+
+            final String next = res.result().getString(0);
+            final JsonArray entries = res.result().getJsonArray(1);
+            final Map<RedisShard, List<Located>> misplaced = new LinkedHashMap<>();
+            for (int i = 1; i < entries.size(); i += 2) {
+                final String todoId = entries.getString(i - 1);
+                final RedisShard owner = owner(todoId);
+                if (owner != source) {
+                    misplaced.computeIfAbsent(owner, shard -> new ArrayList<>())
+                            .add(new Located(source, todoId, entries.getString(i)));
+                }
+            }
+
+            final List<Future> moves = new ArrayList<>();
+            misplaced.forEach((owner, todos) -> moves.add(move(todos, owner)));
+            CompositeFuture.all(moves).setHandler(r -> {
+                if (r.failed()) {
+                    result.fail(r.cause());
+                    return;
+                }
+                long total = moved;
+                for (int i = 0; i < r.result().size(); i++) {
+                    total += r.result().<Long>result(i);
+                }
+                if (SCAN_BEGIN.equals(next)) {
+                    result.complete(total);
+                } else {
+                    final long soFar = total;
+                    vertx.setTimer(pauseMillis, id -> moveFrom(source, next, batchSize, pauseMillis, soFar, result));
+                }
+            });
+        });
+    }
+}
@@ -0,0 +1,180 @@
+package com.madao.service;
+
+import com.madao.entity.Deletion;
+import com.madao.entity.EncodedResponse;
+import com.madao.entity.Todo;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the encoded response bodies of {@code GET /todos} and
+ * {@code GET /todos/:todoId} so repeated reads neither hit the backend nor
+ * re-encode anything.
+ * <p>
+ * Like {@link CachingTodoService} every instance belongs to one verticle and
+ * is only touched from its event loop. A write drops the item and the list
+ * before and after it reaches the backend, and the drops are shared with the
+ * other instances over {@link CachingTodoService#INVALIDATE_ADDRESS}.
+ */
+public class ResponseCachingTodoService extends DelegatingTodoService {
+
+    private final Vertx vertx;
+    private final String origin = UUID.randomUUID().toString();
+    private final Map<String, EncodedResponse> items;
+    private EncodedResponse all;
+
+    // bumped on every write; a read that started in an older epoch must not fill the cache
+    private long epoch;
+
+    public ResponseCachingTodoService(Vertx vertx, TodoService delegate, JsonObject config) {
+        this(vertx, delegate, config.getInteger("response_cache.max_entries", 10_000));
+    }
+
+    public ResponseCachingTodoService(Vertx vertx, TodoService delegate, int maxEntries) {
+        super(delegate);
+        this.vertx = vertx;
+        this.items = new LinkedHashMap<String, EncodedResponse>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, EncodedResponse> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        vertx.eventBus().<String>consumer(CachingTodoService.INVALIDATE_ADDRESS, message -> {
+            if (!origin.equals(message.headers().get(CachingTodoService.HEADER_ORIGIN))) {
+                evict(message.body());
+            }
+        });
+    }
+
+    private void evict(String key) {
+        epoch++;
+        all = null;
+        if (CachingTodoService.ALL_KEYS.equals(key)) {
+            items.clear();
+        } else {
+            items.remove(key);
+        }
+    }
+
+    private void invalidate(String key) {
+        evict(key);
+        vertx.eventBus().publish(CachingTodoService.INVALIDATE_ADDRESS, key,
+                new DeliveryOptions().addHeader(CachingTodoService.HEADER_ORIGIN, origin));
+    }
+
+    private <T> Future<T> invalidating(List<String> keys, Future<T> write) {
+        return write.map(res -> {
+            keys.forEach(this::invalidate);
+            return res;
+        });
+    }
+
+    private static List<String> keysOf(List<Todo> todos) {
+        return todos.stream()
+                .map(todo -> String.valueOf(todo.getId()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The encoded body of the full listing, as {@code GET /todos} sends it.
+     */
+    public Future<EncodedResponse> getAllEncoded() {
+        if (all != null) {
+            return Future.succeededFuture(all);
+        }
+
+        final long started = epoch;
+        return delegate.getAll().map(todos -> {
+            if (todos == null) {
+                return null;
+            }
+            final EncodedResponse encoded = EncodedResponse.of(todos);
+            if (started == epoch) {
+                all = encoded;
+            }
+            return encoded;
+        });
+    }
+
+    /**
+     * The encoded body of one todo, as {@code GET /todos/:todoId} sends it.
+     */
+    public Future<Optional<EncodedResponse>> getCertainEncoded(String todoID) {
+        final String key = CachingTodoService.key(todoID);
+        final EncodedResponse cached = items.get(key);
+        if (cached != null) {
+            return Future.succeededFuture(Optional.of(cached));
+        }
+
+        final long started = epoch;
+        return delegate.getCertain(todoID).map(res -> res.map(todo -> {
+            final EncodedResponse encoded = EncodedResponse.of(todo);
+            if (started == epoch) {
+                items.put(key, encoded);
+            }
+            return encoded;
+        }));
+    }
+
+    @Override
+    public Future<Boolean> insert(Todo todo) {
+        final List<String> keys = Collections.singletonList(String.valueOf(todo.getId()));
+        keys.forEach(this::invalidate);
+        return invalidating(keys, delegate.insert(todo));
+    }
+
+    @Override
+    public Future<Boolean> insertMany(List<Todo> todos) {
+        final List<String> keys = keysOf(todos);
+        keys.forEach(this::invalidate);
+        return invalidating(keys, delegate.insertMany(todos));
+    }
+
+    @Override
+    public Future<Todo> update(String todoId, Todo newTodo) {
+        final List<String> keys = Collections.singletonList(CachingTodoService.key(todoId));
+        keys.forEach(this::invalidate);
+        return invalidating(keys, delegate.update(todoId, newTodo));
+    }
+
+    @Override
+    public Future<List<Todo>> updateMany(List<Todo> patches) {
+        final List<String> keys = keysOf(patches);
+        keys.forEach(this::invalidate);
+        return invalidating(keys, delegate.updateMany(patches));
+    }
+
+    @Override
+    public Future<Boolean> delete(String todoId) {
+        final List<String> keys = Collections.singletonList(CachingTodoService.key(todoId));
+        keys.forEach(this::invalidate);
+        return invalidating(keys, delegate.delete(todoId));
+    }
+
+    @Override
+    public Future<Boolean> deleteMany(List<String> todoIds) {
+        final List<String> keys = todoIds.stream()
+                .map(CachingTodoService::key)
+                .collect(Collectors.toList());
+        keys.forEach(this::invalidate);
+        return invalidating(keys, delegate.deleteMany(todoIds));
+    }
+
+    @Override
+    public Future<Deletion> deleteAll() {
+        final List<String> keys = Collections.singletonList(CachingTodoService.ALL_KEYS);
+        keys.forEach(this::invalidate);
+        return invalidating(keys, delegate.deleteAll());
+    }
+}
@@ -0,0 +1,87 @@
+package com.madao.service;
+
+import com.madao.util.GradientLimiter;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.jdbc.spi.DataSourceProvider;
+
+import javax.sql.DataSource;
+
+/**
+ * The connection pool of every verticle of this Vert.x instance, one per
+ * {@code datasource_name}, built the way {@link JDBCClient#createShared}
+ * builds its own (C3P0 unless {@code provider_class} says otherwise).
+ * <p>
+ * {@link JDBCClient} keeps its pool to itself, while the streaming reads
+ * of {@link JdbcTodoService} need plain JDBC connections; sharing the
+ * {@link DataSource} keeps both on one pool of {@code max_pool_size}.
+ * The pool comes with one {@link GradientLimiter} for all its users, so
+ * together they stay within what the pool and the database can take.
+ */
+public final class SharedDataSource implements Shareable {
+
+    private static final String SHARED_MAP = "todo.jdbc.datasources";
+
+    private final JsonObject config;
+    private DataSource dataSource;
+    private GradientLimiter limiter;
+
+    private SharedDataSource(JsonObject config) {
+        this.config = config;
+    }
+
+    /**
+     * The pool for {@code config}, created on first use.
+     */
+    public static DataSource get(Vertx vertx, JsonObject config) {
+        return shared(config, vertx).dataSource();
+    }
+
+    /**
+     * The limiter on connections of the pool for {@code config}, created on
+     * first use from the {@code jdbc.limit.*} settings. The limit tops out at
+     * {@code jdbc.limit.max}, by default the pool's {@code max_pool_size}.
+     */
+    public static GradientLimiter limiter(Vertx vertx, JsonObject config) {
+        return shared(config, vertx).limiter(vertx);
+    }
+
+    private static SharedDataSource shared(JsonObject config, Vertx vertx) {
+        final String name = config.getString("datasource_name", JDBCClient.DEFAULT_DS_NAME);
+        final SharedDataSource shared = new SharedDataSource(config.copy());
+        final SharedDataSource existing = (SharedDataSource) vertx.sharedData()
+                .getLocalMap(SHARED_MAP)
+                .putIfAbsent(name, shared);
+        return existing != null ? existing : shared;
+    }
+
+    // verticles start on different event loops, and only one of them may build the pool
+    private synchronized DataSource dataSource() {
+        if (dataSource == null) {
+            final String providerClass = config.getString("provider_class", JDBCClient.DEFAULT_PROVIDER_CLASS);
+            try {
+                final DataSourceProvider provider = (DataSourceProvider) Class.forName(providerClass).newInstance();
+                dataSource = provider.getDataSource(config);
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to create the " + providerClass + " pool", e);
+            }
+        }
+        return dataSource;
+    }
+
+    private synchronized GradientLimiter limiter(Vertx vertx) {
+        if (limiter == null) {
+            // the JDBC client's C3P0 pool holds at most 15 connections unless told otherwise
+            final int maxLimit = config.getInteger("jdbc.limit.max", config.getInteger("max_pool_size", 15));
+            limiter = new GradientLimiter(vertx,
+                    config.getInteger("jdbc.limit.initial", maxLimit),
+                    config.getInteger("jdbc.limit.min", 1),
+                    maxLimit,
+                    config.getInteger("jdbc.limit.max_queue", 1000),
+                    config.getLong("jdbc.limit.queue_timeout", 1000L));
+        }
+        return limiter;
+    }
+}
@@ -0,0 +1,151 @@
+package com.madao.service;
+
+import com.madao.entity.Deletion;
+import com.madao.entity.Todo;
+import com.madao.entity.TodoQuery;
+import com.madao.metrics.Counter;
+import com.madao.metrics.Family;
+import com.madao.metrics.Metrics;
+import io.vertx.core.Future;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical concurrent reads: while a {@link #getCertain(String)},
+ * {@link #getAll()} or {@link #query(TodoQuery)} is in flight, the same call
+ * joins its waiter list instead of going to the backend again, and every
+ * waiter completes with the one result. This keeps a cache-miss stampede
+ * after a deploy or a {@code deleteAll} down to a single backend call per key.
+ * <p>
+ * A Vert.x future takes only one handler, so each caller still gets a future
+ * of its own; the todos and lists in them are shared and must not be
+ * modified. A write forgets the calls in flight that it may affect, both
+ * when it starts and when it completes, so a read that starts after the
+ * write never joins a call that started before it.
+ * <p>
+ * Every instance is owned by one verticle and only touched from its event
+ * loop, so no locking is needed.
+ */
+public class SingleFlightTodoService extends DelegatingTodoService {
+
+    private static final String ALL = "*";
+
+    private final Map<String, List<Future<Optional<Todo>>>> todoFlights = new HashMap<>();
+    // getAll under ALL, queries under their JSON
+    private final Map<String, List<Future<List<Todo>>>> listFlights = new HashMap<>();
+
+    private final Family<Counter> coalesced; // null unless metrics are enabled
+
+    public SingleFlightTodoService(TodoService delegate, Metrics metrics) {
+        super(delegate);
+        this.coalesced = metrics == null ? null : metrics.counter("todo_service_coalesced_total",
+                "Reads that joined an identical backend call already in flight.", "operation");
+    }
+
+    private <T> Future<T> join(String operation, Map<String, List<Future<T>>> flights, String key,
+                               Supplier<Future<T>> call) {
+        final Future<T> result = Future.future();
+        final List<Future<T>> waiters = flights.get(key);
+        if (waiters != null) {
+            waiters.add(result);
+            if (coalesced != null) {
+                coalesced.labels(operation).inc();
+            }
+            return result;
+        }
+
+        final List<Future<T>> flight = new ArrayList<>();
+        flight.add(result);
+        flights.put(key, flight);
+        call.get().setHandler(res -> {
+            // a write may already have replaced this flight with a newer one
+            flights.remove(key, flight);
+            flight.forEach(waiter -> waiter.completer().handle(res));
+        });
+        return result;
+    }
+
+    private void forget(String todoId) {
+        todoFlights.remove(CachingTodoService.key(todoId));
+        listFlights.clear();
+    }
+
+    private void forgetAll() {
+        todoFlights.clear();
+        listFlights.clear();
+    }
+
+    // forgets before and after: a read started while the write was in flight may return the old value
+    private <T> Future<T> write(Runnable forget, Supplier<Future<T>> call) {
+        forget.run();
+        final Future<T> result = Future.future();
+        call.get().setHandler(res -> {
+            forget.run();
+            result.completer().handle(res);
+        });
+        return result;
+    }
+
+    @Override
+    public Future<Optional<Todo>> getCertain(String todoID) {
+        return join("getCertain", todoFlights, CachingTodoService.key(todoID),
+                () -> delegate.getCertain(todoID));
+    }
+
+    @Override
+    public Future<List<Todo>> getAll() {
+        return join("getAll", listFlights, ALL, delegate::getAll);
+    }
+
+    @Override
+    public Future<List<Todo>> query(TodoQuery query) {
+        return join("query", listFlights, query.toJson().encode(), () -> delegate.query(query));
+    }
+
+    @Override
+    public Future<Boolean> initData() {
+        return write(this::forgetAll, delegate::initData);
+    }
+
+    @Override
+    public Future<Boolean> insert(Todo todo) {
+        return write(() -> forget(String.valueOf(todo.getId())), () -> delegate.insert(todo));
+    }
+
+    @Override
+    public Future<Boolean> insertMany(List<Todo> todos) {
+        return write(() -> todos.forEach(todo -> forget(String.valueOf(todo.getId()))),
+                () -> delegate.insertMany(todos));
+    }
+
+    @Override
+    public Future<Todo> update(String todoId, Todo newTodo) {
+        return write(() -> forget(todoId), () -> delegate.update(todoId, newTodo));
+    }
+
+    @Override
+    public Future<List<Todo>> updateMany(List<Todo> patches) {
+        return write(() -> patches.forEach(patch -> forget(String.valueOf(patch.getId()))),
+                () -> delegate.updateMany(patches));
+    }
+
+    @Override
+    public Future<Boolean> delete(String todoId) {
+        return write(() -> forget(todoId), () -> delegate.delete(todoId));
+    }
+
+    @Override
+    public Future<Boolean> deleteMany(List<String> todoIds) {
+        return write(() -> todoIds.forEach(this::forget), () -> delegate.deleteMany(todoIds));
+    }
+
+    @Override
+    public Future<Deletion> deleteAll() {
+        return write(this::forgetAll, delegate::deleteAll);
+    }
+}
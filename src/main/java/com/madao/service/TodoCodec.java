@@ -0,0 +1,162 @@
+package com.madao.service;
+
+import com.madao.entity.Todo;
+import com.madao.entity.TodoJson;
+
+/**
+ * Storage format for todos kept in the Redis hash.
+ * <p>
+ * Version 1 is the JSON written by {@code Json.encodePrettily}. Version 2 is a
+ * positional record without keys or whitespace:
+ * <pre>
+ *   \u0002 id ',' flags ',' order ',' titleBytes ',' title url
+ * </pre>
+ * {@code flags} records which fields are present (and the completed bit),
+ * {@code titleBytes} is the UTF-8 length of the title, and the url is the
+ * rest of the value. Lengths are in UTF-8 bytes because {@link RedisScripts}
+ * read and write the same layout from Lua, which only sees bytes.
+ * <p>
+ * {@link #decode(String)} accepts both versions; {@link #encode(Todo)} always
+ * writes version 2.
+ */
+public final class TodoCodec {
+
+    public static final char V2 = '\u0002';
+
+    static final int FLAG_COMPLETED = 1;
+    static final int FLAG_COMPLETED_TRUE = 2;
+    static final int FLAG_ORDER = 4;
+    static final int FLAG_TITLE = 8;
+    static final int FLAG_URL = 16;
+
+    private TodoCodec() {}
+
+    public static boolean isLegacy(String value) {
+        return value.isEmpty() || value.charAt(0) != V2;
+    }
+
+    public static String encode(Todo todo) {
+        final String title = todo.getTitle() == null ? "" : todo.getTitle();
+        final String url = todo.getUrl() == null ? "" : todo.getUrl();
+
+        int flags = 0;
+        if (todo.hasCompleted()) {
+            flags |= FLAG_COMPLETED;
+            if (todo.isCompleted()) {
+                flags |= FLAG_COMPLETED_TRUE;
+            }
+        }
+        if (todo.hasOrder()) {
+            flags |= FLAG_ORDER;
+        }
+        if (todo.getTitle() != null) {
+            flags |= FLAG_TITLE;
+        }
+        if (todo.getUrl() != null) {
+            flags |= FLAG_URL;
+        }
+
+        return new StringBuilder(24 + title.length() + url.length())
+                .append(V2)
+                .append(todo.getId()).append(',')
+                .append(flags).append(',')
+                .append(todo.hasOrder() ? todo.getOrder() : 0).append(',')
+                .append(utf8Length(title)).append(',')
+                .append(title)
+                .append(url)
+                .toString();
+    }
+
+    public static Todo decode(String value) {
+        if (isLegacy(value)) {
+            return TodoJson.decode(value);
+        }
+
+        final Reader in = new Reader(value);
+        final int id = in.readInt();
+        final int flags = in.readInt();
+        final int order = in.readInt();
+        final int titleEnd = in.skipUtf8(in.readInt());
+
+        final Todo todo = new Todo();
+        todo.setId(id);
+        if ((flags & FLAG_COMPLETED) != 0) {
+            todo.setCompleted((flags & FLAG_COMPLETED_TRUE) != 0);
+        }
+        if ((flags & FLAG_ORDER) != 0) {
+            todo.setOrder(order);
+        }
+        if ((flags & FLAG_TITLE) != 0) {
+            todo.setTitle(value.substring(in.start, titleEnd));
+        }
+        if ((flags & FLAG_URL) != 0) {
+            todo.setUrl(value.substring(titleEnd));
+        }
+        return todo;
+    }
+
+    // the byte count String.getBytes(UTF_8) would produce, without the copy
+    static int utf8Length(String s) {
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final int size = utf8Length(s, i);
+            bytes += size;
+            if (size == 4) {
+                i++; // the low surrogate is already counted
+            }
+        }
+        return bytes;
+    }
+
+    // UTF-8 size of the code point starting at i; unpaired surrogates become '?'
+    private static int utf8Length(String s, int i) {
+        final char c = s.charAt(i);
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800) {
+            return 2;
+        } else if (Character.isHighSurrogate(c)) {
+            return i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1)) ? 4 : 1;
+        } else if (Character.isLowSurrogate(c)) {
+            return 1;
+        }
+        return 3;
+    }
+
+    private static final class Reader {
+        private final String value;
+        int start = 1;
+
+        Reader(String value) {
+            this.value = value;
+        }
+
+        int readInt() {
+            int i = start;
+            final boolean negative = value.charAt(i) == '-';
+            if (negative) {
+                i++;
+            }
+            int n = 0;
+            for (char c; (c = value.charAt(i)) != ','; i++) {
+                if (c < '0' || c > '9') {
+                    throw new IllegalArgumentException("Malformed todo record: " + value);
+                }
+                n = n * 10 + (c - '0');
+            }
+            start = i + 1;
+            return negative ? -n : n;
+        }
+
+        // index just past `bytes` UTF-8 bytes counted from `start`
+        int skipUtf8(int bytes) {
+            int i = start;
+            while (bytes > 0) {
+                final int size = utf8Length(value, i);
+                bytes -= size;
+                i += size == 4 ? 2 : 1;
+            }
+            return i;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.madao.service;
+
+import com.madao.entity.Todo;
+import com.madao.entity.TodoPage;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.streams.ReadStream;
+
+import java.util.List;
+
+/**
+ * Every todo of a {@link TodoService} as a {@link ReadStream} of batches,
+ * one {@link TodoService#getPage} per batch. The next page is asked for
+ * only once the last one was handed over and while the stream is not
+ * paused, so between batches nothing of the backend is held: no
+ * connection, no worker thread, no permit. Each page goes through whatever
+ * the service decorates it with, and a JDBC page is one short query.
+ * <p>
+ * Reading starts once a handler is set; setting it to null stops it. Not
+ * thread safe, it belongs to the context that uses it.
+ */
+public final class TodoPageStream implements ReadStream<List<Todo>> {
+
+    private final TodoService service;
+    private final int batchSize;
+    private Handler<List<Todo>> handler;
+    private Handler<Void> endHandler;
+    private Handler<Throwable> exceptionHandler;
+    private String cursor;
+    private boolean paused;
+    private boolean fetching;
+    private boolean looping; // set while fetch() asks for pages, so one answered at once does not recurse
+    private boolean ended;
+
+    public TodoPageStream(TodoService service, int batchSize) {
+        this.service = service;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public ReadStream<List<Todo>> handler(Handler<List<Todo>> handler) {
+        this.handler = handler;
+        fetch();
+        return this;
+    }
+
+    @Override
+    public ReadStream<List<Todo>> pause() {
+        paused = true;
+        return this;
+    }
+
+    @Override
+    public ReadStream<List<Todo>> resume() {
+        paused = false;
+        fetch();
+        return this;
+    }
+
+    @Override
+    public ReadStream<List<Todo>> endHandler(Handler<Void> endHandler) {
+        this.endHandler = endHandler;
+        return this;
+    }
+
+    @Override
+    public ReadStream<List<Todo>> exceptionHandler(Handler<Throwable> handler) {
+        this.exceptionHandler = handler;
+        return this;
+    }
+
+    private void fetch() {
+        if (looping) {
+            return;
+        }
+        looping = true;
+        try {
+            while (handler != null && !paused && !fetching && !ended) {
+                fetching = true;
+                service.getPage(cursor, batchSize).setHandler(this::received);
+            }
+        } finally {
+            looping = false;
+        }
+    }
+
+    private void received(AsyncResult<TodoPage> res) {
+        fetching = false;
+        if (handler == null) {
+            return;
+        }
+        if (res.failed()) {
+            ended = true;
+            if (exceptionHandler != null) {
+                exceptionHandler.handle(res.cause());
+            }
+            return;
+        }
+        final TodoPage page = res.result();
+        cursor = page.getCursor();
+        ended = !page.hasMore();
+        if (!page.getTodos().isEmpty()) {
+            handler.handle(page.getTodos());
+        }
+        if (ended) {
+            if (endHandler != null) {
+                endHandler.handle(null);
+            }
+        } else {
+            fetch();
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.madao.service;
 
+import com.madao.entity.Deletion;
 import com.madao.entity.Todo;
+import com.madao.entity.TodoPage;
+import com.madao.entity.TodoQuery;
 import io.vertx.core.Future;
 
 import java.util.List;
@@ -11,13 +14,43 @@ public interface TodoService {
 
     Future<Boolean> insert(Todo todo);
 
+    Future<Boolean> insertMany(List<Todo> todos);
+
     Future<List<Todo>> getAll();
 
+    /**
+     * Fetch at most {@code limit} todos starting at {@code cursor}
+     * (null for the first page). The returned cursor is backend specific.
+     */
+    Future<TodoPage> getPage(String cursor, int limit);
+
+    /**
+     * The todos matching the query's {@code completed} filter in its sort
+     * order, at most {@code limit} of them.
+     */
+    Future<List<Todo>> query(TodoQuery query);
+
     Future<Optional<Todo>> getCertain(String todoID);
 
     Future<Todo> update(String todoId, Todo newTodo);
 
+    /**
+     * Merge every patch into the todo with the same id. Patches for ids that
+     * do not exist are skipped; the todos that were updated are returned.
+     */
+    Future<List<Todo>> updateMany(List<Todo> patches);
+
     Future<Boolean> delete(String todoId);
 
-    Future<Boolean> deleteAll();
+    Future<Boolean> deleteMany(List<String> todoIds);
+
+    /**
+     * Delete every todo. The future completes once the deletion is under
+     * way; large lists are reclaimed in the background in batches, and the
+     * returned {@link Deletion} is the handle to poll through
+     * {@link Deletions}. Either way no todo that existed before is read
+     * once the future completes: Redis hides the whole list at once, SQL
+     * reads skip the rows of older generations until they are purged.
+     */
+    Future<Deletion> deleteAll();
 }
@@ -0,0 +1,442 @@
+package com.madao.service;
+
+import com.madao.entity.Deletion;
+import com.madao.entity.Todo;
+import com.madao.entity.TodoPage;
+import com.madao.entity.TodoQuery;
+import com.madao.metrics.Counter;
+import com.madao.metrics.Gauge;
+import com.madao.metrics.Metrics;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Acknowledges writes as soon as they are applied to an in-memory image and
+ * flushes them to the wrapped backend in timed batches.
+ * <p>
+ * Writes to the same todo are coalesced while they wait, so a burst of
+ * PATCHes costs the backend one UPDATE. The number of todos waiting is
+ * bounded; past the bound writes fail with {@link RejectedExecutionException}
+ * (answered with 429) instead of growing the heap. A flush that fails is put
+ * back and retried, up to {@code write_behind.max_attempts} times.
+ * <p>
+ * Reads overlay the image on the backend, so this instance reads its own
+ * writes. Other instances see them once flushed. Like the caches, every
+ * instance belongs to one verticle and is only touched from its event loop.
+ * Two instances would each patch their own stale copy of a todo and flush
+ * over each other, so there must only ever be one in front of a backend.
+ */
+public class WriteBehindTodoService extends DelegatingTodoService {
+
+    private static final class Pending {
+        Todo todo;            // latest value, null once deleted
+        boolean deleteFirst;  // a backend copy has to go before todo is written
+        boolean create;       // todo may not exist in the backend yet: INSERT, not UPDATE
+        int attempts;
+        final long since;     // when the oldest unflushed write to this todo happened
+
+        Pending(long since) {
+            this.since = since;
+        }
+    }
+
+    private final Vertx vertx;
+    private final int maxPending;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long timerId;
+
+    // insertion order is the order todos first became dirty, so the head is the oldest
+    private final LinkedHashMap<Integer, Pending> dirty = new LinkedHashMap<>();
+    private final Map<Integer, Pending> flushing = new LinkedHashMap<>();
+    private Future<Void> flushed = Future.succeededFuture();
+
+    private final Gauge queued;
+    private final Gauge lag;
+    private final Counter dropped;
+
+    public WriteBehindTodoService(Vertx vertx, TodoService delegate, JsonObject config) {
+        super(delegate);
+        this.vertx = vertx;
+        this.maxPending = config.getInteger("write_behind.max_pending", 10_000);
+        this.batchSize = config.getInteger("write_behind.batch_size", 500);
+        this.maxAttempts = config.getInteger("write_behind.max_attempts", 5);
+
+        final Metrics metrics = Metrics.get(vertx);
+        final String instance = Integer.toHexString(System.identityHashCode(this));
+        this.queued = metrics.gauge("todo_write_behind_pending",
+                "Todos with writes not yet flushed to the backend.", "instance").labels(instance);
+        this.lag = metrics.gauge("todo_write_behind_lag_milliseconds",
+                "Age of the oldest write not yet flushed to the backend.", "instance").labels(instance);
+        this.dropped = metrics.counter("todo_write_behind_dropped_total",
+                "Writes given up on after write_behind.max_attempts failed flushes.").labels();
+
+        this.timerId = vertx.setPeriodic(config.getLong("write_behind.interval", 100L), id -> flush());
+    }
+
+    private Pending pending(int id) {
+        Pending pending = dirty.get(id);
+        if (pending == null) {
+            if (dirty.size() >= maxPending) {
+                throw new RejectedExecutionException("Write-behind queue is full");
+            }
+            pending = new Pending(System.nanoTime());
+            dirty.put(id, pending);
+        }
+        return pending;
+    }
+
+    // the newest unflushed state of a todo, or null if there is none
+    private Pending latest(int id) {
+        final Pending pending = dirty.get(id);
+        return pending != null ? pending : flushing.get(id);
+    }
+
+    private static int parseId(String todoId) {
+        return Integer.parseInt(todoId);
+    }
+
+    private void applyInsert(Todo todo) {
+        final Pending pending = pending(todo.getId());
+        pending.todo = new Todo(todo);
+        pending.create = true;
+    }
+
+    private void applyDelete(int id) {
+        final Pending pending = pending(id);
+        pending.todo = null;
+        pending.create = false;
+        pending.deleteFirst = true;
+    }
+
+    @Override
+    public Future<Boolean> insert(Todo todo) {
+        try {
+            applyInsert(todo);
+            return Future.succeededFuture(true);
+        } catch (RejectedExecutionException e) {
+            return Future.failedFuture(e);
+        }
+    }
+
+    @Override
+    public Future<Boolean> insertMany(List<Todo> todos) {
+        final long added = todos.stream().filter(todo -> !dirty.containsKey(todo.getId())).count();
+        if (dirty.size() + added > maxPending) {
+            return Future.failedFuture(new RejectedExecutionException("Write-behind queue is full"));
+        }
+        todos.forEach(this::applyInsert);
+        return Future.succeededFuture(true);
+    }
+
+    @Override
+    public Future<Optional<Todo>> getCertain(String todoID) {
+        final Pending pending;
+        try {
+            pending = latest(parseId(todoID));
+        } catch (NumberFormatException e) {
+            return delegate.getCertain(todoID);
+        }
+        if (pending != null) {
+            return Future.succeededFuture(Optional.ofNullable(pending.todo).map(Todo::new));
+        }
+        return delegate.getCertain(todoID);
+    }
+
+    @Override
+    public Future<List<Todo>> getAll() {
+        return delegate.getAll().map(todos -> {
+            final Map<Integer, Todo> merged = new LinkedHashMap<>();
+            todos.forEach(todo -> merged.put(todo.getId(), todo));
+            overlay(merged, flushing);
+            overlay(merged, dirty);
+            return new ArrayList<>(merged.values());
+        });
+    }
+
+    private static void overlay(Map<Integer, Todo> todos, Map<Integer, Pending> pending) {
+        pending.forEach((id, p) -> {
+            if (p.todo == null) {
+                todos.remove(id);
+            } else {
+                todos.put(id, new Todo(p.todo));
+            }
+        });
+    }
+
+    /**
+     * Pages come from the backend with the todos on them overlaid; todos
+     * created here show up in pages once they are flushed.
+     */
+    @Override
+    public Future<TodoPage> getPage(String cursor, int limit) {
+        return delegate.getPage(cursor, limit).map(page -> {
+            final List<Todo> todos = new ArrayList<>(page.getTodos().size());
+            for (Todo todo : page.getTodos()) {
+                final Pending pending = latest(todo.getId());
+                if (pending == null) {
+                    todos.add(todo);
+                } else if (pending.todo != null) {
+                    todos.add(new Todo(pending.todo));
+                }
+            }
+            return new TodoPage(todos, page.getCursor());
+        });
+    }
+
+    /**
+     * Every pending todo can push at most one backend result out of the
+     * answer, so asking the backend for that many more is enough to rerun
+     * the query over the overlay.
+     */
+    @Override
+    public Future<List<Todo>> query(TodoQuery query) {
+        final int pending = dirty.size() + flushing.size();
+        if (pending == 0) {
+            return delegate.query(query);
+        }
+
+        return delegate.query(query.withLimit(query.getLimit() + pending)).map(todos -> {
+            final Map<Integer, Todo> merged = new LinkedHashMap<>();
+            todos.forEach(todo -> merged.put(todo.getId(), todo));
+            overlay(merged, flushing);
+            overlay(merged, dirty);
+            return query.apply(merged.values());
+        });
+    }
+
+    @Override
+    public Future<Todo> update(String todoId, Todo newTodo) {
+        final int id;
+        try {
+            id = parseId(todoId);
+        } catch (NumberFormatException e) {
+            return Future.succeededFuture(null);
+        }
+
+        if (latest(id) != null) {
+            return tryUpdate(id, null, newTodo);
+        }
+        // another write may land in the image while the backend is read, applyUpdate prefers it
+        return delegate.getCertain(todoId).compose(current -> tryUpdate(id, current.orElse(null), newTodo));
+    }
+
+    private Future<Todo> tryUpdate(int id, Todo base, Todo patch) {
+        try {
+            return Future.succeededFuture(applyUpdate(id, base, patch));
+        } catch (RejectedExecutionException e) {
+            return Future.failedFuture(e);
+        }
+    }
+
+    // merge into the image; base is the backend value, used when the image has none
+    private Todo applyUpdate(int id, Todo base, Todo patch) {
+        final Pending previous = latest(id);
+        final Todo current = previous != null ? previous.todo : base;
+        if (current == null) {
+            return null;
+        }
+
+        // if previous is being flushed it is not copied: the flush writes it, or requeue folds it back in
+        final Pending pending = pending(id);
+        pending.todo = current.merge(patch);
+        return new Todo(pending.todo);
+    }
+
+    @Override
+    public Future<List<Todo>> updateMany(List<Todo> patches) {
+        if (patches.isEmpty()) {
+            return Future.succeededFuture(new ArrayList<>());
+        }
+
+        List<Future> updates = patches.stream()
+                .map(patch -> update(String.valueOf(patch.getId()), patch))
+                .collect(Collectors.toList());
+        return CompositeFuture.all(updates).map(all -> all.<Todo>list()
+                .stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public Future<Boolean> delete(String todoId) {
+        try {
+            applyDelete(parseId(todoId));
+            return Future.succeededFuture(true);
+        } catch (NumberFormatException e) {
+            return Future.succeededFuture(true);
+        } catch (RejectedExecutionException e) {
+            return Future.failedFuture(e);
+        }
+    }
+
+    @Override
+    public Future<Boolean> deleteMany(List<String> todoIds) {
+        final List<Integer> ids = new ArrayList<>(todoIds.size());
+        for (String todoId : todoIds) {
+            try {
+                ids.add(parseId(todoId));
+            } catch (NumberFormatException ignored) {
+                // cannot name a stored todo
+            }
+        }
+        final long added = ids.stream().filter(id -> !dirty.containsKey(id)).count();
+        if (dirty.size() + added > maxPending) {
+            return Future.failedFuture(new RejectedExecutionException("Write-behind queue is full"));
+        }
+        ids.forEach(this::applyDelete);
+        return Future.succeededFuture(true);
+    }
+
+    /**
+     * Drops every pending write and clears the backend once the flush in
+     * progress (if any) is done, so nothing older can be written afterwards.
+     */
+    @Override
+    public Future<Deletion> deleteAll() {
+        dirty.clear();
+        updateGauges();
+        final Future<Void> previous = flushed;
+        final Future<Deletion> result = Future.future();
+        final Future<Void> next = Future.future();
+        flushed = next;
+        previous.setHandler(ignored -> delegate.deleteAll().setHandler(res -> {
+            next.complete();
+            result.completer().handle(res);
+        }));
+        return result;
+    }
+
+    public int pending() {
+        return dirty.size() + flushing.size();
+    }
+
+    /**
+     * How long the oldest unflushed write has been waiting, in milliseconds.
+     */
+    public long flushLagMillis() {
+        long oldest = Long.MAX_VALUE;
+        final Iterator<Pending> head = dirty.values().iterator();
+        if (head.hasNext()) {
+            oldest = head.next().since;
+        }
+        for (Pending pending : flushing.values()) {
+            oldest = Math.min(oldest, pending.since);
+        }
+        return oldest == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest);
+    }
+
+    private void updateGauges() {
+        queued.set(pending());
+        lag.set(flushLagMillis());
+    }
+
+    /**
+     * Write the oldest {@code write_behind.batch_size} dirty todos to the
+     * backend: deletes first, then inserts, then updates. Does nothing while
+     * the previous flush is still running.
+     */
+    private Future<Void> flush() {
+        updateGauges();
+        if (!flushed.isComplete() || dirty.isEmpty()) {
+            return flushed;
+        }
+
+        final List<String> deletes = new ArrayList<>();
+        final List<Todo> inserts = new ArrayList<>();
+        final List<Todo> updates = new ArrayList<>();
+        final Iterator<Map.Entry<Integer, Pending>> it = dirty.entrySet().iterator();
+        while (it.hasNext() && flushing.size() < batchSize) {
+            final Map.Entry<Integer, Pending> entry = it.next();
+            final Pending pending = entry.getValue();
+            it.remove();
+            flushing.put(entry.getKey(), pending);
+
+            if (pending.deleteFirst) {
+                deletes.add(String.valueOf(entry.getKey()));
+            }
+            if (pending.todo != null) {
+                (pending.create ? inserts : updates).add(pending.todo);
+            }
+        }
+
+        final Future<Void> done = Future.future();
+        flushed = done;
+        (deletes.isEmpty() ? Future.succeededFuture(true) : delegate.deleteMany(deletes))
+                .compose(v -> inserts.isEmpty() ? Future.succeededFuture(true) : delegate.insertMany(inserts))
+                .compose(v -> updates.isEmpty()
+                        ? Future.succeededFuture(new ArrayList<Todo>()) : delegate.updateMany(updates))
+                .setHandler(res -> {
+                    if (res.failed()) {
+                        System.err.println("[Error] Write-behind flush failed, will retry");
+                        res.cause().printStackTrace();
+                        requeue();
+                    }
+                    flushing.clear();
+                    updateGauges();
+                    done.complete();
+                });
+        return done;
+    }
+
+    // fold a failed batch back into the image, under any newer write to the same todo
+    private void requeue() {
+        final LinkedHashMap<Integer, Pending> retry = new LinkedHashMap<>();
+        flushing.forEach((id, failed) -> {
+            if (++failed.attempts >= maxAttempts) {
+                // the write was acknowledged, so what is lost has to be recoverable from the log
+                System.err.println("[Error] Giving up on write-behind of todo " + id + ", dropped "
+                        + (failed.todo == null ? "its delete" : failed.todo.toJson().encode()));
+                dropped.inc();
+                return;
+            }
+            final Pending newer = dirty.remove(id);
+            if (newer != null) {
+                newer.deleteFirst |= failed.deleteFirst;
+                newer.create |= failed.create && newer.todo != null;
+                newer.attempts = failed.attempts;
+                retry.put(id, newer);
+            } else {
+                retry.put(id, failed);
+            }
+        });
+        // failed writes are older than anything queued since, keep them at the head
+        retry.putAll(dirty);
+        dirty.clear();
+        dirty.putAll(retry);
+    }
+
+    /**
+     * Stop the timer and flush until nothing is left, for verticle stop.
+     */
+    public Future<Void> drain() {
+        vertx.cancelTimer(timerId);
+        final Future<Void> result = Future.future();
+        drainFrom(result);
+        return result;
+    }
+
+    private void drainFrom(Future<Void> result) {
+        flushed.setHandler(ignored -> {
+            if (dirty.isEmpty()) {
+                result.complete();
+            } else {
+                flush();
+                drainFrom(result);
+            }
+        });
+    }
+}
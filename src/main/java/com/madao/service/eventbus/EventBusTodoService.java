@@ -0,0 +1,172 @@
+package com.madao.service.eventbus;
+
+import com.madao.entity.Deletion;
+import com.madao.entity.Todo;
+import com.madao.entity.TodoPage;
+import com.madao.entity.TodoQuery;
+import com.madao.service.CircuitOpenException;
+import com.madao.service.TodoService;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Client side of a {@link TodoService} served over the event bus by a
+ * {@link TodoServiceHandler}, so the HTTP verticles and the persistence
+ * verticles can be deployed, and scaled, separately.
+ * <p>
+ * Requests follow the service proxy convention of naming the operation in
+ * the {@value #HEADER_ACTION} header. Todos travel as themselves through
+ * {@link TodoMessageCodec} and {@link TodoListMessageCodec} rather than as
+ * JSON. A backend that refused a write because its queue is full replies
+ * with {@link #FAILURE_REJECTED}, which comes back out as a
+ * {@link RejectedExecutionException} just like from a local service; one
+ * whose circuit breaker is open replies with {@link #FAILURE_UNAVAILABLE}
+ * and comes back out as a {@link CircuitOpenException}; an argument the
+ * backend refused, such as a foreign cursor, replies with
+ * {@link #FAILURE_INVALID} and comes back as an
+ * {@link IllegalArgumentException}.
+ */
+public class EventBusTodoService implements TodoService {
+
+    public static final String DEFAULT_ADDRESS = "todo.service";
+
+    static final String HEADER_ACTION = "action";
+    static final String HEADER_ID = "id";
+    static final String HEADER_CURSOR = "cursor";
+    static final String HEADER_LIMIT = "limit";
+
+    static final int FAILURE_INVALID = 400;
+    static final int FAILURE_REJECTED = 429;
+    static final int FAILURE_UNAVAILABLE = 503;
+    static final int FAILURE_SERVICE = 500;
+
+    private final Vertx vertx;
+    private final String address;
+    private final long timeout;
+
+    public EventBusTodoService(Vertx vertx, JsonObject config) {
+        this(vertx, config.getString("service.address", DEFAULT_ADDRESS),
+                config.getLong("service.timeout", DeliveryOptions.DEFAULT_TIMEOUT));
+    }
+
+    public EventBusTodoService(Vertx vertx, String address, long timeout) {
+        this.vertx = vertx;
+        this.address = address;
+        this.timeout = timeout;
+        TodoMessageCodec.register(vertx);
+    }
+
+    private DeliveryOptions options(String action) {
+        return new DeliveryOptions()
+                .setSendTimeout(timeout)
+                .addHeader(HEADER_ACTION, action);
+    }
+
+    private <T> Future<Message<T>> send(Object body, DeliveryOptions options) {
+        final Future<Message<T>> result = Future.future();
+        vertx.eventBus().<T>send(address, body, options, res -> {
+            if (res.succeeded()) {
+                result.complete(res.result());
+            } else if (res.cause() instanceof ReplyException
+                    && ((ReplyException) res.cause()).failureCode() == FAILURE_REJECTED) {
+                result.fail(new RejectedExecutionException(res.cause().getMessage()));
+            } else if (res.cause() instanceof ReplyException
+                    && ((ReplyException) res.cause()).failureCode() == FAILURE_UNAVAILABLE) {
+                result.fail(new CircuitOpenException(Long.parseLong(res.cause().getMessage())));
+            } else if (res.cause() instanceof ReplyException
+                    && ((ReplyException) res.cause()).failureCode() == FAILURE_INVALID) {
+                result.fail(new IllegalArgumentException(res.cause().getMessage()));
+            } else {
+                result.fail(res.cause());
+            }
+        });
+        return result;
+    }
+
+    private <T> Future<T> request(Object body, DeliveryOptions options) {
+        return this.<T>send(body, options).map(Message::body);
+    }
+
+    /**
+     * The highest id the backend holds, for a {@code LocalIdAllocator} on
+     * this side of the bus. Fails while the backend is still loading.
+     */
+    public Future<Integer> maxId() {
+        return request(null, options("maxId"));
+    }
+
+    @Override
+    public Future<Boolean> initData() {
+        return request(null, options("initData"));
+    }
+
+    @Override
+    public Future<Boolean> insert(Todo todo) {
+        return request(todo, options("insert"));
+    }
+
+    @Override
+    public Future<Boolean> insertMany(List<Todo> todos) {
+        return request(todos, options("insertMany").setCodecName(TodoListMessageCodec.NAME));
+    }
+
+    @Override
+    public Future<List<Todo>> getAll() {
+        return request(null, options("getAll"));
+    }
+
+    @Override
+    public Future<TodoPage> getPage(String cursor, int limit) {
+        final DeliveryOptions options = options("getPage")
+                .addHeader(HEADER_LIMIT, String.valueOf(limit));
+        if (cursor != null) {
+            options.addHeader(HEADER_CURSOR, cursor);
+        }
+        return this.<List<Todo>>send(null, options).map(reply ->
+                new TodoPage(reply.body(), reply.headers().get(HEADER_CURSOR)));
+    }
+
+    @Override
+    public Future<List<Todo>> query(TodoQuery query) {
+        return request(query.toJson(), options("query"));
+    }
+
+    @Override
+    public Future<Optional<Todo>> getCertain(String todoID) {
+        return this.<Todo>request(todoID, options("getCertain")).map(Optional::ofNullable);
+    }
+
+    @Override
+    public Future<Todo> update(String todoId, Todo newTodo) {
+        return request(newTodo, options("update").addHeader(HEADER_ID, todoId));
+    }
+
+    @Override
+    public Future<List<Todo>> updateMany(List<Todo> patches) {
+        return request(patches, options("updateMany").setCodecName(TodoListMessageCodec.NAME));
+    }
+
+    @Override
+    public Future<Boolean> delete(String todoId) {
+        return request(todoId, options("delete"));
+    }
+
+    @Override
+    public Future<Boolean> deleteMany(List<String> todoIds) {
+        return request(new JsonArray(todoIds), options("deleteMany"));
+    }
+
+    @Override
+    public Future<Deletion> deleteAll() {
+        return this.<JsonObject>request(null, options("deleteAll")).map(Deletion::new);
+    }
+}
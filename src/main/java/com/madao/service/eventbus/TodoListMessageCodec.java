@@ -0,0 +1,52 @@
+package com.madao.service.eventbus;
+
+import com.madao.entity.Todo;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Event bus codec for a {@code List<Todo>}. Lists have no class of their own
+ * to register a default codec for, so senders name it in their
+ * {@link io.vertx.core.eventbus.DeliveryOptions}. Like
+ * {@link TodoMessageCodec} it passes the list by reference locally.
+ */
+public class TodoListMessageCodec implements MessageCodec<List<Todo>, List<Todo>> {
+
+    public static final String NAME = "todo-list";
+
+    @Override
+    public void encodeToWire(Buffer buffer, List<Todo> todos) {
+        buffer.appendInt(todos.size());
+        todos.forEach(todo -> TodoMessageCodec.write(buffer, todo));
+    }
+
+    @Override
+    public List<Todo> decodeFromWire(int pos, Buffer buffer) {
+        final int size = buffer.getInt(pos);
+        final List<Todo> todos = new ArrayList<>(size);
+        pos += 4;
+        for (int i = 0; i < size; i++) {
+            todos.add(TodoMessageCodec.read(buffer, pos));
+            pos = TodoMessageCodec.next(buffer, pos);
+        }
+        return todos;
+    }
+
+    @Override
+    public List<Todo> transform(List<Todo> todos) {
+        return todos;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte systemCodecID() {
+        return -1;
+    }
+}
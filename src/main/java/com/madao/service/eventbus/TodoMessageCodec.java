@@ -0,0 +1,78 @@
+package com.madao.service.eventbus;
+
+import com.madao.entity.Todo;
+import com.madao.service.TodoCodec;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.MessageCodec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Event bus codec for a single {@link Todo}, registered as the default codec
+ * of the class.
+ * <p>
+ * Local delivery hands the receiver the very instance that was sent, the same
+ * way an in-process {@link com.madao.service.TodoService} call would, so the
+ * sender must not touch a todo once it is on the bus. Only clustered delivery
+ * serializes, using the compact {@link TodoCodec} record with a length prefix.
+ */
+public class TodoMessageCodec implements MessageCodec<Todo, Todo> {
+
+    public static final String NAME = "todo";
+
+    private static final String SHARED_MAP = "todo.codecs";
+
+    /**
+     * Register the todo codecs with the event bus of {@code vertx} unless an
+     * earlier verticle already did.
+     */
+    public static synchronized void register(Vertx vertx) {
+        if (vertx.sharedData().getLocalMap(SHARED_MAP).putIfAbsent(SHARED_MAP, true) != null) {
+            return;
+        }
+        final EventBus eventBus = vertx.eventBus();
+        eventBus.registerDefaultCodec(Todo.class, new TodoMessageCodec());
+        eventBus.registerCodec(new TodoListMessageCodec());
+    }
+
+    static void write(Buffer buffer, Todo todo) {
+        final byte[] bytes = TodoCodec.encode(todo).getBytes(StandardCharsets.UTF_8);
+        buffer.appendInt(bytes.length).appendBytes(bytes);
+    }
+
+    static Todo read(Buffer buffer, int pos) {
+        return TodoCodec.decode(buffer.getString(pos + 4, next(buffer, pos), "UTF-8"));
+    }
+
+    // the position after the todo written at pos
+    static int next(Buffer buffer, int pos) {
+        return pos + 4 + buffer.getInt(pos);
+    }
+
+    @Override
+    public void encodeToWire(Buffer buffer, Todo todo) {
+        write(buffer, todo);
+    }
+
+    @Override
+    public Todo decodeFromWire(int pos, Buffer buffer) {
+        return read(buffer, pos);
+    }
+
+    @Override
+    public Todo transform(Todo todo) {
+        return todo;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte systemCodecID() {
+        return -1;
+    }
+}
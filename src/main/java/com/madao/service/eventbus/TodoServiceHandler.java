@@ -0,0 +1,167 @@
+package com.madao.service.eventbus;
+
+import com.madao.entity.Deletion;
+import com.madao.entity.Todo;
+import com.madao.entity.TodoPage;
+import com.madao.entity.TodoQuery;
+import com.madao.service.CircuitOpenException;
+import com.madao.service.TodoService;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Server side of {@link EventBusTodoService}: answers its requests from a
+ * local {@link TodoService}.
+ */
+public class TodoServiceHandler implements Handler<Message<Object>> {
+
+    private static final DeliveryOptions LIST_REPLY =
+            new DeliveryOptions().setCodecName(TodoListMessageCodec.NAME);
+
+    private final TodoService service;
+    private final Supplier<Future<Integer>> maxId;
+
+    /**
+     * @param maxId the highest id stored in the backend behind {@code service}
+     */
+    public TodoServiceHandler(TodoService service, Supplier<Future<Integer>> maxId) {
+        this.service = service;
+        this.maxId = maxId;
+    }
+
+    /**
+     * Serve {@code service} on the {@code service.address} of {@code config}.
+     */
+    public static MessageConsumer<Object> register(Vertx vertx, TodoService service,
+                                                   Supplier<Future<Integer>> maxId, JsonObject config) {
+        TodoMessageCodec.register(vertx);
+        return vertx.eventBus().consumer(
+                config.getString("service.address", EventBusTodoService.DEFAULT_ADDRESS),
+                new TodoServiceHandler(service, maxId));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void handle(Message<Object> message) {
+        final String action = message.headers().get(EventBusTodoService.HEADER_ACTION);
+        if (action == null) {
+            message.fail(EventBusTodoService.FAILURE_SERVICE, "action not specified");
+            return;
+        }
+
+        try {
+            switch (action) {
+                case "initData":
+                    reply(message, service.initData());
+                    break;
+                case "maxId":
+                    reply(message, maxId.get());
+                    break;
+                case "insert":
+                    reply(message, service.insert((Todo) message.body()));
+                    break;
+                case "insertMany":
+                    reply(message, service.insertMany((List<Todo>) message.body()));
+                    break;
+                case "getAll":
+                    replyList(message, service.getAll());
+                    break;
+                case "getPage":
+                    getPage(message);
+                    break;
+                case "query":
+                    replyList(message, service.query(new TodoQuery((JsonObject) message.body())));
+                    break;
+                case "getCertain":
+                    reply(message, service.getCertain((String) message.body()).map(res -> res.orElse(null)));
+                    break;
+                case "update":
+                    reply(message, service.update(
+                            message.headers().get(EventBusTodoService.HEADER_ID), (Todo) message.body()));
+                    break;
+                case "updateMany":
+                    replyList(message, service.updateMany((List<Todo>) message.body()));
+                    break;
+                case "delete":
+                    reply(message, service.delete((String) message.body()));
+                    break;
+                case "deleteMany":
+                    reply(message, service.deleteMany(idsOf((JsonArray) message.body())));
+                    break;
+                case "deleteAll":
+                    reply(message, service.deleteAll().map(Deletion::toJson));
+                    break;
+                default:
+                    message.fail(EventBusTodoService.FAILURE_SERVICE, "Invalid action: " + action);
+            }
+        } catch (ClassCastException e) {
+            message.fail(EventBusTodoService.FAILURE_SERVICE, "Invalid body for " + action);
+        }
+    }
+
+    private void getPage(Message<Object> message) {
+        final String cursor = message.headers().get(EventBusTodoService.HEADER_CURSOR);
+        final int limit = Integer.parseInt(message.headers().get(EventBusTodoService.HEADER_LIMIT));
+        service.getPage(cursor, limit).setHandler(res -> {
+            if (res.failed()) {
+                fail(message, res.cause());
+                return;
+            }
+            final TodoPage page = res.result();
+            final DeliveryOptions options = new DeliveryOptions().setCodecName(TodoListMessageCodec.NAME);
+            if (page.hasMore()) {
+                options.addHeader(EventBusTodoService.HEADER_CURSOR, page.getCursor());
+            }
+            message.reply(page.getTodos(), options);
+        });
+    }
+
+    private static List<String> idsOf(JsonArray ids) {
+        return ids.stream().map(String::valueOf).collect(Collectors.toList());
+    }
+
+    private void reply(Message<Object> message, Future<?> result) {
+        result.setHandler(res -> {
+            if (res.succeeded()) {
+                message.reply(res.result());
+            } else {
+                fail(message, res.cause());
+            }
+        });
+    }
+
+    private void replyList(Message<Object> message, Future<List<Todo>> result) {
+        result.setHandler(res -> {
+            if (res.failed()) {
+                fail(message, res.cause());
+            } else if (res.result() == null) {
+                message.reply(null);
+            } else {
+                message.reply(res.result(), LIST_REPLY);
+            }
+        });
+    }
+
+    private void fail(Message<Object> message, Throwable cause) {
+        if (cause instanceof CircuitOpenException) {
+            message.fail(EventBusTodoService.FAILURE_UNAVAILABLE,
+                    String.valueOf(((CircuitOpenException) cause).getRetryAfterMillis()));
+            return;
+        }
+        final int code = cause instanceof RejectedExecutionException ? EventBusTodoService.FAILURE_REJECTED
+                : cause instanceof IllegalArgumentException ? EventBusTodoService.FAILURE_INVALID
+                : EventBusTodoService.FAILURE_SERVICE;
+        message.fail(code, String.valueOf(cause.getMessage()));
+    }
+}
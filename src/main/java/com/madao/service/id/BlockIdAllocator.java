@@ -0,0 +1,131 @@
+package com.madao.service.id;
+
+import io.vertx.core.Future;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Reserves ids from a shared sequence in blocks of {@code blockSize} and hands
+ * them out locally, so the shared sequence is only touched once per block.
+ * <p>
+ * An instance belongs to one verticle and is only used from its event loop:
+ * there is no locking, and allocators on other event loops or nodes work on
+ * disjoint blocks. Ids are unique but only increase per allocator, not
+ * globally. Ids left in a block when the process stops are lost.
+ * <p>
+ * A client-chosen id is {@link #claim claimed} by raising the shared
+ * sequence to it, so it lies beyond every block reserved so far and below
+ * every block reserved later.
+ */
+public abstract class BlockIdAllocator implements IdAllocator {
+
+    private final int blockSize;
+    private final Deque<Future<Integer>> waiters = new ArrayDeque<>();
+
+    private long next = 1;
+    private long last = 0; // inclusive end of the current block
+    private boolean fetching;
+    private boolean prepared;
+
+    protected BlockIdAllocator(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Atomically advance the shared sequence by {@code size} and return its new
+     * value, i.e. the last id of the reserved block.
+     */
+    protected abstract Future<Long> reserve(int size);
+
+    /**
+     * Atomically set the shared sequence to {@code id} if it is below, and
+     * tell whether it was.
+     */
+    protected abstract Future<Boolean> raise(int id);
+
+    /**
+     * Create and seed the shared sequence if needed. Runs lazily before the
+     * first reservation or claim, and again after a failure.
+     */
+    protected Future<Void> prepare() {
+        return Future.succeededFuture();
+    }
+
+    private Future<Void> prepared() {
+        if (prepared) {
+            return Future.succeededFuture();
+        }
+        return prepare().map(v -> {
+            prepared = true;
+            return null;
+        });
+    }
+
+    @Override
+    public Future<Void> claim(int id) {
+        return prepared().compose(v -> raise(id)).compose(raised -> raised
+                ? Future.<Void>succeededFuture()
+                : Future.<Void>failedFuture(new IdTakenException(id)));
+    }
+
+    @Override
+    public Future<Integer> next() {
+        if (waiters.isEmpty() && next <= last) {
+            return Future.succeededFuture((int) next++);
+        }
+
+        Future<Integer> result = Future.future();
+        waiters.add(result);
+        if (!fetching) {
+            refill();
+        }
+        return result;
+    }
+
+    private void failWaiters(Throwable cause) {
+        while (!waiters.isEmpty()) {
+            waiters.poll().fail(cause);
+        }
+    }
+
+    private void refill() {
+        fetching = true;
+        if (!prepared) {
+            prepared().setHandler(res -> {
+                fetching = false;
+                if (res.failed()) {
+                    failWaiters(res.cause());
+                } else {
+                    refill();
+                }
+            });
+            return;
+        }
+
+        reserve(blockSize).setHandler(res -> {
+            fetching = false;
+            if (res.failed()) {
+                failWaiters(res.cause());
+                return;
+            }
+
+            if (res.result() > Integer.MAX_VALUE) {
+                failWaiters(new IllegalStateException("Todo ids exhausted: " + res.result()));
+                return;
+            }
+
+            last = res.result();
+            next = last - blockSize + 1;
+            while (!waiters.isEmpty() && next <= last) {
+                waiters.poll().complete((int) next++);
+            }
+            if (!waiters.isEmpty()) {
+                refill();
+            }
+        });
+    }
+}
@@ -0,0 +1,19 @@
+package com.madao.service.id;
+
+import io.vertx.core.Future;
+
+/**
+ * Hands out ids for new todos.
+ */
+public interface IdAllocator {
+
+    Future<Integer> next();
+
+    /**
+     * Make {@code id}, chosen by a client, one that no allocator on the same
+     * sequence will ever hand out, by moving the sequence up to it. Fails
+     * with {@link IdTakenException} if the sequence is already there: the id
+     * may belong to a stored todo or to a block reserved by any allocator.
+     */
+    Future<Void> claim(int id);
+}
@@ -0,0 +1,14 @@
+package com.madao.service.id;
+
+/**
+ * A client-chosen id refused by {@link IdAllocator#claim} because the
+ * sequence already went past it.
+ */
+public class IdTakenException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public IdTakenException(int id) {
+        super("Todo id " + id + " is already taken");
+    }
+}
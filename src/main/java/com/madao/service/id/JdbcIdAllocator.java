@@ -0,0 +1,159 @@
+package com.madao.service.id;
+
+import com.madao.service.SharedDataSource;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.sql.SQLConnection;
+
+/**
+ * Reserves blocks from a one-row-per-sequence table. Advancing the row and
+ * reading it back happen in one transaction, so the row lock taken by the
+ * UPDATE makes concurrent reservations from other nodes wait their turn.
+ */
+public class JdbcIdAllocator extends BlockIdAllocator {
+
+    private static final String SEQUENCE = "todo";
+
+    private static final String SQL_CREATE = "CREATE TABLE IF NOT EXISTS `todo_seq` (\n" +
+            "  `name` varchar(32) NOT NULL,\n" +
+            "  `last_id` bigint NOT NULL,\n" +
+            "  PRIMARY KEY (`name`) )";
+    // seeded above the ids that are already taken; a no-op once the row exists
+    private static final String SQL_SEED = "INSERT INTO `todo_seq` (`name`, `last_id`)\n" +
+            "SELECT ?, COALESCE(MAX(`id`), 0) FROM `todo`\n" +
+            "WHERE NOT EXISTS (SELECT 1 FROM `todo_seq` WHERE `name` = ?)";
+    private static final String SQL_ADVANCE = "UPDATE `todo_seq` SET `last_id` = `last_id` + ? WHERE `name` = ?";
+    private static final String SQL_CURRENT = "SELECT `last_id` FROM `todo_seq` WHERE `name` = ?";
+    private static final String SQL_RAISE = "UPDATE `todo_seq` SET `last_id` = ? WHERE `name` = ? AND `last_id` < ?";
+
+    private final JDBCClient client;
+
+    public JdbcIdAllocator(Vertx vertx, JsonObject config, int blockSize) {
+        this(JDBCClient.create(vertx, SharedDataSource.get(vertx, config)), blockSize);
+    }
+
+    public JdbcIdAllocator(JDBCClient client, int blockSize) {
+        super(blockSize);
+        this.client = client;
+    }
+
+    private Handler<AsyncResult<SQLConnection>> connHandler(Future future, Handler<SQLConnection> handler) {
+        return conn -> {
+            if (conn.succeeded()) {
+                handler.handle(conn.result());
+            } else {
+                future.fail(conn.cause());
+            }
+        };
+    }
+
+    @Override
+    protected Future<Void> prepare() {
+        Future<Void> result = Future.future();
+        client.getConnection(connHandler(
+                result,
+                connection -> connection.execute(SQL_CREATE, create -> {
+                    if (create.failed()) {
+                        result.fail(create.cause());
+                        connection.close();
+                        return;
+                    }
+
+                    connection.updateWithParams(
+                            SQL_SEED,
+                            new JsonArray().add(SEQUENCE).add(SEQUENCE),
+                            seed -> {
+                                if (seed.failed()) {
+                                    result.fail(seed.cause());
+                                } else {
+                                    result.complete();
+                                }
+
+                                connection.close();
+                            });
+                })
+        ));
+        return result;
+    }
+
+    @Override
+    protected Future<Boolean> raise(int id) {
+        Future<Boolean> result = Future.future();
+        client.getConnection(connHandler(
+                result,
+                connection -> connection.updateWithParams(
+                        SQL_RAISE,
+                        new JsonArray().add(id).add(SEQUENCE).add(id),
+                        raise -> {
+                            if (raise.failed()) {
+                                result.fail(raise.cause());
+                            } else {
+                                result.complete(raise.result().getUpdated() == 1);
+                            }
+
+                            connection.close();
+                        })
+        ));
+        return result;
+    }
+
+    @Override
+    protected Future<Long> reserve(int size) {
+        Future<Long> result = Future.future();
+        client.getConnection(connHandler(
+                result,
+                connection -> connection.setAutoCommit(false, tx -> {
+                    if (tx.failed()) {
+                        result.fail(tx.cause());
+                        connection.close();
+                        return;
+                    }
+
+                    connection.updateWithParams(
+                            SQL_ADVANCE,
+                            new JsonArray().add(size).add(SEQUENCE),
+                            advance -> {
+                                if (advance.failed()) {
+                                    rollback(connection, result, advance.cause());
+                                    return;
+                                }
+
+                                connection.queryWithParams(
+                                        SQL_CURRENT,
+                                        new JsonArray().add(SEQUENCE),
+                                        current -> {
+                                            if (current.failed() || current.result().getNumRows() == 0) {
+                                                rollback(connection, result, current.failed() ? current.cause()
+                                                        : new IllegalStateException("Sequence " + SEQUENCE + " is missing"));
+                                                return;
+                                            }
+
+                                            final long last = current.result().getResults().get(0).getLong(0);
+                                            connection.commit(commit -> {
+                                                if (commit.failed()) {
+                                                    result.fail(commit.cause());
+                                                } else {
+                                                    result.complete(last);
+                                                }
+
+                                                connection.close();
+                                            });
+                                        });
+                            });
+                })
+        ));
+        return result;
+    }
+
+    private void rollback(SQLConnection connection, Future<?> result, Throwable cause) {
+        connection.rollback(r -> {
+            result.fail(cause);
+            connection.close();
+        });
+    }
+}
@@ -0,0 +1,87 @@
+package com.madao.service.id;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Takes its blocks from a counter shared by every verticle of this Vert.x
+ * instance. Only suitable for backends that live in this JVM. The counter
+ * starts above the highest stored id, read directly from the backend or, when
+ * the backend is served by another verticle, asked for once before the first
+ * block.
+ */
+public class LocalIdAllocator extends BlockIdAllocator {
+
+    private static final String SHARED_MAP = "todo.id";
+
+    private static final class Sequence extends AtomicLong implements Shareable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private final Sequence sequence;
+    private final IntSupplier floor;
+    private final Supplier<Future<Integer>> seed; // null when the floor is read directly
+
+    /**
+     * @param floor the highest id already in use; blocks always start above it
+     */
+    public LocalIdAllocator(Vertx vertx, int blockSize, IntSupplier floor) {
+        this(vertx, blockSize, floor, null);
+    }
+
+    /**
+     * @param seed asks for the highest id already in use; blocks start above
+     *             the answer
+     */
+    public LocalIdAllocator(Vertx vertx, int blockSize, Supplier<Future<Integer>> seed) {
+        this(vertx, blockSize, () -> 0, seed);
+    }
+
+    private LocalIdAllocator(Vertx vertx, int blockSize, IntSupplier floor, Supplier<Future<Integer>> seed) {
+        super(blockSize);
+        this.floor = floor;
+        this.seed = seed;
+        Sequence sequence = new Sequence();
+        Sequence existing = (Sequence) vertx.sharedData()
+                .getLocalMap(SHARED_MAP)
+                .putIfAbsent(SHARED_MAP, sequence);
+        this.sequence = existing == null ? sequence : existing;
+    }
+
+    @Override
+    protected Future<Void> prepare() {
+        if (seed == null) {
+            return Future.succeededFuture();
+        }
+        return seed.get().map(max -> {
+            sequence.accumulateAndGet(max, Math::max);
+            return null;
+        });
+    }
+
+    @Override
+    protected Future<Boolean> raise(int id) {
+        final long min = floor.getAsInt();
+        while (true) {
+            final long current = sequence.get();
+            if (id <= Math.max(current, min)) {
+                return Future.succeededFuture(false);
+            }
+            if (sequence.compareAndSet(current, id)) {
+                return Future.succeededFuture(true);
+            }
+        }
+    }
+
+    @Override
+    protected Future<Long> reserve(int size) {
+        final long min = floor.getAsInt();
+        return Future.succeededFuture(
+                sequence.accumulateAndGet(size, (current, n) -> Math.max(current, min) + n));
+    }
+}
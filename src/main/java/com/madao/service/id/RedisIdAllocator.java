@@ -0,0 +1,90 @@
+package com.madao.service.id;
+
+import com.madao.Constants;
+import com.madao.service.RedisScripts;
+import com.madao.service.RedisTodoService;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.redis.RedisClient;
+import io.vertx.redis.RedisOptions;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Reserves blocks with {@code INCRBY} on {@link Constants#REDIS_TODO_SEQ_KEY}.
+ * A missing sequence is seeded with the highest id in the todo hashes of
+ * every endpoint, found page by page, and only ever raised: allocators
+ * seeding at the same time cannot move it back.
+ */
+public class RedisIdAllocator extends BlockIdAllocator {
+
+    private final RedisClient redis;
+    private final List<RedisClient> endpoints;
+
+    public RedisIdAllocator(Vertx vertx, RedisOptions config, int blockSize) {
+        this(vertx, config, Collections.singletonList(config), blockSize);
+    }
+
+    /**
+     * @param config    where the sequence lives
+     * @param endpoints where todos live, searched for the highest id when seeding
+     */
+    public RedisIdAllocator(Vertx vertx, RedisOptions config, List<RedisOptions> endpoints, int blockSize) {
+        this(RedisClient.create(vertx, config),
+                endpoints.stream().map(options -> RedisClient.create(vertx, options)).collect(Collectors.toList()),
+                blockSize);
+    }
+
+    public RedisIdAllocator(RedisClient redis, int blockSize) {
+        this(redis, Collections.singletonList(redis), blockSize);
+    }
+
+    private RedisIdAllocator(RedisClient redis, List<RedisClient> endpoints, int blockSize) {
+        super(blockSize);
+        this.redis = redis;
+        this.endpoints = endpoints;
+    }
+
+    @Override
+    protected Future<Void> prepare() {
+        Future<Boolean> exists = Future.future();
+        redis.exists(Constants.REDIS_TODO_SEQ_KEY, res -> {
+            if (res.succeeded())
+                exists.complete(res.result() == 1);
+            else
+                exists.fail(res.cause());
+        });
+        return exists.compose(seeded -> seeded
+                ? Future.<Void>succeededFuture()
+                : RedisTodoService.maxId(endpoints).compose(this::raise).<Void>map(raised -> null));
+    }
+
+    @Override
+    protected Future<Boolean> raise(int id) {
+        Future<Boolean> result = Future.future();
+        RedisScripts.RAISE_SEQUENCE.run(redis,
+                Collections.singletonList(Constants.REDIS_TODO_SEQ_KEY),
+                Collections.singletonList(String.valueOf(id)),
+                res -> {
+                    if (res.succeeded())
+                        result.complete(res.result().getLong(0) == 1);
+                    else
+                        result.fail(res.cause());
+                });
+        return result;
+    }
+
+    @Override
+    protected Future<Long> reserve(int size) {
+        Future<Long> result = Future.future();
+        redis.incrby(Constants.REDIS_TODO_SEQ_KEY, size, res -> {
+            if (res.succeeded())
+                result.complete(res.result());
+            else
+                result.fail(res.cause());
+        });
+        return result;
+    }
+}
@@ -0,0 +1,295 @@
+package com.madao.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Concurrent map keyed by primitive {@code int}, so lookups never box the key.
+ * <p>
+ * The key space is split over a fixed number of segments; every segment is an
+ * open-addressing table (linear probing, backward-shift deletion) guarded by its
+ * own monitor. Each segment also keeps its keys in a sorted {@code int[]},
+ * updated under the same monitor as the table, so {@link #valuesAbove} pages
+ * through the map in key order without a separate index to keep in step.
+ */
+public class ConcurrentIntObjectMap<V> {
+
+    private static final int SEGMENTS = 16; // power of two
+    private static final int MIN_CAPACITY = 16;
+
+    private final List<Segment<V>> segments = new ArrayList<>(SEGMENTS);
+
+    public ConcurrentIntObjectMap() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments.add(new Segment<>());
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Segment<V> segmentFor(int hash) {
+        return segments.get(hash & (SEGMENTS - 1));
+    }
+
+    public V get(int key) {
+        int h = hash(key);
+        return segmentFor(h).get(key, h >>> 4);
+    }
+
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        int h = hash(key);
+        return segmentFor(h).put(key, h >>> 4, value);
+    }
+
+    /**
+     * Atomically replace the value mapped to {@code key} with
+     * {@code fn(oldValue)}. Nothing happens when the key is absent.
+     *
+     * @return the new value, or null when the key was absent
+     */
+    public V computeIfPresent(int key, UnaryOperator<V> fn) {
+        int h = hash(key);
+        return segmentFor(h).computeIfPresent(key, h >>> 4, fn);
+    }
+
+    public V remove(int key) {
+        int h = hash(key);
+        return segmentFor(h).remove(key, h >>> 4);
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Segment<V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Visit every value. Each segment is visited under its own lock, so the
+     * traversal is consistent per segment but not across the whole map.
+     */
+    public void forEachValue(Consumer<? super V> consumer) {
+        for (Segment<V> segment : segments) {
+            segment.forEachValue(consumer);
+        }
+    }
+
+    public List<V> values() {
+        List<V> values = new ArrayList<>(size());
+        forEachValue(values::add);
+        return values;
+    }
+
+    /**
+     * The values of the {@code limit} smallest keys greater than
+     * {@code after}, in key order. Like {@link #forEachValue}, each segment
+     * is read under its own lock.
+     */
+    public List<V> valuesAbove(int after, int limit) {
+        // the first `limit` keys above `after` of every segment, merged
+        final int[][] keys = new int[SEGMENTS][];
+        final Object[][] values = new Object[SEGMENTS][];
+        final int[] counts = new int[SEGMENTS];
+        for (int s = 0; s < SEGMENTS; s++) {
+            keys[s] = new int[Math.min(limit, MIN_CAPACITY)];
+            values[s] = new Object[keys[s].length];
+            counts[s] = segments.get(s).above(after, limit, keys, values, s);
+        }
+
+        final List<V> result = new ArrayList<>(Math.min(limit, 1024));
+        final int[] next = new int[SEGMENTS];
+        while (result.size() < limit) {
+            int min = -1;
+            for (int s = 0; s < SEGMENTS; s++) {
+                if (next[s] < counts[s] && (min < 0 || keys[s][next[s]] < keys[min][next[min]])) {
+                    min = s;
+                }
+            }
+            if (min < 0) {
+                break;
+            }
+            result.add(Segment.cast(values[min][next[min]++]));
+        }
+        return result;
+    }
+
+    private static final class Segment<V> {
+        private int[] keys = new int[MIN_CAPACITY];
+        private Object[] values = new Object[MIN_CAPACITY];
+        private int[] sorted = new int[MIN_CAPACITY]; // the first size entries are the keys, ascending
+        private int size;
+
+        synchronized V get(int key, int hash) {
+            int mask = keys.length - 1;
+            for (int i = hash & mask; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return cast(values[i]);
+                }
+            }
+            return null;
+        }
+
+        synchronized V put(int key, int hash, V value) {
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    V old = cast(values[i]);
+                    values[i] = value;
+                    return old;
+                }
+            }
+            keys[i] = key;
+            values[i] = value;
+            addSorted(key);
+            if (++size > (keys.length >> 1) + (keys.length >> 2)) {
+                rehash(keys.length << 1);
+            }
+            return null;
+        }
+
+        synchronized V computeIfPresent(int key, int hash, UnaryOperator<V> fn) {
+            int mask = keys.length - 1;
+            for (int i = hash & mask; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    V value = Objects.requireNonNull(fn.apply(cast(values[i])));
+                    values[i] = value;
+                    return value;
+                }
+            }
+            return null;
+        }
+
+        synchronized V remove(int key, int hash) {
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    V old = cast(values[i]);
+                    shiftBack(i);
+                    removeSorted(key);
+                    size--;
+                    return old;
+                }
+            }
+            return null;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void clear() {
+            keys = new int[MIN_CAPACITY];
+            values = new Object[MIN_CAPACITY];
+            sorted = new int[MIN_CAPACITY];
+            size = 0;
+        }
+
+        // copies up to limit keys above after, with their values, into row s of keysOut and valuesOut
+        synchronized int above(int after, int limit, int[][] keysOut, Object[][] valuesOut, int s) {
+            int from = Arrays.binarySearch(sorted, 0, size, after);
+            from = from < 0 ? -from - 1 : from + 1;
+            final int count = Math.min(limit, size - from);
+            if (count > keysOut[s].length) {
+                keysOut[s] = new int[count];
+                valuesOut[s] = new Object[count];
+            }
+            for (int j = 0; j < count; j++) {
+                final int key = sorted[from + j];
+                keysOut[s][j] = key;
+                valuesOut[s][j] = get(key, hash(key) >>> 4);
+            }
+            return count;
+        }
+
+        // ids are mostly handed out in ascending order, so this is usually an append
+        private void addSorted(int key) {
+            if (size == sorted.length) {
+                sorted = Arrays.copyOf(sorted, size << 1);
+            }
+            int at = size;
+            if (size > 0 && sorted[size - 1] > key) {
+                at = -Arrays.binarySearch(sorted, 0, size, key) - 1;
+                System.arraycopy(sorted, at, sorted, at + 1, size - at);
+            }
+            sorted[at] = key;
+        }
+
+        private void removeSorted(int key) {
+            final int at = Arrays.binarySearch(sorted, 0, size, key);
+            System.arraycopy(sorted, at + 1, sorted, at, size - at - 1);
+        }
+
+        synchronized void forEachValue(Consumer<? super V> consumer) {
+            for (Object value : values) {
+                if (value != null) {
+                    consumer.accept(cast(value));
+                }
+            }
+        }
+
+        // close the gap left at `free` so that probe chains stay unbroken
+        private void shiftBack(int free) {
+            int mask = keys.length - 1;
+            int i = free;
+            while (true) {
+                i = (i + 1) & mask;
+                if (values[i] == null) {
+                    break;
+                }
+                int home = (hash(keys[i]) >>> 4) & mask;
+                if (((i - home) & mask) >= ((i - free) & mask)) {
+                    keys[free] = keys[i];
+                    values[free] = values[i];
+                    free = i;
+                }
+            }
+            values[free] = null;
+        }
+
+        private void rehash(int capacity) {
+            int[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new int[capacity];
+            values = new Object[capacity];
+            int mask = capacity - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] != null) {
+                    int i = (hash(oldKeys[j]) >>> 4) & mask;
+                    while (values[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> V cast(Object value) {
+            return (V) value;
+        }
+    }
+}
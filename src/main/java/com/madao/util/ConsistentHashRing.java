@@ -0,0 +1,80 @@
+package com.madao.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps keys to nodes by consistent hashing: every node owns
+ * {@code replicas} points on a 64-bit ring and a key belongs to the node
+ * of the first point at or after its own hash. Adding or removing a node
+ * only moves the keys between it and its neighbours, about 1/n of them.
+ * <p>
+ * Immutable, and lookups are a binary search over a sorted array, so one
+ * ring can be shared freely.
+ */
+public final class ConsistentHashRing<T> {
+
+    private final long[] points;
+    private final T[] owners;
+
+    /**
+     * @param names    the name each node is hashed by, which must be stable
+     *                 across restarts for keys to stay where they are
+     * @param nodes    the nodes, in the same order as {@code names}
+     * @param replicas points per node; more spread the keys more evenly
+     */
+    @SuppressWarnings("unchecked")
+    public ConsistentHashRing(List<String> names, List<T> nodes, int replicas) {
+        if (names.isEmpty() || names.size() != nodes.size() || replicas <= 0) {
+            throw new IllegalArgumentException("A ring needs at least one node and one point per node");
+        }
+
+        final int size = names.size() * replicas;
+        final long[] hashes = new long[size];
+        final int[] nodeOf = new int[size];
+        final Integer[] order = new Integer[size];
+        for (int node = 0; node < names.size(); node++) {
+            for (int replica = 0; replica < replicas; replica++) {
+                final int i = node * replicas + replica;
+                hashes[i] = hash(names.get(node) + "#" + replica);
+                nodeOf[i] = node;
+                order[i] = i;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+
+        this.points = new long[size];
+        this.owners = (T[]) new Object[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = hashes[order[i]];
+            owners[i] = nodes.get(nodeOf[order[i]]);
+        }
+    }
+
+    public T owner(String key) {
+        int i = Arrays.binarySearch(points, hash(key));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 mix
+     * so that keys differing in one digit still land far apart.
+     */
+    public static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
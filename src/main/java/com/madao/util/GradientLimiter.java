@@ -0,0 +1,198 @@
+package com.madao.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Limits concurrent use of a resource, such as pooled connections, to a
+ * limit that follows the latency the resource delivers.
+ * <p>
+ * Every release reports how long the permit was held. Once per window of
+ * samples the average is compared with the lowest latency seen, the one of
+ * an unloaded resource: while the average stays within {@code 2x} of it the
+ * limit grows by about its square root, beyond that it shrinks in
+ * proportion, by at most half per window. So the limit settles where adding
+ * concurrency stops adding throughput and only adds queueing inside the
+ * resource. The lowest latency is re-learned every few windows, as it drifts
+ * with the data.
+ * <p>
+ * Callers beyond the limit wait in a bounded queue for at most
+ * {@code queueTimeoutMillis}; when it is full or the wait is over they fail
+ * with {@link RejectedExecutionException}, instead of piling up.
+ * <p>
+ * Thread safe, so the verticles that share a resource can share its
+ * limiter: a waiter is always called back on the context it acquired from.
+ */
+public final class GradientLimiter {
+
+    private static final int WINDOW = 50;
+    private static final int RELEARN_WINDOWS = 20;
+    private static final double TOLERANCE = 2.0;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double SMOOTHING = 0.2;
+
+    private static final class Waiter {
+        final Context context;
+        final Handler<AsyncResult<Void>> handler;
+        long timerId;
+
+        Waiter(Context context, Handler<AsyncResult<Void>> handler) {
+            this.context = context;
+            this.handler = handler;
+        }
+    }
+
+    private final Vertx vertx;
+    private final int min;
+    private final int max;
+    private final int maxQueue;
+    private final long queueTimeoutMillis;
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+
+    private double limit;
+    private int inFlight;
+    private int peakInFlight; // within the current window
+    private long minRtt;
+    private long windowSum;
+    private int windowCount;
+    private int windows;
+
+    public GradientLimiter(Vertx vertx, int initial, int min, int max, int maxQueue, long queueTimeoutMillis) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("A limit needs 1 <= min <= max");
+        }
+        this.vertx = vertx;
+        this.min = min;
+        this.max = max;
+        this.maxQueue = maxQueue;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.limit = Math.max(min, Math.min(max, initial));
+    }
+
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public synchronized int queued() {
+        return waiters.size();
+    }
+
+    /**
+     * Calls {@code handler} once a permit is free, which must then be given
+     * back through {@link #release(long)} or {@link #cancel()}.
+     */
+    public void acquire(Handler<AsyncResult<Void>> handler) {
+        final boolean granted;
+        synchronized (this) {
+            granted = inFlight < (int) limit;
+            if (granted) {
+                grant();
+            } else if (waiters.size() < maxQueue) {
+                final Waiter waiter = new Waiter(vertx.getOrCreateContext(), handler);
+                waiter.timerId = vertx.setTimer(Math.max(1, queueTimeoutMillis), id -> {
+                    if (timedOut(waiter)) {
+                        handler.handle(Future.failedFuture(
+                                new RejectedExecutionException("Timed out waiting for the concurrency limit")));
+                    }
+                });
+                waiters.add(waiter);
+                return;
+            }
+        }
+        // callbacks run outside the lock, they may well acquire again
+        handler.handle(granted ? Future.succeededFuture()
+                : Future.failedFuture(new RejectedExecutionException("Concurrency limit reached")));
+    }
+
+    private synchronized boolean timedOut(Waiter waiter) {
+        return waiters.remove(waiter);
+    }
+
+    /**
+     * Give back a permit that was held for {@code heldNanos}.
+     */
+    public void release(long heldNanos) {
+        final List<Waiter> granted;
+        synchronized (this) {
+            inFlight--;
+            sample(heldNanos);
+            granted = drain();
+        }
+        resume(granted);
+    }
+
+    /**
+     * Give back a permit that was never put to use, without a sample.
+     */
+    public void cancel() {
+        final List<Waiter> granted;
+        synchronized (this) {
+            inFlight--;
+            granted = drain();
+        }
+        resume(granted);
+    }
+
+    private void grant() {
+        inFlight++;
+        peakInFlight = Math.max(peakInFlight, inFlight);
+    }
+
+    // the waiters that get a permit now
+    private List<Waiter> drain() {
+        final List<Waiter> granted = new ArrayList<>();
+        while (inFlight < (int) limit && !waiters.isEmpty()) {
+            final Waiter waiter = waiters.poll();
+            vertx.cancelTimer(waiter.timerId);
+            grant();
+            granted.add(waiter);
+        }
+        return granted;
+    }
+
+    private static void resume(List<Waiter> granted) {
+        for (Waiter waiter : granted) {
+            waiter.context.runOnContext(v -> waiter.handler.handle(Future.succeededFuture()));
+        }
+    }
+
+    private void sample(long rttNanos) {
+        final long rtt = Math.max(1, rttNanos);
+        if (minRtt == 0 || rtt < minRtt) {
+            minRtt = rtt;
+        }
+        windowSum += rtt;
+        if (++windowCount < WINDOW) {
+            return;
+        }
+
+        final double average = (double) windowSum / windowCount;
+        final double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * minRtt / average));
+        double target = limit * gradient + Math.sqrt(limit);
+        if (peakInFlight < limit / 2) {
+            // hardly used, so the latency says nothing about a higher limit
+            target = Math.min(target, limit);
+        }
+        limit = Math.max(min, Math.min(max, limit * (1 - SMOOTHING) + target * SMOOTHING));
+
+        windowSum = 0;
+        windowCount = 0;
+        peakInFlight = inFlight;
+        if (++windows % RELEARN_WINDOWS == 0) {
+            minRtt = 0;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.madao.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.redis.RedisClient;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * A Lua script run through {@code EVALSHA}. The SHA1 is computed locally so
+ * the first call needs no {@code SCRIPT LOAD}; if the server does not know the
+ * script yet ({@code NOSCRIPT}) it is sent once with {@code EVAL}, which also
+ * caches it server-side for the following calls.
+ */
+public final class LuaScript {
+
+    private final String source;
+    private final String sha;
+
+    public LuaScript(String source) {
+        this.source = source;
+        this.sha = sha1(source);
+    }
+
+    private static String sha1(String source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public String getSha() {
+        return sha;
+    }
+
+    public void run(RedisClient redis, List<String> keys, List<String> args,
+                    Handler<AsyncResult<JsonArray>> handler) {
+        run(RedisCommands.of(redis), keys, args, handler);
+    }
+
+    public void run(RedisCommands redis, List<String> keys, List<String> args,
+                    Handler<AsyncResult<JsonArray>> handler) {
+        redis.evalsha(sha, keys, args, res -> {
+            if (res.failed() && res.cause().getMessage() != null
+                    && res.cause().getMessage().startsWith("NOSCRIPT")) {
+                redis.eval(source, keys, args, handler);
+            } else {
+                handler.handle(res);
+            }
+        });
+    }
+}
@@ -0,0 +1,54 @@
+package com.madao.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.redis.RedisClient;
+
+import java.util.List;
+
+/**
+ * The Redis commands a request can cause, separate from the maintenance
+ * work (scans, migrations, purges) that always goes through a
+ * {@link RedisClient}. So they can be sent over a plain client with
+ * {@link #of(RedisClient)} or through a connection of its own that
+ * pipelines them.
+ * A script reply that is not an array comes back as a one-element array,
+ * as {@link RedisClient#evalsha} has it.
+ */
+public interface RedisCommands {
+
+    void hget(String key, String field, Handler<AsyncResult<String>> handler);
+
+    void hvals(String key, Handler<AsyncResult<JsonArray>> handler);
+
+    void evalsha(String sha, List<String> keys, List<String> args, Handler<AsyncResult<JsonArray>> handler);
+
+    void eval(String script, List<String> keys, List<String> args, Handler<AsyncResult<JsonArray>> handler);
+
+    static RedisCommands of(RedisClient redis) {
+        return new RedisCommands() {
+            @Override
+            public void hget(String key, String field, Handler<AsyncResult<String>> handler) {
+                redis.hget(key, field, handler);
+            }
+
+            @Override
+            public void hvals(String key, Handler<AsyncResult<JsonArray>> handler) {
+                redis.hvals(key, handler);
+            }
+
+            @Override
+            public void evalsha(String sha, List<String> keys, List<String> args,
+                                Handler<AsyncResult<JsonArray>> handler) {
+                redis.evalsha(sha, keys, args, handler);
+            }
+
+            @Override
+            public void eval(String script, List<String> keys, List<String> args,
+                             Handler<AsyncResult<JsonArray>> handler) {
+                redis.eval(script, keys, args, handler);
+            }
+        };
+    }
+}
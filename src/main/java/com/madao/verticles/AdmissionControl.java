@@ -0,0 +1,116 @@
+package com.madao.verticles;
+
+import com.madao.Constants;
+import com.madao.metrics.Family;
+import com.madao.metrics.Gauge;
+import com.madao.metrics.Metrics;
+import com.madao.util.GradientLimiter;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Per-route concurrency limits in front of the handlers of one verticle
+ * instance, so a slow backend sheds load early instead of collecting
+ * requests on the event loop until they all fail slowly.
+ * <p>
+ * Every route gets its own {@link GradientLimiter}, fed with the time from
+ * admitting a request to the end of its response: the limit follows that
+ * latency, and requests beyond it wait in a bounded queue. A request that
+ * finds the queue full is answered 429 at once; one that waits longer than
+ * {@code admission.queue_timeout} milliseconds is answered 503, both with a
+ * {@code Retry-After}. Every {@code admission.*} setting can be overridden
+ * for one route as {@code admission.<route>.*}, e.g.
+ * {@code admission.list_todos.limit.max}.
+ */
+final class AdmissionControl {
+
+    private final Vertx vertx;
+    private final JsonObject config;
+    private final boolean enabled;
+    private final Family<Gauge> limits; // null unless metrics.enabled
+    private final Family<Gauge> queued;
+
+    AdmissionControl(Vertx vertx, JsonObject config, Metrics metrics) {
+        this.vertx = vertx;
+        this.config = config;
+        this.enabled = config.getBoolean("admission.enabled", true);
+        if (metrics == null) {
+            this.limits = null;
+            this.queued = null;
+        } else {
+            this.limits = metrics.gauge("todo_http_admission_limit",
+                    "Requests a route admits at once, adapted to their latency.", "route", "instance");
+            this.queued = metrics.gauge("todo_http_admission_queued",
+                    "Requests waiting to be admitted.", "route", "instance");
+        }
+    }
+
+    /**
+     * {@code handler}, admitted through the limit of {@code route}.
+     */
+    Handler<RoutingContext> limit(String route, Handler<RoutingContext> handler) {
+        if (!enabled || !config.getBoolean("admission." + route + ".enabled", true)) {
+            return handler;
+        }
+
+        final int max = setting(route, "limit.max", 1000);
+        final GradientLimiter limiter = new GradientLimiter(vertx,
+                setting(route, "limit.initial", 100),
+                setting(route, "limit.min", 10),
+                max,
+                setting(route, "max_queue", max),
+                setting(route, "queue_timeout", 500));
+        final Gauge limit;
+        final Gauge waiting;
+        if (limits == null) {
+            limit = null;
+            waiting = null;
+        } else {
+            final String instance = Integer.toHexString(System.identityHashCode(this));
+            limit = limits.labels(route, instance);
+            waiting = queued.labels(route, instance);
+            limit.set(limiter.limit());
+        }
+
+        return context -> {
+            final boolean[] waited = {false};
+            limiter.acquire(res -> {
+                if (res.failed()) {
+                    // a full queue turns the request away at once, a long wait means we are behind
+                    shed(context, waited[0] ? 503 : 429);
+                } else {
+                    admitted(context, limiter);
+                    handler.handle(context);
+                }
+                if (limit != null) {
+                    limit.set(limiter.limit());
+                    waiting.set(limiter.queued());
+                }
+            });
+            waited[0] = true;
+            if (waiting != null) {
+                waiting.set(limiter.queued());
+            }
+        };
+    }
+
+    // the permit goes back once, when the response ends or the connection goes away before it
+    private void admitted(RoutingContext context, GradientLimiter limiter) {
+        final long started = System.nanoTime();
+        ResponseDone.then(context, sent -> limiter.release(System.nanoTime() - started));
+    }
+
+    private void shed(RoutingContext context, int statusCode) {
+        context.response()
+                .putHeader(Constants.KEY_RETRY_AFTER, "1")
+                .setStatusCode(statusCode)
+                .end();
+    }
+
+    private int setting(String route, String key, int defaultValue) {
+        return config.getInteger("admission." + route + "." + key,
+                config.getInteger("admission." + key, defaultValue));
+    }
+}
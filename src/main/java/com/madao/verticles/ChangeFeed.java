@@ -0,0 +1,199 @@
+package com.madao.verticles;
+
+import com.madao.Constants;
+import com.madao.entity.Todo;
+import com.madao.metrics.Counter;
+import com.madao.metrics.Gauge;
+import com.madao.metrics.Metrics;
+import com.madao.service.ChangeFeedTodoService;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pushes the events of {@link ChangeFeedTodoService} to the clients of one
+ * verticle instance as server-sent events on {@code GET /todos/changes}.
+ * <p>
+ * Every event is encoded once and written straight through to the
+ * connections that keep up. A connection whose write queue is full gets a
+ * pending buffer instead, keyed by todo id, so a burst of changes to one todo
+ * collapses into its latest state and a cleared event drops everything
+ * before it. The buffer holds at most {@code changes.max_pending} ids; past
+ * that it is replaced by a single {@code resync} event telling the client to
+ * reload {@code GET /todos}.
+ */
+final class ChangeFeed {
+
+    private static final String CONTENT_TYPE = "text/event-stream;charset=utf-8";
+    private static final String RESYNC = "resync";
+    private static final String ALL = "*";
+    private static final Buffer OPENED = Buffer.buffer(":ok\n\n");
+    private static final Buffer HEARTBEAT = Buffer.buffer(":\n\n");
+    private static final Buffer RESYNC_EVENT = frame(RESYNC, "{}");
+
+    private final Vertx vertx;
+    private final int maxPending;
+    private final Set<Subscriber> subscribers = new LinkedHashSet<>();
+    private final MessageConsumer<Object> consumer;
+    private final long heartbeatTimer;
+
+    private final Gauge connections; // null unless metrics are enabled
+    private final Counter resyncs;
+
+    ChangeFeed(Vertx vertx, JsonObject config, Metrics metrics) {
+        this.vertx = vertx;
+        this.maxPending = config.getInteger("changes.max_pending", 1000);
+        if (metrics != null) {
+            connections = metrics.gauge("todo_change_feed_connections",
+                    "Clients following the change feed.").labels();
+            resyncs = metrics.counter("todo_change_feed_resyncs_total",
+                    "Times a slow client's pending changes overflowed and it was told to reload.").labels();
+        } else {
+            connections = null;
+            resyncs = null;
+        }
+
+        consumer = vertx.eventBus().consumer(ChangeFeedTodoService.ADDRESS, this::publish);
+        // comments keep idle connections from being cut by proxies
+        heartbeatTimer = vertx.setPeriodic(config.getLong("changes.heartbeat", 15_000L), id ->
+                subscribers.forEach(subscriber -> subscriber.offer(null, HEARTBEAT)));
+    }
+
+    private static Buffer frame(String type, String data) {
+        return Buffer.buffer(type.length() + data.length() + 16)
+                .appendString("event: ").appendString(type)
+                .appendString("\ndata: ").appendString(data)
+                .appendString("\n\n");
+    }
+
+    void subscribe(RoutingContext context) {
+        final HttpServerResponse response = context.response()
+                .setChunked(true)
+                .putHeader(Constants.KEY_CONTENT_TYPE, CONTENT_TYPE)
+                .putHeader("cache-control", "no-cache");
+        final Subscriber subscriber = new Subscriber(response);
+        subscribers.add(subscriber);
+        if (connections != null) {
+            connections.inc();
+        }
+        response.closeHandler(v -> {
+            subscribers.remove(subscriber);
+            if (connections != null) {
+                connections.dec();
+            }
+        });
+        response.write(OPENED);
+    }
+
+    void close() {
+        consumer.unregister();
+        vertx.cancelTimer(heartbeatTimer);
+        subscribers.forEach(subscriber -> subscriber.response.end());
+        subscribers.clear();
+    }
+
+    private void publish(Message<Object> message) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+
+        final String type = message.headers().get(ChangeFeedTodoService.HEADER_TYPE);
+        final String key;
+        final Buffer event;
+        switch (type) {
+            case ChangeFeedTodoService.CREATED:
+            case ChangeFeedTodoService.UPDATED:
+                final Todo todo = (Todo) message.body();
+                key = String.valueOf(todo.getId());
+                event = frame(type, Json.encode(todo));
+                break;
+            case ChangeFeedTodoService.DELETED:
+                key = (String) message.body();
+                event = frame(type, new JsonObject().put("id", idOf(key)).encode());
+                break;
+            case ChangeFeedTodoService.CLEARED:
+                key = ALL;
+                event = frame(type, "{}");
+                break;
+            default:
+                return;
+        }
+        subscribers.forEach(subscriber -> subscriber.offer(key, event));
+    }
+
+    // ids are numbers everywhere else in the API
+    private static Object idOf(String todoId) {
+        try {
+            return Integer.parseInt(todoId);
+        } catch (NumberFormatException e) {
+            return todoId;
+        }
+    }
+
+    private final class Subscriber {
+        final HttpServerResponse response;
+        final Map<String, Buffer> pending = new LinkedHashMap<>();
+        boolean awaitingDrain;
+
+        Subscriber(HttpServerResponse response) {
+            this.response = response;
+        }
+
+        /**
+         * @param key the id the event is about, or null for one that must not be coalesced
+         */
+        void offer(String key, Buffer event) {
+            if (pending.isEmpty() && !response.writeQueueFull()) {
+                response.write(event);
+                return;
+            }
+            if (key == null) {
+                return; // a heartbeat is pointless behind queued data
+            }
+
+            if (ALL.equals(key)) {
+                pending.clear();
+            } else if (pending.remove(key) == null && pending.size() >= maxPending) {
+                pending.clear();
+                pending.put(RESYNC, RESYNC_EVENT);
+                if (resyncs != null) {
+                    resyncs.inc();
+                }
+            }
+            pending.put(key, event);
+            awaitDrain();
+        }
+
+        private void awaitDrain() {
+            if (!awaitingDrain) {
+                awaitingDrain = true;
+                response.drainHandler(v -> {
+                    awaitingDrain = false;
+                    flush();
+                });
+            }
+        }
+
+        private void flush() {
+            final Iterator<Buffer> events = pending.values().iterator();
+            while (events.hasNext() && !response.writeQueueFull()) {
+                response.write(events.next());
+                events.remove();
+            }
+            if (!pending.isEmpty()) {
+                awaitDrain();
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.madao.verticles;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+
+/**
+ * Deploys the application. In {@code local} mode that is just
+ * {@code http.instances} {@link TodoVerticle}s, each with its own backend
+ * chain. In {@code eventbus} mode {@code service.instances}
+ * {@link TodoServiceVerticle}s are deployed first and the
+ * {@link TodoVerticle}s reach them over the event bus; set
+ * {@code service.instances} to 0 when they run on other cluster nodes.
+ */
+public class MainVerticle extends AbstractVerticle {
+
+    @Override
+    public void start(Future<Void> future) throws Exception {
+        final boolean eventBus = "eventbus".equals(config().getString("service.mode", "local"));
+        final int services = eventBus ? config().getInteger("service.instances", 1) : 0;
+
+        deploy(TodoServiceVerticle.class.getName(), services)
+                .compose(v -> deploy(TodoVerticle.class.getName(), config().getInteger("http.instances", 1)))
+                .setHandler(future.completer());
+    }
+
+    private Future<Void> deploy(String verticle, int instances) {
+        final Future<Void> result = Future.future();
+        if (instances <= 0) {
+            result.complete();
+            return result;
+        }
+        vertx.deployVerticle(verticle,
+                new DeploymentOptions().setConfig(config()).setInstances(instances), res -> {
+                    if (res.succeeded())
+                        result.complete();
+                    else
+                        result.fail(res.cause());
+                });
+        return result;
+    }
+}
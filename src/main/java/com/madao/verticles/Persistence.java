@@ -0,0 +1,252 @@
+package com.madao.verticles;
+
+import com.madao.metrics.Metrics;
+import com.madao.service.CircuitBreakerTodoService;
+import com.madao.service.InMemoryTodoService;
+import com.madao.service.JdbcTodoService;
+import com.madao.service.MetricsTodoService;
+import com.madao.service.RedisTodoService;
+import com.madao.service.SingleFlightTodoService;
+import com.madao.service.TodoService;
+import com.madao.service.WriteBehindTodoService;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.redis.RedisOptions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntSupplier;
+
+/**
+ * The backend chain a verticle persists through: the store picked by
+ * {@code service.type}, its metrics, the circuit breaker, the optional
+ * write-behind queue and the coalescing of identical reads.
+ * {@link TodoVerticle} builds one for itself in {@code local} mode; in
+ * {@code eventbus} mode it lives in {@link TodoServiceVerticle} instead.
+ */
+final class Persistence {
+
+    private final JsonObject config;
+
+    private TodoService service;
+    private WriteBehindTodoService writeBehind; // null unless write_behind.enabled
+    private RedisTodoService redis; // null unless service.type is redis
+    private RedisTodoService migrating; // null unless stored values are migrated
+    private InMemoryTodoService memory; // null unless service.type is memory
+    private IntSupplier idFloor = () -> 0;
+    private boolean initialized;
+
+    Persistence(Vertx vertx, JsonObject config, Metrics metrics) {
+        this.config = config;
+
+        final String serviceType = config.getString("service.type", "redis");
+        switch (serviceType) {
+            case "jdbc":
+                service = new JdbcTodoService(vertx, config);
+                break;
+            case "redis":
+                redis = new RedisTodoService(vertx, redisEndpoints(config),
+                        config.getInteger("redis.shards", 1),
+                        config.getInteger("redis.ring.points", RedisTodoService.DEFAULT_RING_POINTS),
+                        config.getBoolean("redis.pipelining", false),
+                        config.getInteger("redis.pipelining.max_pending", RedisTodoService.DEFAULT_PIPELINE_PENDING))
+                        .setPurge(config.getInteger("delete_all.batch", 1000),
+                                config.getLong("delete_all.pause", 10L));
+                if (config.getBoolean("redis.migrate", true)) {
+                    migrating = redis;
+                }
+                service = redis;
+                break;
+            case "memory":
+                memory = new InMemoryTodoService(vertx, config);
+                idFloor = memory::maxId;
+                service = memory;
+                break;
+        }
+
+        if (metrics != null) {
+            service = new MetricsTodoService(metrics, service, serviceType);
+        }
+        if (config.getBoolean("circuit_breaker.enabled", true)) {
+            service = new CircuitBreakerTodoService(vertx, service, config);
+        }
+        if (config.getBoolean("write_behind.enabled", false)) {
+            // requests for one todo are spread over all instances, each with its own pending image
+            final String instances = "eventbus".equals(config.getString("service.mode", "local"))
+                    ? "service.instances" : "http.instances";
+            if (config.getInteger(instances, 1) > 1) {
+                throw new IllegalStateException("write_behind.enabled needs " + instances + " set to 1");
+            }
+            writeBehind = new WriteBehindTodoService(vertx, service, config);
+            service = writeBehind;
+        }
+        if (config.getBoolean("single_flight.enabled", true)) {
+            service = new SingleFlightTodoService(service, metrics);
+        }
+    }
+
+    static RedisOptions redisOptions(JsonObject config) {
+        return new RedisOptions()
+                .setHost(config.getString("redis.host", "127.0.0.1"))
+                .setPort(config.getInteger("redis.port", 6379));
+    }
+
+    /**
+     * The {@code host:port} endpoints of {@code redis.endpoints}, by default
+     * just {@code redis.host} and {@code redis.port}.
+     */
+    static List<RedisOptions> redisEndpoints(JsonObject config) {
+        final JsonArray endpoints = config.getJsonArray("redis.endpoints");
+        return endpoints == null ? Collections.singletonList(redisOptions(config)) : redisEndpoints(endpoints);
+    }
+
+    private static List<RedisOptions> redisEndpoints(JsonArray endpoints) {
+        final List<RedisOptions> options = new ArrayList<>(endpoints.size());
+        for (Object endpoint : endpoints) {
+            final String hostPort = (String) endpoint;
+            final int colon = hostPort.lastIndexOf(':');
+            options.add(new RedisOptions()
+                    .setHost(hostPort.substring(0, colon))
+                    .setPort(Integer.parseInt(hostPort.substring(colon + 1))));
+        }
+        return options;
+    }
+
+    TodoService service() {
+        return service;
+    }
+
+    /**
+     * The highest id the backend already holds, for a local id allocator.
+     */
+    IntSupplier idFloor() {
+        return idFloor;
+    }
+
+    /**
+     * The {@link #idFloor()} once the backend is initialized, for an id
+     * allocator on the other side of the event bus. A snapshot still loading
+     * would give too low a floor, so until then this fails.
+     */
+    Future<Integer> maxId() {
+        return initialized
+                ? Future.succeededFuture(idFloor.getAsInt())
+                : Future.failedFuture(new IllegalStateException("Todos are still loading"));
+    }
+
+    /**
+     * Initialize the backend through {@code service}, which may wrap
+     * {@link #service()}, then start migrating stored values and purging
+     * deleted ones.
+     */
+    void start(TodoService service) {
+        service.initData().setHandler(
+                res -> {
+                    if (res.failed()) {
+                        System.err.println("[Error] Persistence service is not running!");
+                        res.cause().printStackTrace();
+                    } else {
+                        initialized = true;
+                        if (migrating != null) {
+                            migrateStorage();
+                        } else if (redis != null) {
+                            rebalance();
+                        }
+                        if (redis != null) {
+                            purgeTrash();
+                        }
+                    }
+                }
+        );
+    }
+
+    // a deleteAll cut short by a restart is finished in the background
+    private void purgeTrash() {
+        redis.purgeTrash().setHandler(
+                res -> {
+                    if (res.failed()) {
+                        System.err.println("[Error] Failed to purge deleted todos!");
+                        res.cause().printStackTrace();
+                    } else if (res.result() > 0) {
+                        System.out.println("[Info] Purged " + res.result() + " deleted todos");
+                    }
+                }
+        );
+    }
+
+    // legacy JSON values are rewritten in the background; reads understand both formats meanwhile
+    private void migrateStorage() {
+        migrating.migrateStorage(config.getInteger("redis.migrate.batch", 100),
+                config.getLong("redis.migrate.pause", 10L)).setHandler(
+                res -> {
+                    if (res.failed()) {
+                        System.err.println("[Error] Failed to migrate stored todos!");
+                        res.cause().printStackTrace();
+                    } else {
+                        if (res.result() > 0) {
+                            System.out.println("[Info] Migrated " + res.result() + " stored todos");
+                        }
+                        rebalance();
+                    }
+                }
+        );
+    }
+
+    // todos stored under another shard layout move to their shards, also in the background;
+    // until the stored layout is known to match, misses are looked for in every hash
+    private void rebalance() {
+        redis.rebalance(redisEndpoints(config.getJsonArray("redis.rebalance.from", new JsonArray())),
+                config.getInteger("redis.migrate.batch", 100),
+                config.getLong("redis.migrate.pause", 10L)).setHandler(
+                res -> {
+                    if (res.failed()) {
+                        System.err.println("[Error] Failed to move todos to their shards!");
+                        res.cause().printStackTrace();
+                    } else if (res.result() > 0) {
+                        System.out.println("[Info] Moved " + res.result() + " todos to their shards");
+                    }
+                }
+        );
+    }
+
+    /**
+     * Flush whatever the write-behind queue still holds, then let the
+     * in-memory store write its final snapshot.
+     */
+    Future<Void> stop() {
+        final Future<Void> result = Future.future();
+        flush().setHandler(flushed -> {
+            if (memory == null) {
+                result.complete();
+                return;
+            }
+            memory.close().setHandler(res -> {
+                if (res.failed()) {
+                    System.err.println("[Error] Failed to write the final snapshot!");
+                }
+                result.complete();
+            });
+        });
+        return result;
+    }
+
+    private Future<Void> flush() {
+        if (writeBehind == null) {
+            return Future.succeededFuture();
+        }
+
+        // acknowledged writes must reach the backend before the verticle goes away
+        final Future<Void> result = Future.future();
+        writeBehind.drain().setHandler(res -> {
+            if (res.failed()) {
+                System.err.println("[Error] Failed to flush pending writes!");
+                res.cause().printStackTrace();
+            }
+            result.complete();
+        });
+        return result;
+    }
+}
@@ -0,0 +1,153 @@
+package com.madao.verticles;
+
+import com.madao.Constants;
+import com.madao.entity.EncodedResponse;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * gzip and deflate for the response bodies of one verticle instance.
+ * <p>
+ * Netty's compressor compresses every response the client accepts it for,
+ * down to a two-byte {@code {}}, and the server options have no threshold to
+ * stop it. So bodies are compressed here instead, and only from
+ * {@code http.compression.min_size} bytes up, where the saved bytes outweigh
+ * the CPU spent. {@link EncodedResponse} bodies are compressed once per
+ * coding and kept alongside the plain bytes; their ETag turns weak, since
+ * the bytes differ from the plain representation but the content does not.
+ * <p>
+ * Not thread safe: the deflaters are reused from request to request.
+ */
+final class ResponseCompression {
+
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private static final int GZIP_HEADER_SIZE = 10;
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final byte[] GZIP_HEADER = {
+            0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final boolean enabled;
+    private final int minSize;
+    private final Deflater gzip;
+    private final Deflater deflate;
+    private final CRC32 crc = new CRC32();
+    private final byte[] chunk = new byte[8192];
+
+    ResponseCompression(JsonObject config) {
+        this.enabled = config.getBoolean("http.compression.enabled", true);
+        this.minSize = config.getInteger("http.compression.min_size", 1024);
+        final int level = config.getInteger("http.compression.level", 6);
+        this.gzip = new Deflater(level, true);
+        this.deflate = new Deflater(level);
+    }
+
+    /**
+     * The coding to send a body of {@code size} bytes in, or null to send it as is.
+     */
+    String codingFor(HttpServerRequest request, int size) {
+        if (!enabled || size < minSize) {
+            return null;
+        }
+        final String accepted = request.getHeader(Constants.KEY_ACCEPT_ENCODING);
+        if (accepted == null) {
+            return null;
+        }
+        // gzip wins over deflate, which some clients get wrong
+        boolean deflateAccepted = false;
+        for (String candidate : accepted.split(",")) {
+            final String[] parts = candidate.trim().split(";");
+            final String coding = parts[0].trim().toLowerCase();
+            if (parts.length > 1 && parts[1].trim().replace(" ", "").matches("q=0(\\.0*)?")) {
+                continue;
+            }
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+                return GZIP;
+            }
+            deflateAccepted |= coding.equals(DEFLATE);
+        }
+        return deflateAccepted ? DEFLATE : null;
+    }
+
+    /**
+     * End {@code response} with {@code body}, compressed if the request allows it.
+     */
+    void end(HttpServerRequest request, HttpServerResponse response, Buffer body) {
+        final String coding = codingFor(request, body.length());
+        if (coding == null) {
+            response.end(body);
+        } else {
+            headers(response, coding).end(encode(body, coding));
+        }
+    }
+
+    /**
+     * End {@code response} with the body of {@code encoded} in the coding the
+     * request allows, or with 304 when the client already holds it. Without
+     * {@code tagged} the body only gets an ETag if the request is
+     * conditional, so nobody hashes a body that is sent once.
+     */
+    void end(HttpServerRequest request, HttpServerResponse response, EncodedResponse encoded, boolean tagged) {
+        final String coding = codingFor(request, encoded.getBody().length());
+        final String ifNoneMatch = request.getHeader(Constants.KEY_IF_NONE_MATCH);
+        if (tagged || ifNoneMatch != null) {
+            response.putHeader(Constants.KEY_ETAG, coding == null ? encoded.getEtag() : "W/" + encoded.getEtag());
+        }
+        if (coding != null) {
+            response.putHeader(Constants.KEY_VARY, Constants.KEY_ACCEPT_ENCODING);
+        }
+        if (encoded.matches(ifNoneMatch)) {
+            response.setStatusCode(304).end();
+        } else if (coding == null) {
+            response.putHeader(Constants.KEY_CONTENT_TYPE, Constants.VALUE_CONTENT_TYPE)
+                    .end(encoded.getBody());
+        } else {
+            response.putHeader(Constants.KEY_CONTENT_TYPE, Constants.VALUE_CONTENT_TYPE)
+                    .putHeader(Constants.KEY_CONTENT_ENCODING, coding)
+                    .end(encoded.getBody(coding, body -> encode(body, coding)));
+        }
+    }
+
+    private static HttpServerResponse headers(HttpServerResponse response, String coding) {
+        return response.putHeader(Constants.KEY_CONTENT_ENCODING, coding)
+                .putHeader(Constants.KEY_VARY, Constants.KEY_ACCEPT_ENCODING);
+    }
+
+    Buffer encode(Buffer body, String coding) {
+        final byte[] bytes = body.getBytes();
+        if (DEFLATE.equals(coding)) {
+            return compress(deflate, bytes, Buffer.buffer(bytes.length / 4 + 16));
+        }
+
+        // RFC 1952: header, raw deflate, CRC-32 and length of the input
+        final Buffer out = Buffer.buffer(bytes.length / 4 + GZIP_HEADER_SIZE + GZIP_TRAILER_SIZE)
+                .appendBytes(GZIP_HEADER);
+        compress(gzip, bytes, out);
+        crc.reset();
+        crc.update(bytes);
+        return out.appendIntLE((int) crc.getValue()).appendIntLE(bytes.length);
+    }
+
+    private Buffer compress(Deflater deflater, byte[] bytes, Buffer out) {
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        while (!deflater.finished()) {
+            final int n = deflater.deflate(chunk);
+            out.appendBytes(chunk, 0, n);
+        }
+        return out;
+    }
+
+    void close() {
+        gzip.end();
+        deflate.end();
+    }
+}
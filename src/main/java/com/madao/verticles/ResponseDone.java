@@ -0,0 +1,47 @@
+package com.madao.verticles;
+
+import io.vertx.core.Handler;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a handler once per response, when it has been sent or when the
+ * connection went away before that, whichever comes first.
+ * {@code HttpServerResponse#closeHandler} holds a single handler, so
+ * everything that has to clean up after a request registers here instead.
+ */
+final class ResponseDone {
+
+    private static final String CLOSE_HANDLERS = "todo.close_handlers";
+
+    private ResponseDone() {}
+
+    /**
+     * @param handler called with true once the body was sent, with false if the connection closed first
+     */
+    static void then(RoutingContext context, Handler<Boolean> handler) {
+        final boolean[] done = {false};
+        context.addBodyEndHandler(v -> {
+            if (!done[0]) {
+                done[0] = true;
+                handler.handle(true);
+            }
+        });
+
+        List<Handler<Void>> closed = context.get(CLOSE_HANDLERS);
+        if (closed == null) {
+            final List<Handler<Void>> handlers = new ArrayList<>(2);
+            context.response().closeHandler(v -> handlers.forEach(h -> h.handle(null)));
+            context.put(CLOSE_HANDLERS, handlers);
+            closed = handlers;
+        }
+        closed.add(v -> {
+            if (!done[0]) {
+                done[0] = true;
+                handler.handle(false);
+            }
+        });
+    }
+}
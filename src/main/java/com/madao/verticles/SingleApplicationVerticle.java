@@ -2,6 +2,10 @@ package com.madao.verticles;
 
 import com.madao.Constants;
 import com.madao.entity.Todo;
+import com.madao.service.RedisScripts;
+import com.madao.service.TodoCodec;
+import com.madao.service.id.IdAllocator;
+import com.madao.service.id.RedisIdAllocator;
 import io.vertx.codegen.annotations.Nullable;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
@@ -16,6 +20,8 @@ import io.vertx.ext.web.handler.CorsHandler;
 import io.vertx.redis.RedisClient;
 import io.vertx.redis.RedisOptions;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -27,6 +33,7 @@ public class SingleApplicationVerticle extends AbstractVerticle {
     private static final int REDIS_PORT = 6379;
 
     private RedisClient redis;
+    private IdAllocator idAllocator;
 
     private void initData() {
         RedisOptions config = new RedisOptions()
@@ -34,11 +41,12 @@ public class SingleApplicationVerticle extends AbstractVerticle {
                 .setPort(config().getInteger("redis.port", REDIS_PORT));
 
         this.redis = RedisClient.create(vertx, config);
+        this.idAllocator = new RedisIdAllocator(redis, config().getInteger("id.block_size", 100));
 
         redis.hset(
                 Constants.REDIS_TODO_KEY,
                 "24",
-                Json.encodePrettily(new Todo(24, "Something to do...", false, 1, "todo/ex")),
+                TodoCodec.encode(new Todo(24, "Something to do...", false, 1, "todo/ex")),
                 res -> {
                     if (res.failed()) {
                         System.err.println("[Error] Redis service is not running!");
@@ -115,7 +123,7 @@ public class SingleApplicationVerticle extends AbstractVerticle {
                             } else {
                                 context.response()
                                         .putHeader("content-type", "application/json;charset=utf8")
-                                        .end(result);
+                                        .end(Json.encodePrettily(TodoCodec.decode(result)));
                             }
                         } else {
                             sendError(503, context.response());
@@ -131,7 +139,7 @@ public class SingleApplicationVerticle extends AbstractVerticle {
                 String encoded = Json.encodePrettily(
                         res.result()
                                 .stream()
-                                .map(x -> new Todo((String) x))
+                                .map(x -> TodoCodec.decode((String) x))
                                 .collect(Collectors.toList())
                 );
 
@@ -147,23 +155,29 @@ public class SingleApplicationVerticle extends AbstractVerticle {
 
     private void handleCreateTodo(RoutingContext context) {
         try {
-            final Todo todo = wrapObject(new Todo(context.getBodyAsString()), context);
-            final String encoded = Json.encodePrettily(todo);
+            final Todo todo = new Todo(context.getBodyAsString());
 
-            redis.hset(
-                    Constants.REDIS_TODO_KEY,
-                    String.valueOf(todo.getId()),
-                    encoded,
-                    res -> {
-                        if (res.succeeded()) {
-                            context.response()
-                                    .setStatusCode(201)
-                                    .putHeader("content-type", "application/json;charset=utf8")
-                                    .end(encoded);
-                        } else {
-                            sendError(503, context.response());
-                        }
-                    });
+            wrapObject(todo, context).setHandler(wrapped -> {
+                if (wrapped.failed()) {
+                    sendError(503, context.response());
+                    return;
+                }
+
+                redis.hset(
+                        Constants.REDIS_TODO_KEY,
+                        String.valueOf(todo.getId()),
+                        TodoCodec.encode(todo),
+                        res -> {
+                            if (res.succeeded()) {
+                                context.response()
+                                        .setStatusCode(201)
+                                        .putHeader("content-type", "application/json;charset=utf8")
+                                        .end(Json.encodePrettily(todo));
+                            } else {
+                                sendError(503, context.response());
+                            }
+                        });
+            });
         } catch (DecodeException e) {
             sendError(400, context.response());
         }
@@ -179,29 +193,19 @@ public class SingleApplicationVerticle extends AbstractVerticle {
                 return;
             }
 
-            redis.hget(
-                    Constants.REDIS_TODO_KEY,
-                    todoId,
+            RedisScripts.MERGE_TODO.run(
+                    redis,
+                    Collections.singletonList(Constants.REDIS_TODO_KEY),
+                    Arrays.asList(todoId, RedisScripts.patchOf(newTodo)),
                     x -> {
                         if (x.succeeded()) {
-                            String result = x.result();
+                            String result = RedisScripts.mergedOf(x.result());
                             if (result == null) {
                                 sendError(404, context.response());
                             } else {
-                                Todo oldTodo = new Todo(result);
-                                String response = Json.encodePrettily(oldTodo.merge(newTodo));
-
-                                redis.hset(
-                                        Constants.REDIS_TODO_KEY,
-                                        todoId,
-                                        response,
-                                        res -> {
-                                            if (res.succeeded()) {
-                                                context.response()
-                                                        .putHeader("content-type", "application/json;charset=utf8")
-                                                        .end(response);
-                                            }
-                                        });
+                                context.response()
+                                        .putHeader("content-type", "application/json;charset=utf8")
+                                        .end(Json.encodePrettily(TodoCodec.decode(result)));
                             }
                         } else {
                             sendError(503, context.response());
@@ -236,16 +240,18 @@ public class SingleApplicationVerticle extends AbstractVerticle {
                 });
     }
 
-    private Todo wrapObject(Todo todo, RoutingContext context) {
-        int id = todo.getId();
-        if (id > Todo.getIncId()) {
-            Todo.setIncIdWith(id);
-        } else if (id == 0) {
-            todo.setIncId();
-        }
+    private Future<Todo> wrapObject(Todo todo, RoutingContext context) {
+        final Future<Todo> withId = todo.getId() != 0
+                ? Future.succeededFuture(todo)
+                : idAllocator.next().map(id -> {
+                    todo.setId(id);
+                    return todo;
+                });
 
-        todo.setUrl(context.request().absoluteURI() + "/" + todo.getId());
-        return todo;
+        return withId.map(x -> {
+            x.setUrl(context.request().absoluteURI() + "/" + x.getId());
+            return x;
+        });
     }
 
     private void sendError(int statusCode, HttpServerResponse response) {
@@ -0,0 +1,35 @@
+package com.madao.verticles;
+
+import com.madao.metrics.Metrics;
+import com.madao.service.eventbus.TodoServiceHandler;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.eventbus.MessageConsumer;
+
+/**
+ * Serves the persistence chain on the event bus for {@link TodoVerticle}s
+ * running with {@code service.mode} set to {@code eventbus}. Deploy as many
+ * instances, here or on other cluster nodes, as the backend needs; the event
+ * bus spreads requests over them round robin.
+ */
+public class TodoServiceVerticle extends AbstractVerticle {
+
+    private Persistence persistence;
+    private MessageConsumer<Object> consumer;
+
+    @Override
+    public void start(Future<Void> future) throws Exception {
+        final Metrics metrics = config().getBoolean("metrics.enabled", false) ? Metrics.get(vertx) : null;
+        persistence = new Persistence(vertx, config(), metrics);
+        persistence.start(persistence.service());
+
+        consumer = TodoServiceHandler.register(vertx, persistence.service(), persistence::maxId, config());
+        consumer.completionHandler(future.completer());
+    }
+
+    @Override
+    public void stop(Future<Void> future) throws Exception {
+        // stop taking requests first, so nothing lands in the queue being drained
+        consumer.unregister(res -> persistence.stop().setHandler(future.completer()));
+    }
+}
@@ -1,63 +1,175 @@
 package com.madao.verticles;
 
 import com.madao.Constants;
+import com.madao.entity.Deletion;
+import com.madao.entity.EncodedResponse;
 import com.madao.entity.Todo;
-import com.madao.service.JdbcTodoService;
+import com.madao.entity.TodoJson;
+import com.madao.entity.TodoPage;
+import com.madao.entity.TodoQuery;
+import com.madao.metrics.Counter;
+import com.madao.metrics.Family;
+import com.madao.metrics.Gauge;
+import com.madao.metrics.Histogram;
+import com.madao.metrics.Metrics;
+import com.madao.service.CachingTodoService;
+import com.madao.service.ChangeFeedTodoService;
+import com.madao.service.CircuitOpenException;
+import com.madao.service.Deletions;
+import com.madao.service.MetricsTodoService;
 import com.madao.service.RedisTodoService;
+import com.madao.service.ResponseCachingTodoService;
+import com.madao.service.SingleFlightTodoService;
+import com.madao.service.TodoPageStream;
 import com.madao.service.TodoService;
+import com.madao.service.eventbus.EventBusTodoService;
+import com.madao.service.id.IdAllocator;
+import com.madao.service.id.IdTakenException;
+import com.madao.service.id.JdbcIdAllocator;
+import com.madao.service.id.LocalIdAllocator;
+import com.madao.service.id.RedisIdAllocator;
 import io.vertx.codegen.annotations.Nullable;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.Http2Settings;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.JksOptions;
+import io.vertx.core.streams.ReadStream;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
 import io.vertx.ext.web.handler.CorsHandler;
-import io.vertx.redis.RedisOptions;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
 
 public class TodoVerticle extends AbstractVerticle {
-    private static final String HOST = "0.0.0.0";
-    private static final int PORT = 8082;
+    private static final String DEFAULT_HOST = "0.0.0.0";
+    private static final int DEFAULT_PORT = 8082;
+
+    private static final String PARAM_CURSOR = "cursor";
+    private static final String PARAM_LIMIT = "limit";
+    private static final String PARAM_STREAM = "stream";
+    private static final String PARAM_COMPLETED = "completed";
+    private static final String PARAM_SORT = "sort";
+    private static final int DEFAULT_PAGE_LIMIT = 100;
+    private static final int MAX_PAGE_LIMIT = 1000;
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final long EVENT_LOOP_PROBE_INTERVAL = 100; // ms
 
     private TodoService service;
+    private ResponseCachingTodoService responses; // null unless response_cache.enabled
+    private Persistence persistence; // null in eventbus mode
+    private ChangeFeed changes; // null unless changes.enabled
+    private IdAllocator idAllocator;
+    private Predicate<String> isCursor; // whether a cursor parameter has the backend's format
+    private ResponseCompression compression;
+    private AdmissionControl admission;
+    private Deletions deletions;
+
+    private Metrics metrics; // null unless metrics.enabled
+    private Family<Histogram> httpDuration;
+    private Family<Gauge> httpInFlight;
+    private Family<Counter> httpResponses;
+    private long probeExpectedAt;
 
     private void initData() {
         final String serviceType = config().getString("service.type", "redis");
-        switch (serviceType) {
+        IntSupplier idFloor = () -> 0;
+        EventBusTodoService eventBus = null;
+
+        switch (config().getString("service.mode", "local")) {
+            case "eventbus":
+                // the backend runs in TodoServiceVerticles, which initialize it themselves
+                eventBus = new EventBusTodoService(vertx, config());
+                service = eventBus;
+                if (metrics != null) {
+                    service = new MetricsTodoService(metrics, service, "eventbus");
+                }
+                if (config().getBoolean("single_flight.enabled", true)) {
+                    service = new SingleFlightTodoService(service, metrics);
+                }
+                break;
+            default:
+                persistence = new Persistence(vertx, config(), metrics);
+                idFloor = persistence.idFloor();
+                service = persistence.service();
+                break;
+        }
+
+        isCursor = "redis".equals(serviceType)
+                ? cursor -> cursor == null || RedisTodoService.isCursor(cursor)
+                : cursor -> cursor == null || TodoPage.isIdCursor(cursor);
+
+        // ids come from the backend by default, so every instance and node shares one sequence
+        final int blockSize = config().getInteger("id.block_size", 100);
+        switch (config().getString("id.allocator", serviceType)) {
             case "jdbc":
-                service = new JdbcTodoService(vertx, config());
+                idAllocator = new JdbcIdAllocator(vertx, config(), blockSize);
                 break;
             case "redis":
-                RedisOptions config = new RedisOptions()
-                        .setHost(config().getString("redis.host", "127.0.0.1"))
-                        .setPort(config().getInteger("redis.port", 6379));
-
-                service = new RedisTodoService(vertx, config);
+                idAllocator = new RedisIdAllocator(vertx, Persistence.redisOptions(config()),
+                        Persistence.redisEndpoints(config()), blockSize);
+                break;
+            default:
+                if (eventBus == null) {
+                    idAllocator = new LocalIdAllocator(vertx, blockSize, idFloor);
+                } else if (vertx.isClustered()) {
+                    // every node would count from the same floor and hand out the same ids
+                    throw new IllegalStateException("A clustered eventbus backend needs id.allocator jdbc or redis");
+                } else {
+                    idAllocator = new LocalIdAllocator(vertx, blockSize, eventBus::maxId);
+                }
                 break;
         }
 
-        service.initData().setHandler(
-                res -> {
-                    if (res.failed()) {
-                        System.err.println("[Error] Persistence service is not running!");
-                        res.cause().printStackTrace();
-                    }
-                }
-        );
+        if (config().getBoolean("cache.enabled", false)) {
+            service = new CachingTodoService(vertx, service, config());
+        }
+        if (config().getBoolean("response_cache.enabled", false)) {
+            responses = new ResponseCachingTodoService(vertx, service, config());
+            service = responses;
+        }
+        if (config().getBoolean("changes.enabled", false)) {
+            service = new ChangeFeedTodoService(vertx, service);
+            changes = new ChangeFeed(vertx, config(), metrics);
+        }
+
+        if (persistence != null) {
+            persistence.start(service);
+        }
     }
 
     @Override
     public void start(Future<Void> future) throws Exception {
+        initMetrics();
         initData();
+        compression = new ResponseCompression(config());
+        admission = new AdmissionControl(vertx, config(), metrics);
+        deletions = new Deletions(vertx);
+        if (persistence == null) {
+            // the backend may run its deletions on another node; the consumer goes with the verticle
+            deletions.follow();
+        }
 
         Router router = Router.router(vertx);
 
@@ -81,25 +193,143 @@ public class TodoVerticle extends AbstractVerticle {
                         .allowedMethods(allowMethods)
         );
 
-        router.get(Constants.API_GET).handler(this::handleGetTodo);
-        router.get(Constants.API_LIST_ALL).handler(this::handleGetAll);
-        router.post(Constants.API_CREATE).handler(this::handleCreateTodo);
-        router.patch(Constants.API_UPDATE).handler(this::handleUpdateTodo);
-        router.delete(Constants.API_DELETE).handler(this::handleDeleteOne);
-        router.delete(Constants.API_DELETE_ALL).handler(this::handleDeleteAll);
+        // batch and feed routes first, "/todos/:todoId" would swallow them otherwise
+        router.post(Constants.API_BATCH_CREATE).handler(handled("create_batch", this::handleCreateBatch));
+        router.patch(Constants.API_BATCH_UPDATE).handler(handled("update_batch", this::handleUpdateBatch));
+        router.delete(Constants.API_BATCH_DELETE).handler(handled("delete_batch", this::handleDeleteBatch));
+        router.get(Constants.API_DELETION).handler(handled("get_deletion", this::handleGetDeletion));
+        if (changes != null) {
+            // long-lived, so kept out of the request latency metrics
+            router.get(Constants.API_CHANGES).handler(changes::subscribe);
+        }
+
+        router.get(Constants.API_GET).handler(handled("get_todo", this::handleGetTodo));
+        router.get(Constants.API_LIST_ALL).handler(handled("list_todos", this::handleGetAll));
+        router.post(Constants.API_CREATE).handler(handled("create_todo", this::handleCreateTodo));
+        router.patch(Constants.API_UPDATE).handler(handled("update_todo", this::handleUpdateTodo));
+        router.delete(Constants.API_DELETE).handler(handled("delete_todo", this::handleDeleteOne));
+        router.delete(Constants.API_DELETE_ALL).handler(handled("delete_all", this::handleDeleteAll));
 
-        vertx.createHttpServer()
+        if (metrics != null) {
+            router.get(Constants.API_METRICS).handler(this::handleMetrics);
+        }
+
+        vertx.createHttpServer(serverOptions())
                 .requestHandler(router::accept)
-                .listen(
-                        PORT,
-                        HOST,
-                        result -> {
-                            if (result.succeeded()) {
-                                future.complete();
-                            } else {
-                                future.fail(future.cause());
-                            }
-                        });
+                .listen(result -> {
+                    if (result.succeeded()) {
+                        future.complete();
+                    } else {
+                        future.fail(result.cause());
+                    }
+                });
+    }
+
+    /**
+     * HTTP/2 is always on: with {@code http.ssl} it is negotiated through
+     * ALPN, without it clients that know the server speaks h2c can open a
+     * connection with the HTTP/2 preface straight away. Compression is
+     * {@link ResponseCompression}'s job, not Netty's.
+     */
+    private HttpServerOptions serverOptions() {
+        final JsonObject config = config();
+        final HttpServerOptions options = new HttpServerOptions()
+                .setHost(config.getString("http.host", DEFAULT_HOST))
+                .setPort(config.getInteger("http.port", DEFAULT_PORT))
+                // responses go out in one write, there is nothing to gain from Nagle
+                .setTcpNoDelay(config.getBoolean("http.tcp_no_delay", true))
+                .setTcpKeepAlive(config.getBoolean("http.tcp_keep_alive", true))
+                // seconds without traffic before a kept-alive connection is closed, 0 for never
+                .setIdleTimeout(config.getInteger("http.idle_timeout", 60))
+                .setAcceptBacklog(config.getInteger("http.accept_backlog", HttpServerOptions.DEFAULT_ACCEPT_BACKLOG))
+                .setInitialSettings(new Http2Settings()
+                        .setMaxConcurrentStreams(config.getLong("http.h2.max_concurrent_streams",
+                                HttpServerOptions.DEFAULT_INITIAL_SETTINGS_MAX_CONCURRENT_STREAMS))
+                        .setInitialWindowSize(config.getInteger("http.h2.initial_window_size",
+                                Http2Settings.DEFAULT_INITIAL_WINDOW_SIZE)))
+                .setHttp2ConnectionWindowSize(config.getInteger("http.h2.connection_window_size",
+                        HttpServerOptions.DEFAULT_HTTP2_CONNECTION_WINDOW_SIZE));
+
+        if (config.getBoolean("http.ssl", false)) {
+            options.setSsl(true)
+                    .setUseAlpn(true)
+                    .setKeyStoreOptions(new JksOptions()
+                            .setPath(config.getString("http.ssl.keystore"))
+                            .setPassword(config.getString("http.ssl.password")));
+        }
+        return options;
+    }
+
+    private void initMetrics() {
+        if (!config().getBoolean("metrics.enabled", false)) {
+            return;
+        }
+
+        metrics = Metrics.get(vertx);
+        httpDuration = metrics.histogram("todo_http_request_duration_seconds",
+                "Time from routing a request to the end of its response.", "route");
+        httpInFlight = metrics.gauge("todo_http_requests_in_flight",
+                "Requests routed but not yet answered.", "route");
+        httpResponses = metrics.counter("todo_http_responses_total",
+                "Responses sent, by status code.", "route", "status");
+
+        // a timer that fires late means the event loop was busy with something else
+        final Histogram loopDelay = metrics.histogram("todo_event_loop_delay_seconds",
+                "How late a periodic timer fires on the verticle's event loop.").labels();
+        probeExpectedAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(EVENT_LOOP_PROBE_INTERVAL);
+        vertx.setPeriodic(EVENT_LOOP_PROBE_INTERVAL, id -> {
+            final long now = System.nanoTime();
+            loopDelay.observeNanos(Math.max(0, now - probeExpectedAt));
+            probeExpectedAt = now + TimeUnit.MILLISECONDS.toNanos(EVENT_LOOP_PROBE_INTERVAL);
+        });
+    }
+
+    // shed requests are timed too, so they show up in the response metrics
+    private Handler<RoutingContext> handled(String route, Handler<RoutingContext> handler) {
+        return timed(route, admission.limit(route, handler));
+    }
+
+    private Handler<RoutingContext> timed(String route, Handler<RoutingContext> handler) {
+        if (metrics == null) {
+            return handler;
+        }
+
+        final Histogram duration = httpDuration.labels(route);
+        final Gauge inFlight = httpInFlight.labels(route);
+        return context -> {
+            final long started = System.nanoTime();
+            inFlight.inc();
+            // a client that hangs up early still leaves, it just gets no response to count
+            ResponseDone.then(context, sent -> {
+                inFlight.dec();
+                if (sent) {
+                    duration.observeSince(started);
+                    httpResponses.labels(route, String.valueOf(context.response().getStatusCode())).inc();
+                }
+            });
+            handler.handle(context);
+        };
+    }
+
+    private void handleMetrics(RoutingContext context) {
+        context.response()
+                .putHeader(Constants.KEY_CONTENT_TYPE, Metrics.CONTENT_TYPE)
+                .end(metrics.scrape());
+    }
+
+    @Override
+    public void stop(Future<Void> future) throws Exception {
+        if (changes != null) {
+            changes.close();
+        }
+        if (compression != null) {
+            compression.close();
+        }
+        if (persistence == null) {
+            future.complete();
+        } else {
+            persistence.stop().setHandler(future.completer());
+        }
     }
 
     private <T> Handler<AsyncResult<T>> resultHandler(RoutingContext context, Consumer<T> consumer) {
@@ -107,7 +337,7 @@ public class TodoVerticle extends AbstractVerticle {
             if (res.succeeded()) {
                 consumer.accept(res.result());
             } else {
-                serviceUnavailable(context);
+                serviceFailed(context, res.cause());
             }
         };
     }
@@ -119,52 +349,199 @@ public class TodoVerticle extends AbstractVerticle {
             return;
         }
 
-        service.getCertain(todoId).setHandler(
+        final Future<Optional<EncodedResponse>> encoded = responses != null
+                ? responses.getCertainEncoded(todoId)
+                : service.getCertain(todoId).map(res -> res.map(EncodedResponse::of));
+        encoded.setHandler(
                 resultHandler(context, res -> {
                     if (!res.isPresent()) {
                         notFound(context);
                     } else {
-                        final String encoded = Json.encode(res.get());
-                        context.response()
-                                .putHeader(Constants.KEY_CONTENT_TYPE, Constants.VALUE_CONTENT_TYPE)
-                                .end(encoded);
+                        sendEncoded(context, res.get());
                     }
                 })
         );
     }
 
     private void handleGetAll(RoutingContext context) {
-        service.getAll().setHandler(
+        final HttpServerRequest request = context.request();
+        final boolean paged = request.getParam(PARAM_CURSOR) != null
+                || request.getParam(PARAM_LIMIT) != null;
+        final boolean stream = Boolean.parseBoolean(request.getParam(PARAM_STREAM));
+        final boolean filtered = request.getParam(PARAM_COMPLETED) != null
+                || request.getParam(PARAM_SORT) != null;
+
+        if (filtered) {
+            if (request.getParam(PARAM_CURSOR) != null || stream) {
+                badRequest(context); // a query is one page, there is nothing to continue
+            } else {
+                handleQuery(context);
+            }
+            return;
+        }
+        if (paged || stream) {
+            final int limit = limitParam(context);
+            if (limit <= 0) {
+                badRequest(context);
+            } else if (stream) {
+                handleStreamAll(context, limit);
+            } else if (!isCursor.test(request.getParam(PARAM_CURSOR))) {
+                badRequest(context); // cursors come from earlier pages, anything else is the client's mistake
+            } else {
+                handleGetPage(context, request.getParam(PARAM_CURSOR), limit);
+            }
+            return;
+        }
+
+        final Future<EncodedResponse> encoded = responses != null
+                ? responses.getAllEncoded()
+                : service.getAll().map(res -> res == null ? null : EncodedResponse.of(res));
+        encoded.setHandler(
                 resultHandler(context, res -> {
                     if (res == null) {
                         serviceUnavailable(context);
                     } else {
-                        final String encoded = Json.encodePrettily(res);
-                        context.response()
-                                .putHeader(Constants.KEY_CONTENT_TYPE, Constants.VALUE_CONTENT_TYPE)
-                                .end(encoded);
+                        sendEncoded(context, res);
                     }
                 })
         );
     }
 
-    private void handleCreateTodo(RoutingContext context) {
+    // 304 when the client already holds this body; only cached bodies are worth an ETag up front
+    private void sendEncoded(RoutingContext context, EncodedResponse encoded) {
+        compression.end(context.request(), context.response(), encoded, responses != null);
+    }
+
+    // compressed when it is large enough and the client accepts it
+    private void end(RoutingContext context, String body) {
+        end(context, Buffer.buffer(body));
+    }
+
+    private void end(RoutingContext context, Buffer body) {
+        compression.end(context.request(), context.response(), body);
+    }
+
+    private int limitParam(RoutingContext context) {
+        final String limit = context.request().getParam(PARAM_LIMIT);
+        final int defaultLimit = config().getInteger("page.default_limit", DEFAULT_PAGE_LIMIT);
+        final int maxLimit = config().getInteger("page.max_limit", MAX_PAGE_LIMIT);
+        if (limit == null) {
+            return defaultLimit;
+        }
         try {
-            final Todo todo = writeObject(new Todo(context.getBodyAsJson()), context);
-            final String encoded = Json.encodePrettily(todo);
+            return Math.min(Integer.parseInt(limit), maxLimit);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
 
-            service.insert(todo).setHandler(
-                    resultHandler(context, res -> {
-                        if (res) {
-                            context.response()
-                                    .setStatusCode(201)
-                                    .putHeader("content-type", "application/json;charset=utf8")
-                                    .end(encoded);
-                        } else {
-                            serviceUnavailable(context);
-                        }
-                    })
-            );
+    private void handleQuery(RoutingContext context) {
+        final HttpServerRequest request = context.request();
+        final String completed = request.getParam(PARAM_COMPLETED);
+        final TodoQuery.Sort sort = TodoQuery.Sort.of(request.getParam(PARAM_SORT));
+        final int limit = limitParam(context);
+        if (sort == null || limit <= 0
+                || (completed != null && !"true".equals(completed) && !"false".equals(completed))) {
+            badRequest(context);
+            return;
+        }
+
+        final Boolean filter = completed == null ? null : Boolean.valueOf(completed);
+        service.query(new TodoQuery(filter, sort, limit)).setHandler(
+                resultHandler(context, res -> {
+                    context.response().putHeader(Constants.KEY_CONTENT_TYPE, Constants.VALUE_CONTENT_TYPE);
+                    end(context, TodoJson.encode(res));
+                })
+        );
+    }
+
+    private void handleGetPage(RoutingContext context, String cursor, int limit) {
+        service.getPage(cursor, limit).setHandler(
+                resultHandler(context, page -> {
+                    final HttpServerResponse response = context.response()
+                            .putHeader(Constants.KEY_CONTENT_TYPE, Constants.VALUE_CONTENT_TYPE);
+                    if (page.hasMore()) {
+                        response.putHeader(Constants.KEY_NEXT_CURSOR, page.getCursor());
+                    }
+                    end(context, TodoJson.encode(page.getTodos()));
+                })
+        );
+    }
+
+    /**
+     * Chunked variant of {@link #handleGetAll}: pages through the backend and
+     * writes every page as soon as it arrives, so neither the full list nor
+     * its encoding is ever held in memory. The next page is only requested
+     * once the connection has drained.
+     */
+    private void handleStreamAll(RoutingContext context, int pageSize) {
+        context.response()
+                .setChunked(true)
+                .putHeader(Constants.KEY_CONTENT_TYPE, Constants.VALUE_CONTENT_TYPE)
+                .write("[");
+        // through the whole service chain, so every page passes the circuit breaker and the metrics
+        streamRows(context, new TodoPageStream(service, pageSize));
+    }
+
+    // batch after batch, paused whenever the client falls behind
+    private void streamRows(RoutingContext context, ReadStream<List<Todo>> rows) {
+        final HttpServerResponse response = context.response();
+        final boolean[] first = {true};
+        ResponseDone.then(context, sent -> {
+            if (!sent) {
+                rows.handler(null);
+            }
+        });
+        response.drainHandler(v -> rows.resume());
+        rows.exceptionHandler(cause -> {
+            if (!response.closed()) {
+                // the status line is already sent, so a reset is the only way to signal failure
+                response.close();
+            }
+        });
+        rows.endHandler(v -> {
+            if (!response.closed()) {
+                response.end("]");
+            }
+        });
+        rows.handler(batch -> {
+            if (response.closed()) {
+                rows.handler(null);
+                return;
+            }
+            final Buffer chunk = Buffer.buffer();
+            for (Todo todo : batch) {
+                if (!first[0]) {
+                    chunk.appendString(",");
+                }
+                TodoJson.encode(todo, chunk);
+                first[0] = false;
+            }
+            response.write(chunk);
+            if (response.writeQueueFull()) {
+                rows.pause();
+            }
+        });
+    }
+
+    private void handleCreateTodo(RoutingContext context) {
+        try {
+            final Todo todo = TodoJson.decode(context.getBody());
+
+            writeObject(todo, context.request().absoluteURI())
+                    .compose(service::insert)
+                    .setHandler(
+                            resultHandler(context, res -> {
+                                if (res) {
+                                    context.response()
+                                            .setStatusCode(201)
+                                            .putHeader("content-type", "application/json;charset=utf8");
+                                    end(context, Json.encodePrettily(todo));
+                                } else {
+                                    serviceUnavailable(context);
+                                }
+                            })
+                    );
         } catch (DecodeException e) {
             sendError(400, context.response());
         }
@@ -173,7 +550,7 @@ public class TodoVerticle extends AbstractVerticle {
     private void handleUpdateTodo(RoutingContext context) {
         try {
             @Nullable String todoId = context.request().getParam("todoId");
-            final Todo newTodo = new Todo(context.getBodyAsString());
+            final Todo newTodo = TodoJson.decode(context.getBody());
 
             if (todoId == null) {
                 sendError(404, context.response());
@@ -187,8 +564,8 @@ public class TodoVerticle extends AbstractVerticle {
                         } else {
                             final String encoded = Json.encodePrettily(res);
                             context.response()
-                                    .putHeader(Constants.KEY_CONTENT_TYPE, Constants.VALUE_CONTENT_TYPE)
-                                    .end(encoded);
+                                    .putHeader(Constants.KEY_CONTENT_TYPE, Constants.VALUE_CONTENT_TYPE);
+                            end(context, encoded);
                         }
                     })
             );
@@ -198,6 +575,86 @@ public class TodoVerticle extends AbstractVerticle {
 
     }
 
+    // decoded straight from the body, and refused at the first element over the limit
+    private List<Todo> todoBatch(RoutingContext context) {
+        return TodoJson.decodeArray(context.getBody(), config().getInteger("batch.max_size", MAX_BATCH_SIZE));
+    }
+
+    private JsonArray batchBody(RoutingContext context) {
+        final JsonArray body = context.getBodyAsJsonArray();
+        if (body == null || body.size() > config().getInteger("batch.max_size", MAX_BATCH_SIZE)) {
+            throw new DecodeException("Batch body must be an array of at most "
+                    + config().getInteger("batch.max_size", MAX_BATCH_SIZE) + " elements");
+        }
+        return body;
+    }
+
+    private void handleCreateBatch(RoutingContext context) {
+        try {
+            final String baseUri = batchBaseUri(context);
+            final List<Todo> todos = todoBatch(context);
+            final List<Future> written = new ArrayList<>();
+            for (Todo todo : todos) {
+                written.add(writeObject(todo, baseUri));
+            }
+
+            CompositeFuture.all(written)
+                    .compose(all -> service.insertMany(todos))
+                    .setHandler(
+                            resultHandler(context, res -> {
+                                if (res) {
+                                    context.response()
+                                            .setStatusCode(201)
+                                            .putHeader(Constants.KEY_CONTENT_TYPE, Constants.VALUE_CONTENT_TYPE);
+                                    end(context, Json.encodePrettily(todos));
+                                } else {
+                                    serviceUnavailable(context);
+                                }
+                            })
+                    );
+        } catch (DecodeException e) {
+            badRequest(context);
+        }
+    }
+
+    private void handleUpdateBatch(RoutingContext context) {
+        try {
+            final List<Todo> patches = todoBatch(context);
+            for (Todo patch : patches) {
+                if (patch.getId() == 0) {
+                    badRequest(context);
+                    return;
+                }
+            }
+
+            service.updateMany(patches).setHandler(
+                    resultHandler(context, res -> {
+                        context.response().putHeader(Constants.KEY_CONTENT_TYPE, Constants.VALUE_CONTENT_TYPE);
+                        end(context, Json.encodePrettily(res));
+                    })
+            );
+        } catch (DecodeException e) {
+            badRequest(context);
+        }
+    }
+
+    private void handleDeleteBatch(RoutingContext context) {
+        try {
+            final List<String> todoIds = new ArrayList<>();
+            for (Object item : batchBody(context)) {
+                if (!(item instanceof Number || item instanceof String)) {
+                    badRequest(context);
+                    return;
+                }
+                todoIds.add(String.valueOf(item));
+            }
+
+            service.deleteMany(todoIds).setHandler(deleteResultHandler(context));
+        } catch (DecodeException e) {
+            badRequest(context);
+        }
+    }
+
     private Handler<AsyncResult<Boolean>> deleteResultHandler(RoutingContext context) {
         return res -> {
             if (res.succeeded()) {
@@ -207,7 +664,7 @@ public class TodoVerticle extends AbstractVerticle {
                     serviceUnavailable(context);
                 }
             } else {
-                serviceUnavailable(context);
+                serviceFailed(context, res.cause());
             }
         };
     }
@@ -222,9 +679,44 @@ public class TodoVerticle extends AbstractVerticle {
         service.delete(todoId).setHandler(deleteResultHandler(context));
     }
 
+    /**
+     * 204 when the backend is already done, otherwise 202 with the deletion
+     * to poll at {@code /todos/deletions/:deletionId} while the backend
+     * purges the rest in the background.
+     */
     private void handleDeleteAll(RoutingContext context) {
-        service.deleteAll()
-                .setHandler(deleteResultHandler(context));
+        service.deleteAll().setHandler(
+                resultHandler(context, deletion -> {
+                    if (deletion.isDone()) {
+                        context.response().setStatusCode(204).end();
+                    } else {
+                        sendDeletion(context.response()
+                                .setStatusCode(202)
+                                .putHeader(Constants.KEY_LOCATION, deletionUri(context, deletion)), deletion);
+                    }
+                })
+        );
+    }
+
+    // the progress is kept per Vert.x instance, a deletion run by another node is not found
+    private void handleGetDeletion(RoutingContext context) {
+        final Deletion deletion = deletions.get(context.request().getParam("deletionId"));
+        if (deletion == null) {
+            notFound(context);
+        } else {
+            sendDeletion(context.response(), deletion);
+        }
+    }
+
+    private static void sendDeletion(HttpServerResponse response, Deletion deletion) {
+        response.putHeader(Constants.KEY_CONTENT_TYPE, Constants.VALUE_CONTENT_TYPE)
+                .end(deletion.toJson().encode());
+    }
+
+    // "http://host/todos" -> "http://host/todos/deletions/<id>"
+    private static String deletionUri(RoutingContext context, Deletion deletion) {
+        final String uri = context.request().absoluteURI();
+        return uri.substring(0, uri.lastIndexOf('/')) + Constants.API_DELETION.replace(":deletionId", deletion.getId());
     }
 
     private void sendError(int statusCode, HttpServerResponse response) {
@@ -243,16 +735,48 @@ public class TodoVerticle extends AbstractVerticle {
         context.response().setStatusCode(503).end();
     }
 
-    private Todo writeObject(Todo todo, RoutingContext context) {
-        int id = todo.getId();
+    private void tooManyRequests(RoutingContext context) {
+        context.response().setStatusCode(429).end();
+    }
+
+    // a full write queue is the client's cue to back off, anything else is on us
+    private void serviceFailed(RoutingContext context, Throwable cause) {
+        if (cause instanceof IllegalArgumentException) {
+            badRequest(context);
+        } else if (cause instanceof RejectedExecutionException) {
+            tooManyRequests(context);
+        } else if (cause instanceof IdTakenException) {
+            context.response().setStatusCode(409).end();
+        } else if (cause instanceof CircuitOpenException) {
+            // whole seconds, rounded up
+            final long retryAfter = (((CircuitOpenException) cause).getRetryAfterMillis() + 999) / 1000;
+            context.response().putHeader(Constants.KEY_RETRY_AFTER, String.valueOf(Math.max(1, retryAfter)));
+            serviceUnavailable(context);
+        } else {
+            serviceUnavailable(context);
+        }
+    }
+
+    // "http://host/todos/batch" -> "http://host/todos"
+    private String batchBaseUri(RoutingContext context) {
+        final String uri = context.request().absoluteURI();
+        return uri.substring(0, uri.lastIndexOf('/'));
+    }
 
-        if (id > Todo.getIncId()) {
-            Todo.setIncIdWith(id);
-        } else if (id == 0) {
-            todo.setIncId();
+    /**
+     * Give the todo an id (unless the client chose one, which is then
+     * claimed from the sequence) and its url.
+     */
+    private Future<Todo> writeObject(Todo todo, String baseUri) {
+        if (todo.getId() != 0) {
+            todo.setUrl(baseUri + "/" + todo.getId());
+            return idAllocator.claim(todo.getId()).map(v -> todo);
         }
 
-        todo.setUrl(context.request().absoluteURI() + "/" + todo.getId());
-        return todo;
+        return idAllocator.next().map(id -> {
+            todo.setId(id);
+            todo.setUrl(baseUri + "/" + id);
+            return todo;
+        });
     }
 }
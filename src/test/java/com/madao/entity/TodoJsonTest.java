@@ -0,0 +1,133 @@
+package com.madao.entity;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link TodoJson} against the slower paths it replaces: decoding must give
+ * the todo {@code new Todo(JsonObject)} gives, encoding the bytes of
+ * {@code Json.encode}.
+ */
+public class TodoJsonTest {
+
+    private static final List<String> DOCUMENTS = Arrays.asList(
+            "{}",
+            "{\"id\":7,\"title\":\"plain\",\"completed\":true,\"order\":3,\"url\":\"todo/7\"}",
+            // wrong types leave the field unset
+            "{\"id\":\"7\",\"title\":7,\"completed\":\"true\",\"order\":\"3\",\"url\":false}",
+            "{\"id\":null,\"title\":null,\"completed\":null,\"order\":null,\"url\":null}",
+            "{\"id\":[1],\"title\":{\"a\":\"b\"},\"completed\":1,\"order\":[],\"url\":{}}",
+            // the last of repeated keys wins, even when it has the wrong type
+            "{\"id\":1,\"id\":2,\"title\":\"first\",\"title\":\"second\"}",
+            "{\"title\":\"kept?\",\"title\":5,\"order\":4,\"order\":\"x\",\"completed\":true,\"completed\":0}",
+            "{\"id\":\"x\",\"id\":9}",
+            // unknown keys, nested or not, are skipped
+            "{\"extra\":{\"id\":99,\"title\":\"nested\"},\"id\":3,\"more\":[{\"order\":1}],\"order\":2}",
+            // escapes and characters beyond the BMP
+            "{\"title\":\"quote \\\" backslash \\\\ slash \\/ tab \\t newline \\n nul \\u0000\"}",
+            "{\"title\":\"\\u00e9\\u4e2d\\ud83d\\ude00\",\"url\":\"caf\u00e9 \ud83d\ude00\"}",
+            "{\"title\":\"lone \\ud83d high\",\"url\":\"lone \\ude00 low\"}",
+            // numbers as doubles, longs and beyond
+            "{\"id\":1.9,\"order\":-1.9}",
+            "{\"id\":1e3,\"order\":2.5E-3}",
+            "{\"id\":3000000000,\"order\":-3000000000}",
+            "{\"id\":9223372036854775807,\"order\":-9223372036854775808}",
+            "{\"id\":99999999999999999999,\"order\":-99999999999999999999}",
+            "{\"id\":1e20,\"order\":-1e20}",
+            "{\"id\":2147483647,\"order\":-2147483648}",
+            "{\"id\":-0,\"order\":-0.0}");
+
+    private static final List<String> MALFORMED = Arrays.asList(
+            "",
+            "[]",
+            "\"todo\"",
+            "42",
+            "{\"id\":1",
+            "{\"id\":}",
+            "{id:1}");
+
+    @Test
+    public void decodesLikeJsonObject() {
+        for (String json : DOCUMENTS) {
+            final Todo expected = new Todo(new JsonObject(json));
+            assertSameTodo(json + " as a string", expected, TodoJson.decode(json));
+            assertSameTodo(json + " as a buffer", expected, TodoJson.decode(Buffer.buffer(json)));
+        }
+    }
+
+    @Test
+    public void decodesArraysLikeJsonObject() {
+        final StringBuilder array = new StringBuilder("[");
+        for (String json : DOCUMENTS) {
+            array.append(array.length() > 1 ? "," : "").append(json);
+        }
+        final List<Todo> todos = TodoJson.decodeArray(Buffer.buffer(array.append(']').toString()), DOCUMENTS.size());
+        Assert.assertEquals(DOCUMENTS.size(), todos.size());
+        for (int i = 0; i < todos.size(); i++) {
+            final String json = DOCUMENTS.get(i);
+            assertSameTodo(json + " in an array", new Todo(new JsonObject(json)), todos.get(i));
+        }
+    }
+
+    @Test
+    public void refusesWhatJsonObjectRefuses() {
+        for (String json : MALFORMED) {
+            try {
+                new JsonObject(json);
+                Assert.fail(json + " accepted by JsonObject");
+            } catch (DecodeException | ClassCastException expected) {
+                // the reference refuses it, so TodoJson must too
+            }
+            try {
+                TodoJson.decode(Buffer.buffer(json));
+                Assert.fail(json + " accepted by TodoJson");
+            } catch (DecodeException expected) {
+                // refused
+            }
+        }
+    }
+
+    @Test
+    public void encodesLikeJsonEncode() {
+        final List<Todo> todos = Arrays.asList(
+                new Todo(),
+                new Todo(1, "plain", true, 2, "todo/1"),
+                new Todo(0, null, null, null, null),
+                new Todo(-5, "", false, -7, ""),
+                new Todo(Integer.MAX_VALUE, "max", true, Integer.MIN_VALUE, "todo/max"),
+                new Todo(Integer.MIN_VALUE, "min", false, Integer.MAX_VALUE, "todo/min"),
+                new Todo(10, "quote \" backslash \\ slash / tab \t newline \n return \r", null, 1, "b\bf\f"),
+                new Todo(11, "controls \u0000 \u0001 \u001f \u007f", true, 0, "nul\u0000"),
+                new Todo(12, "caf\u00e9 \u4e2d \u20ac", false, 0, "\u00ff\u0100\u07ff\u0800\uffff"),
+                new Todo(13, "emoji \ud83d\ude00 \ud800\udc00 \udbff\udfff", true, 0, "\ud83d\ude00"),
+                new Todo(14, "lone \ud83d high", false, 0, "lone \ude00 low"),
+                new Todo(15, "\ude00\ud83d reversed", false, 0, "end \ud83d"),
+                new Todo(16, "html <script>&amp;</script> '", true, 100, "todo/16?a=1&b=2"));
+
+        for (Todo todo : todos) {
+            final byte[] expected = Buffer.buffer(Json.encode(todo)).getBytes();
+            Assert.assertArrayEquals(todo.toString(), expected, TodoJson.encode(todo).getBytes());
+            final Buffer appended = Buffer.buffer("x");
+            TodoJson.encode(todo, appended);
+            Assert.assertArrayEquals(todo.toString(), expected, appended.getBuffer(1, appended.length()).getBytes());
+        }
+        Assert.assertArrayEquals(Buffer.buffer(Json.encode(todos)).getBytes(), TodoJson.encode(todos).getBytes());
+    }
+
+    private static void assertSameTodo(String message, Todo expected, Todo actual) {
+        Assert.assertEquals(message + ": id", expected.getId(), actual.getId());
+        Assert.assertEquals(message + ": title", expected.getTitle(), actual.getTitle());
+        Assert.assertEquals(message + ": has completed", expected.hasCompleted(), actual.hasCompleted());
+        Assert.assertEquals(message + ": completed", expected.isCompleted(), actual.isCompleted());
+        Assert.assertEquals(message + ": has order", expected.hasOrder(), actual.hasOrder());
+        Assert.assertEquals(message + ": order", expected.getOrder(), actual.getOrder());
+        Assert.assertEquals(message + ": url", expected.getUrl(), actual.getUrl());
+    }
+}
@@ -0,0 +1,128 @@
+package com.madao.service;
+
+import com.madao.entity.Todo;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.Timeout;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Several services on one Vert.x instance, sharing its store, the way the
+ * instances of the HTTP verticle do.
+ */
+@RunWith(VertxUnitRunner.class)
+public class InMemoryTodoServiceTest {
+
+    @Rule
+    public Timeout timeout = Timeout.seconds(30);
+
+    private Vertx vertx;
+    private Path snapshot;
+
+    @Before
+    public void setUp() throws IOException {
+        vertx = Vertx.vertx();
+        snapshot = Files.createTempFile("todos", ".json");
+        final JsonArray todos = new JsonArray();
+        for (int id = 1; id <= 3; id++) {
+            todos.add(new Todo(id, "snapshot " + id, false, id, "todo/" + id).toJson());
+        }
+        Files.write(snapshot, todos.encode().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown(TestContext context) throws IOException {
+        vertx.close(context.asyncAssertSuccess());
+        Files.deleteIfExists(snapshot);
+        Files.deleteIfExists(snapshot.resolveSibling(snapshot.getFileName() + ".tmp"));
+    }
+
+    private InMemoryTodoService service() {
+        return new InMemoryTodoService(vertx, new JsonObject()
+                .put("memory.snapshot.path", snapshot.toString())
+                .put("memory.snapshot.interval", 60_000L));
+    }
+
+    // a verticle instance deployed later must not bring the snapshot back over what changed since
+    @Test
+    public void snapshotIsLoadedOncePerStore(TestContext context) {
+        final InMemoryTodoService first = service();
+        final Async async = context.async();
+        first.initData()
+                .compose(v -> first.delete("1"))
+                .compose(v -> first.update("2", new Todo(2, "changed", null, null, null)))
+                .compose(v -> service().initData())
+                .compose(v -> first.getAll())
+                .setHandler(context.asyncAssertSuccess(all -> {
+                    context.assertEquals(2, all.size());
+                    for (Todo todo : all) {
+                        context.assertNotEquals(1, todo.getId(), "deleted todo restored");
+                        if (todo.getId() == 2) {
+                            context.assertEquals("changed", todo.getTitle());
+                        }
+                    }
+                    async.complete();
+                }));
+    }
+
+    // services starting together all wait for the one load
+    @Test
+    public void concurrentServicesShareTheLoad(TestContext context) {
+        final Async async = context.async(4);
+        for (int i = 0; i < 4; i++) {
+            final InMemoryTodoService service = service();
+            vertx.getOrCreateContext().runOnContext(v -> service.initData()
+                    .compose(loaded -> service.getAll())
+                    .setHandler(context.asyncAssertSuccess(all -> {
+                        context.assertEquals(3, all.size());
+                        async.countDown();
+                    })));
+        }
+    }
+
+    // a page index kept apart from the map could lose or repeat ids deleted and inserted again
+    @Test
+    public void pagesFollowDeletesAndInserts(TestContext context) {
+        final InMemoryTodoService service = service();
+        final Async async = context.async();
+        service.initData()
+                .compose(v -> service.delete("2"))
+                .compose(v -> service.insert(new Todo(2, "again", false, 2, "todo/2")))
+                .compose(v -> service.insert(new Todo(4, "new", false, 4, "todo/4")))
+                .compose(v -> service.getPage(null, 2))
+                .compose(first -> {
+                    context.assertEquals(2, first.getTodos().size());
+                    context.assertEquals(1, first.getTodos().get(0).getId());
+                    context.assertEquals(2, first.getTodos().get(1).getId());
+                    return service.getPage(first.getCursor(), 2);
+                })
+                .setHandler(context.asyncAssertSuccess(second -> {
+                    context.assertEquals(3, second.getTodos().get(0).getId());
+                    context.assertEquals(4, second.getTodos().get(1).getId());
+                    async.complete();
+                }));
+    }
+
+    @Test
+    public void refusesForeignCursors(TestContext context) {
+        final InMemoryTodoService service = service();
+        final Async async = context.async();
+        service.initData().compose(v -> service.getPage("1:2.5", 2)).setHandler(res -> {
+            context.assertTrue(res.cause() instanceof IllegalArgumentException);
+            async.complete();
+        });
+    }
+}
@@ -0,0 +1,213 @@
+package com.madao.service;
+
+import com.madao.entity.Deletion;
+import com.madao.entity.Todo;
+import com.madao.entity.TodoPage;
+import com.madao.entity.TodoQuery;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.Timeout;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs against an in-memory H2 database in MySQL mode, with a pool far
+ * smaller than the number of statements in flight.
+ */
+@RunWith(VertxUnitRunner.class)
+public class JdbcTodoServiceTest {
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+    private static final int POOL_SIZE = 2;
+    private static final int TODOS = 100;
+
+    @Rule
+    public Timeout timeout = Timeout.seconds(30);
+
+    private Vertx vertx;
+    private JdbcTodoService service;
+
+    static JsonObject config(int poolSize) {
+        return new JsonObject()
+                .put("url", "jdbc:h2:mem:todo" + DATABASES.incrementAndGet()
+                        + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1")
+                .put("driver_class", "org.h2.Driver")
+                .put("max_pool_size", poolSize)
+                // the statements queue for connections here, the limiter must not shed them first
+                .put("jdbc.limit.queue_timeout", 30_000L);
+    }
+
+    @Before
+    public void setUp(TestContext context) {
+        vertx = Vertx.vertx();
+        service = new JdbcTodoService(vertx, config(POOL_SIZE)
+                .put("delete_all.batch", 5)
+                .put("delete_all.pause", 20L));
+        service.initData().setHandler(context.asyncAssertSuccess());
+    }
+
+    @After
+    public void tearDown(TestContext context) {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    // a PATCH holds one connection for its whole transaction; the rest must wait for theirs, not fail
+    @Test
+    public void concurrentPatchesAtThePoolLimit(TestContext context) {
+        final List<Todo> todos = new ArrayList<>(TODOS);
+        for (int id = 1; id <= TODOS; id++) {
+            todos.add(new Todo(id, "todo " + id, false, 0, "todo/" + id));
+        }
+
+        final Async async = context.async();
+        service.insertMany(todos).compose(inserted -> {
+            final List<Future> patches = new ArrayList<>(TODOS * 3);
+            for (int id = 1; id <= TODOS; id++) {
+                final String todoId = String.valueOf(id);
+                patches.add(service.update(todoId, new Todo(id, "patched " + id, null, null, null)));
+                patches.add(service.update(todoId, new Todo(id, null, true, null, null)));
+                patches.add(service.update(todoId, new Todo(id, null, null, id * 10, null)));
+            }
+            return CompositeFuture.all(patches);
+        }).compose(patched -> {
+            for (int i = 0; i < patched.size(); i++) {
+                context.assertNotNull(patched.result(i), "patch " + i + " found no todo");
+            }
+            return service.getAll();
+        }).setHandler(context.asyncAssertSuccess(all -> {
+            context.assertEquals(TODOS, all.size());
+            for (Todo todo : all) {
+                final int id = todo.getId();
+                context.assertEquals("patched " + id, todo.getTitle(), "title of " + id);
+                context.assertEquals(true, todo.isCompleted(), "completed of " + id);
+                context.assertEquals(id * 10, todo.getOrder(), "order of " + id);
+            }
+            async.complete();
+        }));
+    }
+
+    // an allocator may still hand out ids from a block reserved before the deletion started
+    @Test
+    public void deleteAllKeepsTodosCreatedMeanwhile(TestContext context) {
+        final List<Todo> todos = new ArrayList<>(TODOS);
+        for (int id = 2; id <= TODOS * 2; id += 2) {
+            todos.add(new Todo(id, "todo " + id, false, 0, "todo/" + id));
+        }
+        final Todo late = new Todo(TODOS + 1, "late", false, 0, "todo/late");
+
+        final Async async = context.async();
+        service.insertMany(todos)
+                .compose(inserted -> service.deleteAll())
+                .compose(deletion -> service.insert(late).map(inserted -> deletion))
+                .setHandler(context.asyncAssertSuccess(deletion -> whenDone(context, deletion.getId(), () ->
+                        service.getAll().setHandler(context.asyncAssertSuccess(all -> {
+                            context.assertEquals(1, all.size());
+                            context.assertEquals(late.getId(), all.get(0).getId());
+                            async.complete();
+                        })))));
+    }
+
+    // one query per batch, and none while the stream is paused
+    @Test
+    public void pageStreamDeliversEveryRowInBatches(TestContext context) {
+        final List<Todo> todos = new ArrayList<>(TODOS);
+        for (int id = 1; id <= TODOS; id++) {
+            todos.add(new Todo(id, "todo " + id, false, 0, "todo/" + id));
+        }
+
+        final Async async = context.async();
+        service.insertMany(todos).setHandler(context.asyncAssertSuccess(v -> {
+            final AtomicInteger pages = new AtomicInteger();
+            final ReadStream<List<Todo>> rows = new TodoPageStream(new DelegatingTodoService(service) {
+                @Override
+                public Future<TodoPage> getPage(String cursor, int limit) {
+                    pages.incrementAndGet();
+                    return super.getPage(cursor, limit);
+                }
+            }, 30);
+            final List<Integer> ids = new ArrayList<>(TODOS);
+            final AtomicInteger batches = new AtomicInteger();
+            rows.exceptionHandler(context::fail);
+            rows.endHandler(end -> {
+                context.assertEquals(4, batches.get());
+                context.assertEquals(4, pages.get());
+                context.assertEquals(TODOS, ids.size());
+                for (int i = 0; i < ids.size(); i++) {
+                    context.assertEquals(i + 1, ids.get(i));
+                }
+                async.complete();
+            });
+            rows.handler(batch -> {
+                context.assertTrue(batch.size() <= 30, "batch of " + batch.size());
+                batches.incrementAndGet();
+                batch.forEach(todo -> ids.add(todo.getId()));
+                rows.pause();
+                vertx.setTimer(10, timer -> {
+                    context.assertEquals(batches.get(), pages.get(), "pages asked for while paused");
+                    rows.resume();
+                });
+            });
+        }));
+    }
+
+    // the purge takes a while in batches of 5, but nothing it still has to delete may be read meanwhile
+    @Test
+    public void deleteAllHidesTodosBeforeTheyArePurged(TestContext context) {
+        final List<Todo> todos = new ArrayList<>(TODOS);
+        for (int id = 1; id <= TODOS; id++) {
+            todos.add(new Todo(id, "todo " + id, false, 0, "todo/" + id));
+        }
+
+        final Async async = context.async();
+        service.insertMany(todos)
+                .compose(inserted -> service.deleteAll())
+                .compose(deletion -> {
+                    context.assertFalse(new Deletions(vertx).get(deletion.getId()).isDone(), "purged already");
+                    return service.getAll();
+                })
+                .compose(all -> {
+                    context.assertEquals(0, all.size(), "listed");
+                    return service.getPage(null, 10);
+                })
+                .compose(page -> {
+                    context.assertEquals(0, page.getTodos().size(), "paged");
+                    return service.query(new TodoQuery(null, TodoQuery.Sort.ORDER, 10));
+                })
+                .compose(queried -> {
+                    context.assertEquals(0, queried.size(), "queried");
+                    return service.getCertain(String.valueOf(TODOS));
+                })
+                .compose(found -> {
+                    context.assertFalse(found.isPresent(), "found");
+                    return service.update(String.valueOf(TODOS), new Todo(TODOS, "patched", null, null, null));
+                })
+                .setHandler(context.asyncAssertSuccess(patched -> {
+                    context.assertNull(patched, "patched");
+                    async.complete();
+                }));
+    }
+
+    private void whenDone(TestContext context, String deletionId, Runnable then) {
+        final Deletion deletion = new Deletions(vertx).get(deletionId);
+        context.assertNotNull(deletion, "deletion " + deletionId);
+        context.assertNull(deletion.getError());
+        if (deletion.isDone()) {
+            then.run();
+        } else {
+            vertx.setTimer(20, timer -> whenDone(context, deletionId, then));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.madao.service;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.Timeout;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.redis.RedisOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Against a fake Redis that answers with canned replies, cut into pieces
+ * that arrive in separate reads.
+ */
+@RunWith(VertxUnitRunner.class)
+public class PipelinedRedisTest {
+
+    private static final int PORT = 16379;
+
+    @Rule
+    public Timeout timeout = Timeout.seconds(30);
+
+    private Vertx vertx;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown(TestContext context) {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    // once the first command arrives, writes replies in pieces of pieceSize, one piece per millisecond
+    private void answer(TestContext context, Buffer replies, int pieceSize, Runnable then) {
+        vertx.createNetServer().connectHandler(socket -> {
+            final boolean[] answered = {false};
+            socket.handler(command -> {
+                if (!answered[0]) {
+                    answered[0] = true;
+                    drip(socket::write, replies, 0, pieceSize);
+                }
+            });
+        }).listen(PORT, "127.0.0.1", context.asyncAssertSuccess(s -> then.run()));
+    }
+
+    private void drip(Consumer<Buffer> write, Buffer replies, int from, int pieceSize) {
+        if (from < replies.length()) {
+            write.accept(replies.getBuffer(from, Math.min(from + pieceSize, replies.length())));
+            vertx.setTimer(1, t -> drip(write, replies, from + pieceSize, pieceSize));
+        }
+    }
+
+    private static PipelinedRedis redis(Vertx vertx, int maxPending) {
+        return new PipelinedRedis(vertx, new RedisOptions().setHost("127.0.0.1").setPort(PORT), maxPending);
+    }
+
+    @Test
+    public void repliesSplitAcrossReads(TestContext context) {
+        final StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 5_000; i++) {
+            large.append((char) ('a' + i % 26));
+        }
+        large.append("é中");
+        final byte[] largeBytes = large.toString().getBytes(StandardCharsets.UTF_8);
+
+        final Buffer replies = Buffer.buffer()
+                .appendString("$5\r\nhello\r\n")
+                .appendString("$-1\r\n")
+                .appendString("*3\r\n$1\r\na\r\n$0\r\n\r\n$3\r\nb\r\n\r\n")
+                .appendString("*3\r\n*2\r\n:42\r\n$-1\r\n*0\r\n-ERR inside\r\n")
+                .appendString("-ERR failed\r\n")
+                .appendString("+OK\r\n")
+                .appendString("$" + largeBytes.length + "\r\n").appendBytes(largeBytes).appendString("\r\n");
+
+        final Async async = context.async(7);
+        answer(context, replies, 7, () -> {
+            final PipelinedRedis redis = redis(vertx, 100);
+            redis.hget("k", "f", context.asyncAssertSuccess(value -> {
+                context.assertEquals("hello", value);
+                async.countDown();
+            }));
+            redis.hget("k", "missing", context.asyncAssertSuccess(value -> {
+                context.assertNull(value);
+                async.countDown();
+            }));
+            redis.hvals("k", context.asyncAssertSuccess(values -> {
+                context.assertEquals(new JsonArray().add("a").add("").add("b\r\n"), values);
+                async.countDown();
+            }));
+            redis.evalsha("sha", Collections.singletonList("k"), Collections.emptyList(),
+                    context.asyncAssertSuccess(values -> {
+                        context.assertEquals(new JsonArray()
+                                .add(new JsonArray().add(42L).addNull())
+                                .add(new JsonArray())
+                                .add("ERR inside"), values);
+                        async.countDown();
+                    }));
+            redis.eval("script", Collections.emptyList(), Arrays.asList("a", "b"), res -> {
+                context.assertTrue(res.failed());
+                context.assertEquals("ERR failed", res.cause().getMessage());
+                async.countDown();
+            });
+            redis.evalsha("sha", Collections.emptyList(), Collections.emptyList(),
+                    context.asyncAssertSuccess(values -> {
+                        context.assertEquals(new JsonArray().add("OK"), values);
+                        async.countDown();
+                    }));
+            redis.hget("k", "large", context.asyncAssertSuccess(value -> {
+                context.assertEquals(large.toString(), value);
+                async.countDown();
+            }));
+        });
+    }
+
+    // a Redis that never answers must not make the waiting commands pile up
+    @Test
+    public void refusesCommandsBeyondMaxPending(TestContext context) {
+        final Async async = context.async(2);
+        answer(context, Buffer.buffer(), 1, () -> {
+            final PipelinedRedis redis = redis(vertx, 2);
+            // these two fail only when the connection closes at the end
+            redis.hget("k", "1", res -> context.assertTrue(res.failed()));
+            redis.hget("k", "2", res -> context.assertTrue(res.failed()));
+            redis.hget("k", "3", res -> {
+                context.assertTrue(res.cause() instanceof RejectedExecutionException);
+                async.countDown();
+            });
+            vertx.setTimer(100, t -> redis.hget("k", "4", res -> {
+                context.assertTrue(res.cause() instanceof RejectedExecutionException);
+                async.countDown();
+            }));
+        });
+    }
+}
@@ -0,0 +1,140 @@
+package com.madao.service;
+
+import com.madao.Constants;
+import com.madao.entity.Todo;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.Timeout;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.redis.RedisClient;
+import io.vertx.redis.RedisOptions;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Moves todos from an unsharded hash to shards spread over the
+ * redis-servers on ports 6379, 6380 and 6381, in database 9 of each;
+ * skipped unless all three are running.
+ */
+@RunWith(VertxUnitRunner.class)
+public class RedisRebalanceTest {
+
+    private static final int[] PORTS = {6379, 6380, 6381};
+    private static final int SHARDS = 6;
+    private static final int TODOS = 300;
+
+    @Rule
+    public Timeout timeout = Timeout.seconds(30);
+
+    private Vertx vertx;
+    private List<RedisClient> servers;
+
+    @BeforeClass
+    public static void redisRunning() {
+        for (int port : PORTS) {
+            Assume.assumeTrue("no redis-server on " + RedisTodoServiceTest.HOST + ":" + port,
+                    RedisTodoServiceTest.reachable(RedisTodoServiceTest.HOST, port));
+        }
+    }
+
+    private static List<RedisOptions> endpoints() {
+        final List<RedisOptions> endpoints = new ArrayList<>(PORTS.length);
+        for (int port : PORTS) {
+            endpoints.add(RedisTodoServiceTest.options(port));
+        }
+        return endpoints;
+    }
+
+    @Before
+    public void setUp(TestContext context) {
+        vertx = Vertx.vertx();
+        servers = new ArrayList<>(PORTS.length);
+        for (RedisOptions options : endpoints()) {
+            servers.add(RedisClient.create(vertx, options));
+        }
+        flushAll().setHandler(context.asyncAssertSuccess());
+    }
+
+    @After
+    public void tearDown(TestContext context) {
+        flushAll().setHandler(context.asyncAssertSuccess(v -> vertx.close(context.asyncAssertSuccess())));
+    }
+
+    private Future<Void> flushAll() {
+        final List<Future> flushed = new ArrayList<>(servers.size());
+        for (RedisClient server : servers) {
+            final Future<String> done = Future.future();
+            server.flushdb(done.completer());
+            flushed.add(done);
+        }
+        return CompositeFuture.all(flushed).map(all -> null);
+    }
+
+    // before the sharded service has looked at the stored layout, it must already find every todo
+    @Test
+    public void todosAreFoundBeforeAndAfterTheyMove(TestContext context) {
+        final List<Todo> todos = new ArrayList<>(TODOS);
+        for (int id = 1; id <= TODOS; id++) {
+            todos.add(new Todo(id, "todo " + id, id % 2 == 0, id, "todo/" + id));
+        }
+        final RedisTodoService unsharded = new RedisTodoService(vertx, RedisTodoServiceTest.options(PORTS[0]));
+        final RedisTodoService sharded = new RedisTodoService(vertx, endpoints(),
+                SHARDS, RedisTodoService.DEFAULT_RING_POINTS);
+
+        final Async async = context.async();
+        unsharded.insertMany(todos)
+                .compose(v -> getEach(sharded))
+                .compose(found -> {
+                    context.assertEquals(TODOS, found, "found before the rebalance");
+                    return sharded.rebalance(Collections.emptyList(), 50, 1);
+                })
+                .compose(moved -> {
+                    context.assertEquals((long) TODOS, moved, "moved");
+                    return getEach(sharded);
+                })
+                .compose(found -> {
+                    context.assertEquals(TODOS, found, "found after the rebalance");
+                    final Future<Long> left = Future.future();
+                    servers.get(0).hlen(Constants.REDIS_TODO_KEY, left.completer());
+                    return left;
+                })
+                .compose(left -> {
+                    context.assertEquals(0L, left, "left in the unsharded hash");
+                    return sharded.getAll();
+                })
+                .setHandler(context.asyncAssertSuccess(all -> {
+                    context.assertEquals(TODOS, all.size());
+                    async.complete();
+                }));
+    }
+
+    // the number of todos getCertain finds, asking for all of them at once
+    private static Future<Integer> getEach(RedisTodoService service) {
+        final List<Future> gets = new ArrayList<>(TODOS);
+        for (int id = 1; id <= TODOS; id++) {
+            gets.add(service.getCertain(String.valueOf(id)));
+        }
+        return CompositeFuture.all(gets).map(all -> {
+            int found = 0;
+            for (int i = 0; i < all.size(); i++) {
+                if (all.<Optional<Todo>>result(i).isPresent()) {
+                    found++;
+                }
+            }
+            return found;
+        });
+    }
+}
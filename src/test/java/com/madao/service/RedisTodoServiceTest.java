@@ -0,0 +1,112 @@
+package com.madao.service;
+
+import com.madao.entity.Todo;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.redis.RedisClient;
+import io.vertx.redis.RedisOptions;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs against the redis-server on 127.0.0.1:6379, in database 9 which is
+ * emptied before and after every test; skipped when there is none.
+ */
+@RunWith(VertxUnitRunner.class)
+public class RedisTodoServiceTest {
+
+    static final String HOST = "127.0.0.1";
+    static final int PORT = 6379;
+    static final int DATABASE = 9;
+
+    private static final int TODOS = 100;
+
+    private Vertx vertx;
+    private RedisClient redis;
+
+    @BeforeClass
+    public static void redisRunning() {
+        Assume.assumeTrue("no redis-server on " + HOST + ":" + PORT, reachable(HOST, PORT));
+    }
+
+    static boolean reachable(String host, int port) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), 500);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static RedisOptions options(int port) {
+        return new RedisOptions().setHost(HOST).setPort(port).setSelect(DATABASE);
+    }
+
+    @Before
+    public void setUp(TestContext context) {
+        vertx = Vertx.vertx();
+        redis = RedisClient.create(vertx, options(PORT));
+        redis.flushdb(context.asyncAssertSuccess());
+    }
+
+    @After
+    public void tearDown(TestContext context) {
+        redis.flushdb(context.asyncAssertSuccess(v -> vertx.close(context.asyncAssertSuccess())));
+    }
+
+    @Test
+    public void concurrentPatchesKeepEveryField(TestContext context) {
+        concurrentPatches(context, new RedisTodoService(vertx, options(PORT)));
+    }
+
+    @Test
+    public void concurrentPipelinedPatchesKeepEveryField(TestContext context) {
+        concurrentPatches(context, new RedisTodoService(vertx, Collections.singletonList(options(PORT)),
+                1, RedisTodoService.DEFAULT_RING_POINTS, true));
+    }
+
+    // three PATCHes per todo, each setting one other field, all in flight at once
+    private void concurrentPatches(TestContext context, RedisTodoService service) {
+        final List<Todo> todos = new ArrayList<>(TODOS);
+        for (int id = 1; id <= TODOS; id++) {
+            todos.add(new Todo(id, "todo " + id, false, 0, "todo/" + id));
+        }
+
+        final Async async = context.async();
+        service.insertMany(todos).compose(inserted -> {
+            final List<Future> patches = new ArrayList<>(TODOS * 3);
+            for (int id = 1; id <= TODOS; id++) {
+                final String todoId = String.valueOf(id);
+                patches.add(service.update(todoId, new Todo(id, "patched " + id, null, null, null)));
+                patches.add(service.update(todoId, new Todo(id, null, true, null, null)));
+                patches.add(service.update(todoId, new Todo(id, null, null, id * 10, null)));
+            }
+            return CompositeFuture.all(patches);
+        }).compose(patched -> service.getAll()).setHandler(context.asyncAssertSuccess(all -> {
+            context.assertEquals(TODOS, all.size());
+            for (Todo todo : all) {
+                final int id = todo.getId();
+                context.assertEquals("patched " + id, todo.getTitle(), "title of " + id);
+                context.assertEquals(true, todo.isCompleted(), "completed of " + id);
+                context.assertEquals(id * 10, todo.getOrder(), "order of " + id);
+                context.assertEquals("todo/" + id, todo.getUrl(), "url of " + id);
+            }
+            async.complete();
+        }));
+    }
+}
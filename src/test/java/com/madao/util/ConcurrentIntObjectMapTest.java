@@ -0,0 +1,81 @@
+package com.madao.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * {@link ConcurrentIntObjectMap#valuesAbove} against a sorted map fed the
+ * same puts and removes.
+ */
+public class ConcurrentIntObjectMapTest {
+
+    @Test
+    public void valuesAboveMatchesASortedMap() {
+        final ConcurrentIntObjectMap<Integer> map = new ConcurrentIntObjectMap<>();
+        final TreeMap<Integer, Integer> expected = new TreeMap<>();
+        final Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            final int key = random.nextInt(2_000) - 1_000;
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                Assert.assertEquals(expected.put(key, key), map.put(key, key));
+            }
+        }
+        map.put(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        expected.put(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+        // page through everything the way getPage does, each value being its key
+        int after = Integer.MIN_VALUE;
+        while (true) {
+            final List<Integer> page = map.valuesAbove(after, 37);
+            final List<Integer> wanted = new ArrayList<>(expected.tailMap(after, false).values());
+            Assert.assertEquals(wanted.subList(0, Math.min(37, wanted.size())), page);
+            if (page.size() < 37) {
+                break;
+            }
+            after = page.get(page.size() - 1);
+        }
+
+        map.clear();
+        Assert.assertTrue(map.valuesAbove(Integer.MIN_VALUE, 10).isEmpty());
+        map.put(5, 5);
+        Assert.assertEquals(1, map.valuesAbove(Integer.MIN_VALUE, 10).size());
+    }
+
+    // puts and removes from several threads leave the order consistent with the keys
+    @Test
+    public void orderSurvivesConcurrentUpdates() throws InterruptedException {
+        final ConcurrentIntObjectMap<Integer> map = new ConcurrentIntObjectMap<>();
+        final ConcurrentSkipListMap<Integer, Integer> expected = new ConcurrentSkipListMap<>();
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            new Thread(() -> {
+                final Random random = new Random(thread);
+                for (int i = 0; i < 50_000; i++) {
+                    // each thread owns the keys congruent to it, so the expected map stays exact
+                    final int key = (random.nextInt(1_000) * 4) + thread;
+                    if (random.nextBoolean()) {
+                        map.put(key, key);
+                        expected.put(key, key);
+                    } else {
+                        map.remove(key);
+                        expected.remove(key);
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        Assert.assertEquals(new ArrayList<>(expected.values()), map.valuesAbove(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        Assert.assertEquals(expected.size(), map.size());
+    }
+}
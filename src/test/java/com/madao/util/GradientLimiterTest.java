@@ -0,0 +1,65 @@
+package com.madao.util;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * One limiter shared by two event loops, the way the verticles on one JDBC
+ * pool share it.
+ */
+@RunWith(VertxUnitRunner.class)
+public class GradientLimiterTest {
+
+    private Vertx vertx;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown(TestContext context) {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void permitsAreSharedAcrossContexts(TestContext context) {
+        final GradientLimiter limiter = new GradientLimiter(vertx, 1, 1, 1, 10, 10_000);
+        final Context first = vertx.getOrCreateContext();
+        final Context second = vertx.getOrCreateContext();
+        final Async async = context.async();
+
+        first.runOnContext(v -> limiter.acquire(context.asyncAssertSuccess(held -> second.runOnContext(w -> {
+            // the only permit is taken on the other event loop, so this one waits for it
+            limiter.acquire(context.asyncAssertSuccess(granted -> {
+                context.assertEquals(second, Vertx.currentContext(), "resumed on the acquiring context");
+                context.assertEquals(1, limiter.inFlight());
+                async.complete();
+            }));
+            context.assertEquals(1, limiter.queued());
+            first.runOnContext(x -> limiter.release(1_000_000));
+        }))));
+    }
+
+    @Test
+    public void waitersTimeOut(TestContext context) {
+        final GradientLimiter limiter = new GradientLimiter(vertx, 1, 1, 1, 10, 50);
+        final Async async = context.async();
+
+        vertx.runOnContext(v -> limiter.acquire(context.asyncAssertSuccess(held ->
+                limiter.acquire(waited -> {
+                    context.assertTrue(waited.cause() instanceof RejectedExecutionException);
+                    context.assertEquals(0, limiter.queued());
+                    async.complete();
+                }))));
+    }
+}